@@ -2,8 +2,9 @@ package jhi.germinate.server.util.importer;
 
 import jhi.germinate.server.Database;
 import jhi.germinate.server.database.codegen.tables.records.*;
-import jhi.germinate.server.database.pojo.ImportStatus;
+import jhi.germinate.server.database.pojo.*;
 import jhi.germinate.server.util.StringUtils;
+import jhi.germinate.server.util.importer.util.*;
 import org.dhatim.fastexcel.reader.*;
 import org.jooq.DSLContext;
 
@@ -14,6 +15,7 @@ import java.sql.*;
 import java.sql.Date;
 import java.time.*;
 import java.util.*;
+import java.util.logging.*;
 
 import static jhi.germinate.server.database.codegen.tables.Fileresources.FILERESOURCES;
 import static jhi.germinate.server.database.codegen.tables.Fileresourcetypes.FILERESOURCETYPES;
@@ -25,6 +27,9 @@ public abstract class AbstractExcelImporter extends AbstractImporter
 {
 	private static final ReadingOptions OPTIONS = new ReadingOptions(true, true);
 
+	private final Map<String, File>             stagedSheets   = new HashMap<>();
+	private final Map<String, StagedRow.Writer> stagingWriters = new HashMap<>();
+
 	public AbstractExcelImporter(Integer importJobId)
 	{
 		super(importJobId);
@@ -37,8 +42,11 @@ public abstract class AbstractExcelImporter extends AbstractImporter
 
 	protected BigDecimal getCellValueDMS(Row r, Map<String, Integer> columnNameToIndex, String column)
 	{
-		String degreeMinuteSecond = getCellValue(r, columnNameToIndex, column);
+		return parseDMS(getCellValue(r, columnNameToIndex, column));
+	}
 
+	private BigDecimal parseDMS(String degreeMinuteSecond)
+	{
 		if (StringUtils.isEmpty(degreeMinuteSecond))
 			return null;
 
@@ -98,10 +106,15 @@ public abstract class AbstractExcelImporter extends AbstractImporter
 	}
 
 	protected BigDecimal getCellValueBigDecimal(Row r, int index)
+	{
+		return parseBigDecimal(getCellValue(r, index));
+	}
+
+	private BigDecimal parseBigDecimal(String value)
 	{
 		try
 		{
-			BigDecimal result = new BigDecimal(Double.parseDouble(getCellValue(r, index)), MathContext.DECIMAL64);
+			BigDecimal result = new BigDecimal(Double.parseDouble(value), MathContext.DECIMAL64);
 			result = result.setScale(10, RoundingMode.HALF_UP);
 			return result;
 		}
@@ -160,70 +173,26 @@ public abstract class AbstractExcelImporter extends AbstractImporter
 	{
 		String value = getCellValue(r, index);
 
-		java.util.Date date = null;
-		if (!StringUtils.isEmpty(value))
+		if (StringUtils.isEmpty(value))
+			return null;
+
+		LocalDate date = DateDecoder.decode(value);
+
+		if (date != null)
+			return Date.valueOf(date);
+
+		// FastExcel doesn't give us a reliable way of determining if a cell is a date or not, so any number within the accepted range is taken to be one
+		Cell cell = r.getCell(index);
+
+		if (cell != null && cell.getType() == CellType.NUMBER)
 		{
-			if (!StringUtils.isEmpty(value))
-			{
-				if (value.length() == 10)
-				{
-					try
-					{
-						date = SDF_FULL_DASH.parse(value);
-					}
-					catch (Exception e)
-					{
-					}
-				}
-				else if (value.length() == 8)
-				{
-					// Replace all hyphens with zeros so that we only have one case to handle.
-					value = value.replace("-", "0");
-
-					try
-					{
-						boolean noMonth = value.startsWith("00", 4);
-						boolean noDay = value.startsWith("00", 6);
-
-						if (noDay && noMonth)
-							date = SDF_YEAR.parse(value.substring(0, 4));
-						else if (noDay)
-							date = SDF_YEAR_MONTH.parse(value.substring(0, 6));
-						else if (noMonth)
-							date = SDF_YEAR_DAY.parse(value.substring(0, 4) + value.substring(6, 8));
-						else
-							date = SDF_FULL.parse(value);
-					}
-					catch (Exception e)
-					{
-					}
-				}
-				else
-				{
-					try
-					{
-						// This is a bit of a hack, since FastExcel doesn't give us a reliable way of determining if a cell is a date or not.
-						// So we basically try and convert it to a date, then check if it's within a "valid/acceptable" range
-						LocalDateTime start = LocalDateTime.of(-3000, 1, 1, 0, 0);
-						LocalDateTime end = LocalDateTime.of(3000, 12, 31, 23, 59);
-						LocalDateTime dateTime = r.getCell(index).asDate();
-
-						if (dateTime.isAfter(start) && dateTime.isBefore(end))
-						{
-							date = Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
-						}
-					}
-					catch (Exception e)
-					{
-					}
-				}
-			}
+			LocalDateTime dateTime = DateDecoder.decodeExcelSerial(cell.asNumber().doubleValue());
+
+			if (dateTime != null)
+				return new Date(dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
 		}
 
-		if (date != null)
-			return new Date(date.getTime());
-		else
-			return null;
+		return null;
 	}
 
 	protected String getCellValue(Cell c)
@@ -308,9 +277,168 @@ public abstract class AbstractExcelImporter extends AbstractImporter
 		return true;
 	}
 
+	protected String getCellValue(StagedRow r, Map<String, Integer> columnNameToIndex, String column)
+	{
+		try
+		{
+			return r.getCellText(columnNameToIndex.get(column));
+		}
+		catch (Exception e)
+		{
+			addImportResult(ImportStatus.GENERIC_MISSING_COLUMN, r.getRowNum(), "Column missing: '" + column + "'");
+			return null;
+		}
+	}
+
+	protected Integer getCellValueInteger(StagedRow r, Map<String, Integer> columnNameToIndex, String column)
+	{
+		try
+		{
+			return Integer.parseInt(getCellValue(r, columnNameToIndex, column));
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+
+	protected BigDecimal getCellValueBigDecimal(StagedRow r, Map<String, Integer> columnNameToIndex, String column)
+	{
+		return parseBigDecimal(getCellValue(r, columnNameToIndex, column));
+	}
+
+	protected BigDecimal getCellValueDMS(StagedRow r, Map<String, Integer> columnNameToIndex, String column)
+	{
+		return parseDMS(getCellValue(r, columnNameToIndex, column));
+	}
+
+	/**
+	 * @return The row with the normalized values of all its cells, as returned by {@link #getCellValue(Row, Integer)}
+	 */
+	protected StagedRow toStagedRow(Row r)
+	{
+		String[] cells = new String[r.getCellCount()];
+
+		for (int i = 0; i < cells.length; i++)
+			cells[i] = getCellValue(r, i);
+
+		return new StagedRow(r.getRowNum(), cells);
+	}
+
+	/**
+	 * Starts staging the rows of the sheet while it's being checked. The import can then replay them using {@link #replay(String)} instead of
+	 * parsing the workbook again. Does nothing unless the import runs straight after the check.
+	 */
+	protected void startStaging(String sheet)
+	{
+		RunType runType = jobDetails.getJobConfig().getRunType();
+
+		if (!runType.includesCheck() || !runType.includesImport())
+			return;
+
+		try
+		{
+			File file = File.createTempFile("staged-", ".rows", getInputFile().getParentFile());
+			stagedSheets.put(sheet, file);
+			stagingWriters.put(sheet, new StagedRow.Writer(file));
+		}
+		catch (IOException e)
+		{
+			Logger.getLogger("").log(Level.WARNING, "Unable to stage sheet '" + sheet + "', the import will parse it again", e);
+			discardStaging(sheet);
+		}
+	}
+
+	/**
+	 * Adds the row to the staged rows of the sheet, unless it's empty.
+	 */
+	protected void stage(String sheet, Row r)
+	{
+		StagedRow.Writer writer = stagingWriters.get(sheet);
+
+		if (writer == null || allCellsEmpty(r))
+			return;
+
+		try
+		{
+			writer.write(toStagedRow(r));
+		}
+		catch (IOException e)
+		{
+			Logger.getLogger("").log(Level.WARNING, "Unable to stage sheet '" + sheet + "', the import will parse it again", e);
+			discardStaging(sheet);
+		}
+	}
+
+	/**
+	 * Completes the staged rows of the sheet. Sheets that aren't finished are discarded at the end of the check, as they'd be incomplete.
+	 */
+	protected void finishStaging(String sheet)
+	{
+		StagedRow.Writer writer = stagingWriters.remove(sheet);
+
+		if (writer == null)
+			return;
+
+		try
+		{
+			writer.close();
+			Logger.getLogger("").info("Staged " + writer.getRows() + " rows of sheet '" + sheet + "'");
+		}
+		catch (IOException e)
+		{
+			Logger.getLogger("").log(Level.WARNING, "Unable to stage sheet '" + sheet + "', the import will parse it again", e);
+			discardStaging(sheet);
+		}
+	}
+
+	/**
+	 * @return The reader for the rows staged during the check or <code>null</code> if the sheet hasn't been staged
+	 */
+	protected StagedRow.Reader replay(String sheet)
+			throws IOException
+	{
+		File file = stagedSheets.get(sheet);
+
+		if (file == null || stagingWriters.containsKey(sheet))
+			return null;
+		else
+			return new StagedRow.Reader(file);
+	}
+
+	private void discardStaging(String sheet)
+	{
+		StagedRow.Writer writer = stagingWriters.remove(sheet);
+
+		if (writer != null)
+		{
+			try
+			{
+				writer.close();
+			}
+			catch (IOException e)
+			{
+				// The file is deleted anyway
+			}
+		}
+
+		File file = stagedSheets.remove(sheet);
+
+		if (file != null)
+			file.delete();
+	}
+
+	private void discardStaging()
+	{
+		new ArrayList<>(stagedSheets.keySet()).forEach(this::discardStaging);
+	}
+
 	@Override
 	protected final void checkFile()
 	{
+		ImportEvents.ExcelParse event = new ImportEvents.ExcelParse();
+		event.begin();
+
 		try (ReadableWorkbook wb = new ReadableWorkbook(this.getInputFile(), OPTIONS))
 		{
 			checkFile(wb);
@@ -319,11 +447,23 @@ public abstract class AbstractExcelImporter extends AbstractImporter
 		{
 			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
 		}
+		finally
+		{
+			// Unfinished sheets are incomplete and there won't be an import if the check failed
+			new ArrayList<>(stagingWriters.keySet()).forEach(this::discardStaging);
+			if (hasImportError())
+				discardStaging();
+
+			commit(event, "checkFile");
+		}
 	}
 
 	@Override
 	protected final void importFile()
 	{
+		ImportEvents.ExcelParse event = new ImportEvents.ExcelParse();
+		event.begin();
+
 		try (ReadableWorkbook wb = new ReadableWorkbook(this.getInputFile(), OPTIONS))
 		{
 			importFile(wb);
@@ -332,11 +472,19 @@ public abstract class AbstractExcelImporter extends AbstractImporter
 		{
 			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
 		}
+		finally
+		{
+			discardStaging();
+			commit(event, "importFile");
+		}
 	}
 
 	@Override
 	protected final void updateFile()
 	{
+		ImportEvents.ExcelParse event = new ImportEvents.ExcelParse();
+		event.begin();
+
 		try (ReadableWorkbook wb = new ReadableWorkbook(this.getInputFile(), OPTIONS))
 		{
 			updateFile(wb);
@@ -345,6 +493,25 @@ public abstract class AbstractExcelImporter extends AbstractImporter
 		{
 			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
 		}
+		finally
+		{
+			discardStaging();
+			commit(event, "updateFile");
+		}
+	}
+
+	private void commit(ImportEvents.ExcelParse event, String phase)
+	{
+		event.end();
+
+		if (event.shouldCommit())
+		{
+			event.file = this.getInputFile().getName();
+			event.phase = phase;
+			event.rows = getProgress().snapshot().getRowsProcessed();
+			event.bytes = this.getInputFile().length();
+			event.commit();
+		}
 	}
 
 	protected abstract void checkFile(ReadableWorkbook wb);
@@ -360,7 +527,7 @@ public abstract class AbstractExcelImporter extends AbstractImporter
 		// Create a backup copy of the uploaded file and link it to the newly created dataset.
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			FileresourcetypesRecord type = context.selectFrom(FILERESOURCETYPES)
 												  .where(FILERESOURCETYPES.NAME.eq("Dataset resource"))
 												  .and(FILERESOURCETYPES.DESCRIPTION.eq("Automatically created linked backups of uploaded data resources."))
@@ -396,8 +563,8 @@ public abstract class AbstractExcelImporter extends AbstractImporter
 
 			importJobStats.setFileResourceId(fileRes.getId());
 
-			// Finally copy the file
-			Files.copy(input.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			// Finally place the file, sharing its data with the upload where possible
+			FilePlacement.copy(input.toPath(), target.toPath());
 		}
 		catch (SQLException | IOException e)
 		{
@@ -1,12 +1,20 @@
 package jhi.germinate.server.util.importer;
 
 import jhi.germinate.server.database.pojo.ImportStatus;
+import jhi.germinate.server.util.importer.util.*;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 
-public abstract class AbstractFlatFileImporter extends AbstractImporter
+/**
+ * Base class for importers of genotype text files. The file is opened once per phase, either as a {@link BufferedReader} or, for files with many columns,
+ * as a {@link FieldScanner}.
+ *
+ * @param <T> The type the importer reads the file through
+ * @author Sebastian Raubach
+ */
+public abstract class AbstractFlatFileImporter<T extends Closeable> extends AbstractGenotypeImporter
 {
 	public AbstractFlatFileImporter(Integer importJobId)
 	{
@@ -16,9 +24,9 @@ public abstract class AbstractFlatFileImporter extends AbstractImporter
 	@Override
 	protected final void checkFile()
 	{
-		try (BufferedReader br = Files.newBufferedReader(this.getInputFile().toPath(), StandardCharsets.UTF_8))
+		try (T input = openInput())
 		{
-			checkFile(br);
+			checkFile(input);
 		}
 		catch (IOException e)
 		{
@@ -29,9 +37,9 @@ public abstract class AbstractFlatFileImporter extends AbstractImporter
 	@Override
 	protected final void importFile()
 	{
-		try (BufferedReader br = Files.newBufferedReader(this.getInputFile().toPath(), StandardCharsets.UTF_8))
+		try (T input = openInput())
 		{
-			importFile(br);
+			importFile(input);
 		}
 		catch (IOException e)
 		{
@@ -42,9 +50,9 @@ public abstract class AbstractFlatFileImporter extends AbstractImporter
 	@Override
 	protected final void updateFile()
 	{
-		try (BufferedReader br = Files.newBufferedReader(this.getInputFile().toPath(), StandardCharsets.UTF_8))
+		try (T input = openInput())
 		{
-			updateFile(br);
+			updateFile(input);
 		}
 		catch (IOException e)
 		{
@@ -52,13 +60,59 @@ public abstract class AbstractFlatFileImporter extends AbstractImporter
 		}
 	}
 
-	protected abstract void checkFile(BufferedReader br);
+	/**
+	 * Opens the input file for the current phase, usually through {@link #openReader()} or {@link #openScanner()}.
+	 */
+	protected abstract T openInput()
+			throws IOException;
 
-	protected abstract void importFile(BufferedReader br);
+	/**
+	 * Opens the input file as UTF-8 text. The bytes and lines read count towards the import's progress.
+	 */
+	protected BufferedReader openReader()
+			throws IOException
+	{
+		return getProgress().trackLines(new InputStreamReader(openInputStream(), StandardCharsets.UTF_8.newDecoder()));
+	}
+
+	/**
+	 * Opens the input file for reading its tab-delimited fields without decoding each line. The bytes and lines read count towards the import's
+	 * progress.
+	 */
+	protected FieldScanner openScanner()
+			throws IOException
+	{
+		return FieldScanner.open(this.getInputFile(), getProgress(), takeContentHash());
+	}
+
+	/**
+	 * Opens the content of the input file, decompressing it if it's been compressed with gzip, zstd or bzip2.
+	 */
+	protected InputStream openInputStream()
+			throws IOException
+	{
+		InputStream is = Files.newInputStream(this.getInputFile().toPath());
+
+		ContentHash hash = takeContentHash();
+		if (hash != null)
+			is = hash.track(is);
+
+		// Count the bytes as they are on disk, so they can be compared to the file size
+		return CompressedInput.open(getProgress().track(is));
+	}
+
+	/**
+	 * The check reads the whole file, so it's hashed along the way instead of reading it once more beforehand.
+	 */
+	@Override
+	protected boolean hashesInputWhileChecking()
+	{
+		return true;
+	}
 
-	protected abstract void updateFile(BufferedReader br);
+	protected abstract void checkFile(T input);
 
-	protected abstract int getMarkerCount();
+	protected abstract void importFile(T input);
 
-	protected abstract int getGermplasmCount();
+	protected abstract void updateFile(T input);
 }
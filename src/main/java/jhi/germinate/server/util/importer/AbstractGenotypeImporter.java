@@ -0,0 +1,383 @@
+package jhi.germinate.server.util.importer;
+
+import jhi.germinate.server.Database;
+import jhi.germinate.server.database.codegen.tables.records.*;
+import jhi.germinate.server.database.pojo.ImportStatus;
+import jhi.germinate.server.util.importer.task.*;
+import jhi.germinate.server.util.importer.util.*;
+import org.jooq.DSLContext;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import static jhi.germinate.server.database.codegen.tables.Datasetfileresources.DATASETFILERESOURCES;
+import static jhi.germinate.server.database.codegen.tables.Datasets.DATASETS;
+import static jhi.germinate.server.database.codegen.tables.Experiments.EXPERIMENTS;
+import static jhi.germinate.server.database.codegen.tables.Fileresources.FILERESOURCES;
+import static jhi.germinate.server.database.codegen.tables.Fileresourcetypes.FILERESOURCETYPES;
+import static jhi.germinate.server.database.codegen.tables.Mapfeaturetypes.MAPFEATURETYPES;
+import static jhi.germinate.server.database.codegen.tables.Maps.MAPS;
+import static jhi.germinate.server.database.codegen.tables.Markertypes.MARKERTYPES;
+
+/**
+ * Base class for genotype importers. The file formats differ, but what's created from them doesn't: the markers, a map, a hidden dataset that's
+ * made visible once its members and map definitions are in place, and a backup of the upload linked to the dataset.
+ *
+ * @author Sebastian Raubach
+ */
+public abstract class AbstractGenotypeImporter extends AbstractImporter
+{
+	protected NameIndex markerToId = new NameIndex();
+
+	protected final Set<Integer> markerIdsInFile    = new HashSet<>();
+	protected final Set<Integer> germplasmIdsInFile = new HashSet<>();
+
+	protected File hdf5TargetFolder;
+
+	protected DatasetsRecord dataset;
+
+	protected GermplasmLookup germplasmLookup;
+
+	public AbstractGenotypeImporter(Integer importJobId)
+	{
+		super(importJobId);
+	}
+
+	@Override
+	protected void prepare()
+	{
+		this.hdf5TargetFolder = new File(new File(this.jobDetails.getJobConfig().getBaseFolder(), "data"), "genotypes");
+		this.hdf5TargetFolder.mkdirs();
+
+		try (Connection conn = Database.getConnection())
+		{
+			DSLContext context = getContext(conn);
+			markerToId = IndexSnapshot.loadMarkers(context, getSnapshotFolder());
+		}
+		catch (SQLException e)
+		{
+			e.printStackTrace();
+			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
+		}
+	}
+
+	@Override
+	protected void postImport()
+	{
+		// The import stopped before the dataset was created, so there's nothing to link the backup to
+		if (dataset == null)
+			return;
+
+		importJobStats.setDatasetId(dataset.getId());
+		importJobStats.setGermplasm(germplasmIdsInFile.size());
+		importJobStats.setMarkers(markerIdsInFile.size());
+
+		File input = getInputFile();
+		// Create a backup copy of the uploaded file and link it to the newly created dataset.
+		try (Connection conn = Database.getConnection())
+		{
+			DSLContext context = getContext(conn);
+			FileresourcetypesRecord type = context.selectFrom(FILERESOURCETYPES)
+												  .where(FILERESOURCETYPES.NAME.eq("Dataset resource"))
+												  .and(FILERESOURCETYPES.DESCRIPTION.eq("Automatically created linked backups of uploaded data resources."))
+												  .fetchAny();
+
+			if (type == null)
+			{
+				type = context.newRecord(FILERESOURCETYPES);
+				type.setName("Dataset resource");
+				type.setDescription("Automatically created linked backups of uploaded data resources.");
+				type.setCreatedOn(new Timestamp(System.currentTimeMillis()));
+				type.store();
+			}
+
+			File typeFolder = new File(new File(new File(jobDetails.getJobConfig().getBaseFolder(), "data"), "download"), Integer.toString(type.getId()));
+			typeFolder.mkdirs();
+			File target = new File(typeFolder, input.getName());
+
+			FileresourcesRecord fileRes = context.newRecord(FILERESOURCES);
+			fileRes.setName(jobDetails.getOriginalFilename());
+			fileRes.setPath(target.getName());
+			fileRes.setFilesize(input.length());
+			fileRes.setDescription("Automatic upload backup.");
+			fileRes.setFileresourcetypeId(type.getId());
+			fileRes.setCreatedOn(new Timestamp(System.currentTimeMillis()));
+			fileRes.setUpdatedOn(new Timestamp(System.currentTimeMillis()));
+			fileRes.store();
+
+			// Now update the name with the file resource id
+			target = new File(typeFolder, fileRes.getId() + "-" + input.getName());
+			fileRes.setPath(target.getName());
+			fileRes.store();
+
+			importJobStats.setFileResourceId(fileRes.getId());
+
+			// Finally place the file, sharing its data with the upload where possible
+			FilePlacement.copy(input.toPath(), target.toPath());
+			// Text compresses well, so only keep a compressed copy once the job is complete
+			if (isBackupCompressible())
+				compressBackupLater(fileRes.getId(), target);
+
+			DatasetfileresourcesRecord link = context.newRecord(DATASETFILERESOURCES);
+			link.setDatasetId(this.dataset.getId());
+			link.setFileresourceId(fileRes.getId());
+			link.setCreatedOn(new Timestamp(System.currentTimeMillis()));
+			link.setUpdatedOn(new Timestamp(System.currentTimeMillis()));
+			link.store();
+		}
+		catch (SQLException | IOException e)
+		{
+			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, "Failed to create file resource for dataset: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return Whether the backup of the upload is worth compressing once the job is complete
+	 */
+	protected boolean isBackupCompressible()
+	{
+		return true;
+	}
+
+	/**
+	 * @return The HDF5 file the genotypes end up in or, if <code>transposed</code>, the one with markers as rows
+	 */
+	protected File getHdf5File(boolean transposed)
+	{
+		return new File(this.hdf5TargetFolder, (transposed ? "transposed-" : "") + this.getInputFile().getName() + ".hdf5");
+	}
+
+	protected MarkertypesRecord getOrCreateMarkerType(DSLContext context, String name)
+	{
+		MarkertypesRecord markerType = context.selectFrom(MARKERTYPES)
+											  .where(MARKERTYPES.DESCRIPTION.eq(name))
+											  .fetchAny();
+
+		if (markerType == null)
+		{
+			markerType = context.newRecord(MARKERTYPES);
+			markerType.setDescription(name);
+			markerType.setCreatedOn(new Timestamp(System.currentTimeMillis()));
+			markerType.store();
+		}
+
+		return markerType;
+	}
+
+	protected MapfeaturetypesRecord getOrCreateMapFeatureType(DSLContext context, String name)
+	{
+		MapfeaturetypesRecord mapFeatureType = context.selectFrom(MAPFEATURETYPES)
+													  .where(MAPFEATURETYPES.DESCRIPTION.eq(name))
+													  .fetchAny();
+
+		if (mapFeatureType == null)
+		{
+			mapFeatureType = context.newRecord(MAPFEATURETYPES);
+			mapFeatureType.setDescription(name);
+			mapFeatureType.setCreatedOn(new Timestamp(System.currentTimeMillis()));
+			mapFeatureType.store();
+		}
+
+		return mapFeatureType;
+	}
+
+	protected MapsRecord createMap(DSLContext context, String name)
+	{
+		MapsRecord map = context.newRecord(MAPS);
+		map.setName(name);
+		map.setDescription(name);
+		map.setVisibility(true);
+		map.setUserId(jobDetails.getUserId());
+		map.setCreatedOn(new Timestamp(System.currentTimeMillis()));
+		map.store();
+
+		return map;
+	}
+
+	/**
+	 * Imports the markers that don't exist yet and collects the ids of all of them.
+	 *
+	 * @return The marker ids in the order of the table or <code>null</code> if some of them are still missing, e.g. because they couldn't be
+	 * imported. The import can't carry on without them.
+	 */
+	protected int[] importMarkers(MarkerTable markers, int markerTypeId)
+	{
+		List<String> newMarkers = new ArrayList<>();
+		for (int i = 0; i < markers.size(); i++)
+		{
+			String marker = markers.getName(i);
+			if (!markerToId.containsKey(marker))
+				newMarkers.add(marker);
+		}
+
+		// Run the marker importer synchronously (we need the markers before we can continue
+		// This adds the ids of the new markers to the map
+		new MarkerImporterTask(newMarkers, markerTypeId, markerToId, this::getContext, this::addImportResult, getTimings(), getCancellation()).run();
+
+		int[] markerIds = new int[markers.size()];
+		boolean complete = true;
+
+		for (int i = 0; i < markers.size(); i++)
+		{
+			String marker = markers.getName(i);
+			int id = markerToId.get(marker);
+
+			if (id == NameIndex.MISSING)
+			{
+				addImportResult(ImportStatus.GENERIC_INVALID_MARKER, i + 1, "Marker not found in the database: " + marker);
+				complete = false;
+				continue;
+			}
+
+			markerIds[i] = id;
+			markerIdsInFile.add(id);
+		}
+
+		return complete ? markerIds : null;
+	}
+
+	/**
+	 * Creates the dataset, hidden until it's complete, along with its experiment. A dataset that has been set beforehand is fetched again instead.
+	 */
+	protected void createDataset(DSLContext context, String name, File hdf5)
+	{
+		ExperimentsRecord experiment = context.selectFrom(EXPERIMENTS)
+											  .where(EXPERIMENTS.EXPERIMENT_NAME.eq(name))
+											  .fetchAny();
+
+		if (experiment == null)
+		{
+			experiment = context.newRecord(EXPERIMENTS);
+			experiment.setExperimentName(name);
+			experiment.setCreatedOn(new Timestamp(System.currentTimeMillis()));
+			experiment.store();
+		}
+
+		if (dataset == null)
+		{
+			dataset = context.newRecord(DATASETS);
+			dataset.setExperimentId(experiment.getId());
+			dataset.setDatasettypeId(1);
+			dataset.setDatasetStateId(jobDetails.getDatasetstateId());
+			// Hide it initially. We don't want people using half-imported data.
+			dataset.setDatasetStateId(3);
+			dataset.setName(name);
+			dataset.setDescription(name);
+			dataset.setCreatedOn(new Timestamp(System.currentTimeMillis()));
+		}
+		else
+		{
+			// We need to fetch it again, because its database connection has been closed and updates won't be possible
+			dataset = context.selectFrom(DATASETS)
+							 .where(DATASETS.ID.eq(dataset.getId()))
+							 .fetchAny();
+		}
+
+		dataset.setSourceFile(hdf5.getName());
+		dataset.store();
+	}
+
+	/**
+	 * Starts importing the map definitions of the markers, unless they have no chromosomes or positions. Counts down the latch once done.
+	 */
+	protected void startMapdefinitionImport(MarkerTable markers, int[] markerIds, MapsRecord map, MapfeaturetypesRecord mapFeatureType, CountDownLatch latch)
+	{
+		if (markers.getChromosomeValueCount() > 0 && markers.getPositionValueCount() > 0)
+		{
+			new Thread(new MapdefinitionImporterTask(
+					markers,
+					markerIds,
+					map.getId(),
+					mapFeatureType.getId(),
+					this::getContext, this::addImportResult, getTimings(), getCancellation(), getShadowTables())
+			{
+				@Override
+				protected void onFinished()
+				{
+					latch.countDown();
+				}
+			}).start();
+		}
+		else
+		{
+			// If there are none, just count this as finished
+			latch.countDown();
+		}
+	}
+
+	/**
+	 * Starts importing the dataset members. Counts down the latch once done.
+	 */
+	protected void startDatasetMemberImport(CountDownLatch latch)
+	{
+		new Thread(newDatasetMemberTask(latch::countDown)).start();
+	}
+
+	/**
+	 * Imports the dataset members on the calling thread.
+	 */
+	protected void importDatasetMembers()
+	{
+		newDatasetMemberTask(() -> {
+		}).run();
+	}
+
+	private DatasetMemberImporterTask newDatasetMemberTask(Runnable onFinished)
+	{
+		return new DatasetMemberImporterTask(
+				markerIdsInFile,
+				germplasmIdsInFile,
+				dataset.getId(),
+				this::getContext, this::addImportResult, getTimings(), getCancellation(), getShadowTables())
+		{
+			@Override
+			protected void onFinished()
+			{
+				onFinished.run();
+			}
+		};
+	}
+
+	/**
+	 * Waits for the tasks counted by the latch, then publishes the staged data and makes the dataset visible. The dataset stays hidden if the import
+	 * has failed.
+	 */
+	protected void publishDataset(CountDownLatch latch)
+			throws SQLException
+	{
+		try
+		{
+			// Wait for the others to finish
+			latch.await();
+
+			// The tasks stop early if the import has been cancelled, so don't publish what they've left
+			getCancellation().throwIfCancelled();
+
+			// Move the staged data into the live tables before anyone can see the dataset
+			boolean published = publishShadowTables();
+
+			// Now set it to be public, unless something went wrong and it's incomplete
+			if (published && !hasImportError())
+			{
+				dataset.setDatasetStateId(1);
+				dataset.store(DATASETS.DATASET_STATE_ID);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
+		}
+	}
+
+	protected int getMarkerCount()
+	{
+		return markerIdsInFile.size();
+	}
+
+	protected int getGermplasmCount()
+	{
+		return germplasmIdsInFile.size();
+	}
+}
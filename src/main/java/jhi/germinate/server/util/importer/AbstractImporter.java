@@ -5,35 +5,72 @@ import jhi.germinate.server.database.codegen.enums.*;
 import jhi.germinate.server.database.codegen.tables.pojos.DataImportJobs;
 import jhi.germinate.server.database.codegen.tables.records.DataImportJobsRecord;
 import jhi.germinate.server.database.pojo.*;
+import jhi.germinate.server.util.importer.util.*;
+import org.jooq.Condition;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.UpdatableRecord;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultExecuteListenerProvider;
 
 import java.io.*;
 import java.nio.file.*;
 import java.sql.*;
-import java.text.SimpleDateFormat;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.*;
 
 import static jhi.germinate.server.database.codegen.tables.DataImportJobs.DATA_IMPORT_JOBS;
+import static jhi.germinate.server.database.codegen.tables.Datasets.DATASETS;
+import static jhi.germinate.server.database.codegen.tables.Fileresources.FILERESOURCES;
 
 public abstract class AbstractImporter
 {
-	protected SimpleDateFormat SDF_FULL_DASH  = new SimpleDateFormat("yyyy-MM-dd");
-	protected SimpleDateFormat SDF_FULL       = new SimpleDateFormat("yyyyMMdd");
-	protected SimpleDateFormat SDF_YEAR_MONTH = new SimpleDateFormat("yyyyMM");
-	protected SimpleDateFormat SDF_YEAR_DAY   = new SimpleDateFormat("yyyydd");
-	protected SimpleDateFormat SDF_YEAR       = new SimpleDateFormat("yyyy");
+	/** Seconds between two progress updates of the job */
+	private static final long HEARTBEAT_INTERVAL = 10;
+	/** Number of progress updates a running job has to have missed before it can be resumed by another process */
+	private static final long STALE_HEARTBEATS   = 6;
+	/** Number of the most expensive SQL templates to report */
+	private static final int  SQL_TOP_COUNT      = 10;
+
+	/** A single thread writes the progress of all imports running in this JVM */
+	private static final ScheduledExecutorService HEARTBEAT = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "import-heartbeat");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/** Backups are compressed after the job is complete, so the thread that ran it can start on the next one */
+	private static final ExecutorService          BACKUP_COMPRESSION = Executors.newSingleThreadExecutor(r -> new Thread(r, "backup-compression"));
 
 	protected final Integer                         importJobId;
 	protected       DataImportJobs                  jobDetails;
 	private         File                            inputFile;
-	private         List<ImportResult>              errorList      = new ArrayList<>();
-	private         Set<ImportStatus>               errorSet       = new HashSet<>();
+	private final   FeedbackCollector               feedback       = new FeedbackCollector();
 	private         String[]                        args;
-	protected       ImportJobStats                  importJobStats = new ImportJobStats();
+	protected       DetailedImportJobStats          importJobStats = new DetailedImportJobStats();
+	private         CancellationToken               cancellation   = new CancellationToken();
+	private         ImportProgress                  progress       = new ImportProgress(cancellation);
+	private         ImportTimings                   timings        = new ImportTimings();
+	private         SqlProfiler                     sqlProfiler    = new SqlProfiler();
+	private         boolean                         resume         = false;
+	private         boolean                         forceImport    = false;
+	private         boolean                         jobClaimed     = false;
+	/** The hash of the input file, computed while the check reads it */
+	private         ContentHash                     inputHash      = null;
+	private         boolean                         inputHashTaken = false;
+	private         ImportCheckpoint                checkpoint     = new ImportCheckpoint();
+	private         boolean                         checkpointed   = false;
+	private         ShadowTables                    shadowTables   = new ShadowTables();
+	private         boolean                         stagingEnded   = false;
+	private         boolean                         stagedRowsLive = true;
+	/** Backups of text files by the id of their file resource, compressed once the job is complete */
+	private final   Map<Integer, File>              backups        = new LinkedHashMap<>();
 
-	private Instant start;
+	private Instant            start;
+	private ScheduledFuture<?> heartbeat;
+	private Future<?>          backupCompression;
 
 	public AbstractImporter(Integer importJobId)
 	{
@@ -94,8 +131,8 @@ public abstract class AbstractImporter
 
 		File targetFile = new File(jobFolder, uuid + "." + extension);
 
-		// Copy input file to its location
-		Files.copy(inputFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		// Place input file at its location, sharing its data with the original where possible
+		FilePlacement.copy(inputFile.toPath(), targetFile.toPath());
 
 		try (Connection conn = Database.getConnection())
 		{
@@ -128,16 +165,54 @@ public abstract class AbstractImporter
 
 	public void init(String[] args)
 	{
-		this.args = args;
 		Database.init(args[0], args[1], args[2], args[3], args[4], false);
 
+		initJob(args);
+	}
+
+	/**
+	 * Loads the job details and claims the job by marking it as running, unless it has been claimed already, see {@link #setJobClaimed(boolean)}.
+	 * The claim only succeeds if nobody else has claimed the job in the meantime. Unlike {@link #init(String[])}, this expects the database to be
+	 * set up already, e.g. by the {@link ImportWorker} or an importer wrapping this one.
+	 */
+	public void initJob(String[] args)
+	{
+		this.args = args;
+
 		try (Connection conn = Database.getConnection())
 		{
 			DSLContext context = Database.getContext(conn);
 
+			if (!jobClaimed)
+			{
+				Condition claimable = DATA_IMPORT_JOBS.STATUS.eq(DataImportJobsStatus.waiting);
+
+				// A job that died part way through has failed or is still marked as running, so it can only be resumed from there. A job that is
+				// really still running keeps updating its progress, so it's only taken over once that has stopped for a while.
+				if (resume)
+				{
+					Timestamp stale = new Timestamp(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(HEARTBEAT_INTERVAL * STALE_HEARTBEATS));
+
+					claimable = claimable.or(DATA_IMPORT_JOBS.STATUS.eq(DataImportJobsStatus.failed))
+										 .or(DATA_IMPORT_JOBS.STATUS.eq(DataImportJobsStatus.running).and(DATA_IMPORT_JOBS.UPDATED_ON.lt(stale)));
+				}
+
+				jobClaimed = context.update(DATA_IMPORT_JOBS)
+									.set(DATA_IMPORT_JOBS.STATUS, DataImportJobsStatus.running)
+									.set(DATA_IMPORT_JOBS.UPDATED_ON, new Timestamp(System.currentTimeMillis()))
+									.where(DATA_IMPORT_JOBS.ID.eq(this.importJobId))
+									.and(claimable)
+									.execute() == 1;
+
+				if (!jobClaimed)
+				{
+					DataImportJobsStatus status = context.select(DATA_IMPORT_JOBS.STATUS).from(DATA_IMPORT_JOBS).where(DATA_IMPORT_JOBS.ID.eq(this.importJobId)).fetchOne(DATA_IMPORT_JOBS.STATUS);
+					addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, "Import job " + importJobId + " can't be run, its status is: " + status);
+					return;
+				}
+			}
+
 			DataImportJobsRecord job = context.selectFrom(DATA_IMPORT_JOBS).where(DATA_IMPORT_JOBS.ID.eq(this.importJobId)).fetchAny();
-			job.setStatus(DataImportJobsStatus.running);
-			job.store(DATA_IMPORT_JOBS.STATUS);
 
 			this.jobDetails = job.into(DataImportJobs.class);
 
@@ -157,33 +232,93 @@ public abstract class AbstractImporter
 
 	public void run()
 	{
+		// Someone else is running the job, so don't touch it
+		if (!jobClaimed)
+		{
+			Logger.getLogger("").warning("Import job " + importJobId + " hasn't been claimed, not running it: " + feedback);
+			return;
+		}
+
 		try
 		{
+			startHeartbeat();
+
 			RunType runtype = jobDetails.getJobConfig().getRunType();
+			boolean resuming = resume && loadCheckpoint();
+			startPhase(ImportProgress.Phase.PREPARE);
+
+			// Users tend to upload the same file again if the first upload seemed to take too long, don't import it twice
+			boolean hashed = runtype.includesImport() && !resuming && !jobDetails.getIsUpdate();
+			boolean hashWhileChecking = hashed && runtype.includesCheck() && hashesInputWhileChecking() && inputFile != null && inputFile.isFile();
+			String contentHash = hashed && !hashWhileChecking ? hashInputFile() : null;
+			boolean alreadyImported = contentHash != null && findPreviousImport(contentHash);
+
 			prepare();
 
-			if (runtype.includesCheck()) checkFile();
+			// The checkpoint is only written once the import has started, so the check passed already
+			if (runtype.includesCheck() && !resuming && !alreadyImported)
+			{
+				cancellation.throwIfCancelled();
+				startPhase(ImportProgress.Phase.CHECK);
+				if (hashWhileChecking)
+					inputHash = ContentHash.forFile(inputFile);
+				checkFile();
+			}
+
+			if (hashWhileChecking && !hasImportError())
+			{
+				contentHash = inputHash.get();
+
+				// The check didn't read all of the file after all
+				if (contentHash == null)
+					contentHash = hashInputFile();
+
+				alreadyImported = contentHash != null && findPreviousImport(contentHash);
+
+				if (alreadyImported)
+					onAlreadyImported();
+			}
 
 			if (!hasImportError())
 			{
-				if (runtype.includesImport())
+				if (runtype.includesImport() && !alreadyImported)
 				{
+					cancellation.throwIfCancelled();
+					startPhase(ImportProgress.Phase.IMPORT);
 					if (jobDetails.getIsUpdate())
 						updateFile();
 					else
 						importFile();
 
+					cancellation.throwIfCancelled();
+					// Unless the importer has published them itself already
+					publishShadowTables();
+					startPhase(ImportProgress.Phase.POST_IMPORT);
 					postImport();
+
+					// There's nothing left to resume
+					deleteCheckpoint();
 				}
+
+				// Only files that have been imported successfully are recognized when uploaded again
+				if (!hasImportError())
+					importJobStats.setContentHash(contentHash);
 			}
 			else if (jobDetails.getJobConfig().getDeleteOnFail())
 			{
 				inputFile.delete();
 			}
 
-			Logger.getLogger("").log(Level.INFO, errorList.toString());
+			Logger.getLogger("").log(Level.INFO, feedback.toString());
+
+			stopHeartbeat();
+			importJobStats.setProgress(progress.snapshot());
+			finishPhase();
+			importJobStats.setTimings(timings.getEntries());
+			reportStatements();
 
 			List<ImportResult> result = getImportResult();
+			writeFeedbackFile();
 
 			// Update the database record to indicate the job has finished running
 			try (Connection conn = Database.getConnection())
@@ -203,42 +338,641 @@ public abstract class AbstractImporter
 
 			Duration duration = Duration.between(start, Instant.now());
 
-			Logger.getLogger("").info("DURATION: " + duration);
+			Logger.getLogger("").info("DURATION: " + duration + " " + timings);
 			System.out.println("DURATION: " + duration);
+
+			// Nobody has to wait for this, the uncompressed backups can be served in the meantime
+			if (!backups.isEmpty())
+				backupCompression = BACKUP_COMPRESSION.submit(this::compressBackups);
+		}
+		catch (ImportCancelledException e)
+		{
+			reportCancelled();
 		}
 		catch (Exception e)
 		{
 			e.printStackTrace();
 			reportError(e);
 		}
+		finally
+		{
+			stopHeartbeat();
+			dropShadowTables();
+		}
 	}
 
-	protected boolean hasImportError()
+	/**
+	 * Registers the backup of a text file to be compressed once the job is complete. The file resource is then updated to point to the compressed
+	 * file. Files that are compressed already are left as they are.
+	 */
+	protected void compressBackupLater(Integer fileResourceId, File backup)
 	{
-		return errorList.stream().anyMatch(r -> r.getType() == ImportResult.StatusType.ERROR);
+		try
+		{
+			if (CompressedInput.detect(backup) == CompressedInput.Format.NONE)
+				backups.put(fileResourceId, backup);
+		}
+		catch (IOException e)
+		{
+			Logger.getLogger("").log(Level.WARNING, "Unable to read backup " + backup.getAbsolutePath(), e);
+		}
 	}
 
-	protected void addImportResult(ImportStatus status, int rowIndex, String message)
+	/**
+	 * Waits for the backups of the job to be compressed. The job itself is complete before then, this is only needed if the process is about to
+	 * exit.
+	 */
+	public void awaitBackupCompression()
 	{
-		if (!status.isAllowsMultiple() && errorSet.contains(status))
+		if (backupCompression == null)
 			return;
 
-		errorSet.add(status);
-		errorList.add(new ImportResult(status, rowIndex, message));
+		try
+		{
+			backupCompression.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			Logger.getLogger("").log(Level.WARNING, "Unable to compress the backups", e.getCause());
+		}
 	}
 
-	protected void addImportResult(ImportStatus status, int rowIndex, String message, ImportResult.StatusType type)
+	/**
+	 * Compresses the registered backups, once the job has been stored as completed. A backup that can't be compressed or whose file resource can't
+	 * be updated is left as it is, the job stays completed either way.
+	 */
+	private void compressBackups()
+	{
+		long backupSize = 0;
+		long compressedBackupSize = 0;
+
+		try (Connection conn = Database.getConnection())
+		{
+			DSLContext context = getContext(conn);
+
+			for (Map.Entry<Integer, File> entry : backups.entrySet())
+			{
+				File backup = entry.getValue();
+				File compressed = new File(backup.getParentFile(), backup.getName() + ".gz");
+				long size = backup.length();
+
+				ImportTimings.Timer timer = timings.start("compress-backup").addBytes(size);
+
+				try
+				{
+					long compressedSize = FilePlacement.compress(backup.toPath(), compressed.toPath());
+
+					try
+					{
+						context.update(FILERESOURCES)
+							   .set(FILERESOURCES.PATH, compressed.getName())
+							   .set(FILERESOURCES.FILESIZE, compressedSize)
+							   .set(FILERESOURCES.UPDATED_ON, new Timestamp(System.currentTimeMillis()))
+							   .where(FILERESOURCES.ID.eq(entry.getKey()))
+							   .execute();
+					}
+					catch (RuntimeException e)
+					{
+						// The file resource still points to the original, so that's the one to keep
+						Files.deleteIfExists(compressed.toPath());
+						throw e;
+					}
+
+					backupSize += size;
+					compressedBackupSize += compressedSize;
+
+					Files.delete(backup.toPath());
+				}
+				catch (IOException | RuntimeException e)
+				{
+					Logger.getLogger("").log(Level.WARNING, "Unable to compress backup " + backup.getAbsolutePath(), e);
+				}
+				finally
+				{
+					timer.stop();
+				}
+			}
+
+			importJobStats.setBackupSize(backupSize)
+						  .setCompressedBackupSize(compressedBackupSize)
+						  .setTimings(timings.getEntries());
+
+			context.update(DATA_IMPORT_JOBS)
+				   .set(DATA_IMPORT_JOBS.STATS, importJobStats)
+				   .where(DATA_IMPORT_JOBS.ID.eq(this.importJobId))
+				   .execute();
+		}
+		catch (SQLException | RuntimeException e)
+		{
+			Logger.getLogger("").log(Level.WARNING, "Unable to update the compressed backups", e);
+		}
+	}
+
+	/**
+	 * Importers that read all of the input file during the check return <code>true</code> and pass the hash from {@link #takeContentHash()} to
+	 * their first reader. The file is then hashed as part of the check instead of being read once more beforehand. Whether it has already been
+	 * imported is then only known after the check.
+	 */
+	protected boolean hashesInputWhileChecking()
+	{
+		return false;
+	}
+
+	/**
+	 * @return The hash to add the raw bytes of the input file to while reading it or <code>null</code> if it isn't needed. Only the first caller
+	 * gets it, later reads of the file don't have to hash it again.
+	 */
+	protected ContentHash takeContentHash()
+	{
+		if (inputHash == null || inputHashTaken)
+			return null;
+
+		inputHashTaken = true;
+		return inputHash;
+	}
+
+	/**
+	 * Called when the check has shown that the file has already been imported, so nothing prepared for the import during the check is needed.
+	 */
+	protected void onAlreadyImported()
+	{
+	}
+
+	/**
+	 * @return The SHA-256 of the input file or <code>null</code> if it can't be read
+	 */
+	private String hashInputFile()
+	{
+		if (inputFile == null || !inputFile.isFile())
+			return null;
+
+		ImportTimings.Timer timer = timings.start("content-hash").addBytes(inputFile.length());
+
+		try
+		{
+			return ContentHash.of(inputFile);
+		}
+		catch (IOException e)
+		{
+			// The check is an optimization, so just import the file
+			Logger.getLogger("").log(Level.WARNING, "Unable to hash input file " + inputFile.getAbsolutePath(), e);
+			return null;
+		}
+		finally
+		{
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Looks for an earlier import of the same data type into the same target that successfully imported a file with this content. If there is one,
+	 * the stats of this job point to its dataset and file resource instead of importing the file again.
+	 * <p>
+	 * Only imports that created a dataset are considered, as only for those it can be told whether their data is still there. Files of types that
+	 * add to the database in general, e.g. MCPD or pedigree files, are always imported again.
+	 *
+	 * @return <code>true</code> if the file has already been imported
+	 */
+	private boolean findPreviousImport(String contentHash)
+	{
+		if (forceImport)
+			return false;
+
+		ImportJobDetails config = jobDetails.getJobConfig();
+
+		try (Connection conn = Database.getConnection())
+		{
+			DSLContext context = getContext(conn);
+
+			Field<String> hash = DSL.field("JSON_UNQUOTE(JSON_EXTRACT({0}, '$.contentHash'))", String.class, DATA_IMPORT_JOBS.STATS);
+
+			List<DataImportJobsRecord> previous = context.selectFrom(DATA_IMPORT_JOBS)
+														 .where(DATA_IMPORT_JOBS.DATATYPE.eq(jobDetails.getDatatype()))
+														 .and(DATA_IMPORT_JOBS.STATUS.eq(DataImportJobsStatus.completed))
+														 .and(DATA_IMPORT_JOBS.ID.ne(importJobId))
+														 .and(hash.eq(contentHash))
+														 .orderBy(DATA_IMPORT_JOBS.ID.desc())
+														 .fetch();
+
+			for (DataImportJobsRecord job : previous)
+			{
+				ImportJobDetails previousConfig = job.getJobConfig();
+
+				// The same file may have been imported into another dataset, in another orientation or with another dataset state
+				if (previousConfig == null
+						|| !Objects.equals(previousConfig.getTargetDatasetId(), config.getTargetDatasetId())
+						|| !Objects.equals(previousConfig.getDataOrientation(), config.getDataOrientation())
+						|| !Objects.equals(job.getDatasetstateId(), jobDetails.getDatasetstateId()))
+					continue;
+
+				ImportJobStats stats = job.getStats();
+				Integer datasetId = stats == null ? null : stats.getDatasetId();
+
+				// The dataset may have been deleted since, in which case the file has to be imported again
+				if (datasetId == null || !context.fetchExists(DATASETS, DATASETS.ID.eq(datasetId)))
+					continue;
+
+				importJobStats.setDatasetId(datasetId);
+				importJobStats.setFileResourceId(stats.getFileResourceId());
+
+				String message = "This file has already been imported by import job " + job.getId() + " as dataset " + datasetId + ".";
+				addImportResult(ImportStatus.GENERIC_DUPLICATE_VALUE, -1, message, ImportResult.StatusType.WARNING);
+				Logger.getLogger("").info("Import job " + importJobId + ": " + message);
+
+				return true;
+			}
+		}
+		catch (SQLException | DataAccessException e)
+		{
+			Logger.getLogger("").log(Level.WARNING, "Unable to look for previous imports of the same file: " + e.getMessage(), e);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Asks the import to stop. It does so the next time one of its loops or tasks checks for it, which is usually within a row.
+	 */
+	public void cancel()
+	{
+		cancellation.cancel();
+	}
+
+	protected CancellationToken getCancellation()
+	{
+		return cancellation;
+	}
+
+	/**
+	 * Continues the job from its last checkpoint instead of importing everything again. Only importers that record checkpoints support this, the
+	 * others simply start over.
+	 */
+	public void setResume(boolean resume)
+	{
+		this.resume = resume;
+	}
+
+	/**
+	 * Tells the importer that the caller has marked the job as running already, e.g. the {@link ImportWorker} when it claimed the job, or an
+	 * importer wrapping this one for the same job. {@link #initJob(String[])} then doesn't try to claim it again.
+	 */
+	public void setJobClaimed(boolean jobClaimed)
+	{
+		this.jobClaimed = jobClaimed;
+	}
+
+	/**
+	 * Imports the file even if the same file has already been imported into the same target, e.g. because the user wants a second copy of the
+	 * dataset.
+	 */
+	public void setForceImport(boolean forceImport)
+	{
+		this.forceImport = forceImport;
+	}
+
+	/**
+	 * Makes the import load the bulk data into per-job staging tables and only publish it into the live tables once everything has been imported.
+	 */
+	public void setUseShadowTables(boolean use)
+	{
+		if (use)
+			shadowTables.enable(Integer.toString(importJobId));
+	}
+
+	/**
+	 * @return The staging tables of this import. Tasks ask it which table to load their data into.
+	 */
+	protected ShadowTables getShadowTables()
+	{
+		return shadowTables;
+	}
+
+	/**
+	 * Publishes the rows staged so far into the live tables, unless the import has failed, in which case they're dropped. Importers that make their
+	 * data visible themselves, e.g. by changing the dataset state, call this beforehand. Everything else is published once the import is done.
+	 * <p>
+	 * Only the first call does anything. Staging ends with it, so the call once the import is done is skipped for importers that have published
+	 * already.
+	 *
+	 * @return Whether the staged rows are in the live tables, which they always are if nothing has been staged. Data that depends on them mustn't
+	 * be made visible otherwise.
+	 */
+	protected boolean publishShadowTables()
+			throws SQLException
+	{
+		if (!shadowTables.isEnabled() || stagingEnded)
+			return stagedRowsLive;
+
+		try (Connection conn = Database.getConnection())
+		{
+			DSLContext context = getContext(conn);
+
+			if (hasImportError())
+			{
+				shadowTables.drop(context);
+				stagedRowsLive = false;
+			}
+			else
+			{
+				shadowTables.publish(context);
+			}
+		}
+
+		stagingEnded = true;
+		return stagedRowsLive;
+	}
+
+	private void dropShadowTables()
 	{
-		if (!status.isAllowsMultiple() && errorSet.contains(status))
+		if (!shadowTables.isEnabled())
 			return;
 
-		errorSet.add(status);
-		errorList.add(new ImportResult(status, rowIndex, message, type));
+		try (Connection conn = Database.getConnection())
+		{
+			shadowTables.drop(getContext(conn));
+		}
+		catch (Exception e)
+		{
+			Logger.getLogger("").log(Level.WARNING, "Unable to drop the staging tables of import job " + importJobId, e);
+		}
+	}
+
+	private File getCheckpointFile()
+	{
+		return new File(inputFile.getParentFile(), "checkpoint.json");
+	}
+
+	/**
+	 * @return <code>true</code> if there is a checkpoint to resume from
+	 */
+	private boolean loadCheckpoint()
+	{
+		ImportCheckpoint existing = inputFile == null ? null : ImportCheckpoint.read(getCheckpointFile());
+
+		if (existing == null || existing.isEmpty())
+		{
+			Logger.getLogger("").warning("No checkpoint found for import job " + importJobId + ", starting over");
+			return false;
+		}
+
+		Logger.getLogger("").info("Resuming import job " + importJobId + " from checkpoint: " + existing);
+		checkpoint = existing;
+		checkpointed = true;
+		return true;
+	}
+
+	/**
+	 * @return The checkpoint of this import. It's empty unless the job is being resumed.
+	 */
+	protected ImportCheckpoint getCheckpoint()
+	{
+		return checkpoint;
+	}
+
+	/**
+	 * Records that the part of the input has been imported up to the given position and writes the checkpoint. Call this once the data up to there
+	 * has been committed. Nothing is written unless {@link #saveCheckpoint()} has succeeded before, so an import that can't write its checkpoint
+	 * simply can't be resumed.
+	 */
+	protected void checkpoint(String part, int position)
+	{
+		checkpoint.setPosition(part, position);
+
+		if (checkpointed)
+			saveCheckpoint();
+	}
+
+	/**
+	 * Writes the checkpoint to the job folder.
+	 */
+	protected void saveCheckpoint()
+	{
+		try
+		{
+			checkpoint.write(getCheckpointFile());
+			checkpointed = true;
+		}
+		catch (IOException e)
+		{
+			// Not being able to resume is no reason to fail the import
+			Logger.getLogger("").log(Level.WARNING, "Unable to write checkpoint for import job " + importJobId, e);
+			checkpointed = false;
+		}
+	}
+
+	private void deleteCheckpoint()
+	{
+		if (inputFile != null)
+			getCheckpointFile().delete();
+	}
+
+	/**
+	 * Ends the running phase, recording how long it took, and starts the next one.
+	 */
+	private void startPhase(ImportProgress.Phase phase)
+	{
+		finishPhase();
+		progress.startPhase(phase);
+	}
+
+	private void finishPhase()
+	{
+		ImportProgress.Snapshot last = progress.finishPhase();
+
+		if (last != null)
+			timings.add(last.getPhase().getLabel(), last.getElapsedNanos(), last.getRowsProcessed(), last.getBytesConsumed());
+	}
+
+	/**
+	 * Logs the SQL templates that took the most time and stores them with the job.
+	 */
+	private void reportStatements()
+	{
+		List<SqlProfiler.Statement> top = sqlProfiler.getTop(SQL_TOP_COUNT);
+
+		if (top.isEmpty())
+			return;
+
+		StringBuilder builder = new StringBuilder("SQL: " + sqlProfiler.getCount() + " statements, most expensive:");
+		top.forEach(statement -> builder.append(System.lineSeparator()).append("  ").append(statement));
+		Logger.getLogger("").info(builder.toString());
+
+		importJobStats.setStatements(top.stream().map(SqlProfiler.Summary::new).toList());
+	}
+
+	/**
+	 * Periodically writes the current progress to the job, so it's visible while the import is still running.
+	 */
+	private void startHeartbeat()
+	{
+		if (inputFile != null && inputFile.isFile())
+			progress.setTotalBytes(inputFile.length());
+
+		heartbeat = HEARTBEAT.scheduleWithFixedDelay(this::writeProgress, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.SECONDS);
+	}
+
+	private void stopHeartbeat()
+	{
+		if (heartbeat != null)
+		{
+			heartbeat.cancel(false);
+			heartbeat = null;
+		}
+	}
+
+	private void writeProgress()
+	{
+		ImportProgress.Snapshot snapshot = progress.snapshot();
+		// The import thread keeps changing the job's stats while they'd be serialized, so only the immutable snapshot is written. The stats are
+		// written once the job has finished.
+		DetailedImportJobStats stats = new DetailedImportJobStats().setProgress(snapshot);
+
+		try (Connection conn = Database.getConnection())
+		{
+			DSLContext context = Database.getContext(conn);
+
+			// Only touch jobs that are still running, the final update must not be overwritten
+			int updated = context.update(DATA_IMPORT_JOBS)
+								 .set(DATA_IMPORT_JOBS.STATS, stats)
+								 .set(DATA_IMPORT_JOBS.UPDATED_ON, new Timestamp(System.currentTimeMillis()))
+								 .where(DATA_IMPORT_JOBS.ID.eq(this.importJobId))
+								 .and(DATA_IMPORT_JOBS.STATUS.eq(DataImportJobsStatus.running))
+								 .execute();
+
+			// The job has been cancelled from the outside, e.g. by the user, so stop working on it
+			if (updated == 0 && context.select(DATA_IMPORT_JOBS.STATUS).from(DATA_IMPORT_JOBS).where(DATA_IMPORT_JOBS.ID.eq(this.importJobId)).fetchOne(DATA_IMPORT_JOBS.STATUS) == DataImportJobsStatus.cancelled)
+			{
+				Logger.getLogger("").info("Import job " + importJobId + " has been cancelled");
+				cancel();
+			}
+			else
+			{
+				Logger.getLogger("").info("Import job " + importJobId + " progress: " + snapshot);
+			}
+		}
+		catch (Exception e)
+		{
+			// Progress is informative only, so never let it affect the import
+			Logger.getLogger("").log(Level.WARNING, "Unable to write import progress: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return The progress of this import. Importers feed it the rows they process and the bytes they read.
+	 */
+	protected ImportProgress getProgress()
+	{
+		return progress;
+	}
+
+	/**
+	 * Creates a database context for the import itself. Every statement executed through it is recorded by the import's {@link SqlProfiler}.
+	 */
+	protected DSLContext getContext(Connection conn)
+	{
+		DSLContext context = Database.getContext(conn);
+		context.configuration().set(new DefaultExecuteListenerProvider(sqlProfiler));
+		return context;
+	}
+
+	/**
+	 * @return The timings of this import. Background tasks add how long they took and how much they processed.
+	 */
+	protected ImportTimings getTimings()
+	{
+		return timings;
+	}
+
+	/**
+	 * Makes this importer report its progress, timings and statements to the given importer, used when that importer delegates parts of its work to this one.
+	 */
+	protected void shareProgress(AbstractImporter parent)
+	{
+		this.cancellation = parent.cancellation;
+		this.progress = parent.progress;
+		this.timings = parent.timings;
+		this.sqlProfiler = parent.sqlProfiler;
+		this.shadowTables = parent.shadowTables;
+	}
+
+	/**
+	 * Stores the new records in a single batch, recording it as an {@link ImportEvents.BatchStore} event. Records of a table that is staged go
+	 * into its staging table instead.
+	 */
+	protected void batchStore(DSLContext context, List<? extends UpdatableRecord<?>> records)
+	{
+		ImportEvents.BatchStore event = new ImportEvents.BatchStore();
+		event.begin();
+
+		if (!records.isEmpty() && shadowTables.isStaged(records.get(0).getTable()))
+			shadowTables.insert(context, records);
+		else
+			context.batchStore(records)
+				   .execute();
+
+		event.end();
+
+		if (event.shouldCommit())
+		{
+			event.table = records.isEmpty() ? null : records.get(0).getTable().getName();
+			event.rows = records.size();
+			event.commit();
+		}
 	}
 
+	protected boolean hasImportError()
+	{
+		return feedback.hasError();
+	}
+
+	/**
+	 * Safe to call from any thread, so background tasks can use this as their {@link jhi.germinate.server.util.importer.task.ErrorCallback}.
+	 */
+	protected void addImportResult(ImportStatus status, int rowIndex, String message)
+	{
+		feedback.add(new ImportResult(status, rowIndex, message));
+	}
+
+	protected void addImportResult(ImportStatus status, int rowIndex, String message, ImportResult.StatusType type)
+	{
+		feedback.add(new ImportResult(status, rowIndex, message, type));
+	}
+
+	/**
+	 * @return The capped sample of results that is stored with the job
+	 */
 	protected List<ImportResult> getImportResult()
 	{
-		return new ArrayList<>(errorList);
+		return feedback.getSample();
+	}
+
+	protected FeedbackCollector getFeedback()
+	{
+		return feedback;
+	}
+
+	/**
+	 * Writes the full list of results next to the input file, as the database only holds a sample of them.
+	 */
+	private void writeFeedbackFile()
+	{
+		try
+		{
+			if (inputFile != null && inputFile.getParentFile() != null && inputFile.getParentFile().exists())
+				feedback.writeTo(new File(inputFile.getParentFile(), "feedback.ndjson"));
+		}
+		catch (IOException e)
+		{
+			Logger.getLogger("").log(Level.WARNING, "Unable to write feedback file: " + e.getMessage(), e);
+		}
+		finally
+		{
+			feedback.close();
+		}
 	}
 
 	protected File getInputFile()
@@ -246,6 +980,14 @@ public abstract class AbstractImporter
 		return this.inputFile;
 	}
 
+	/**
+	 * @return The folder holding the name to id snapshots that are shared between imports
+	 */
+	protected File getSnapshotFolder()
+	{
+		return new File(new File(this.jobDetails.getJobConfig().getBaseFolder(), "data"), "snapshots");
+	}
+
 	protected void setInputFile(File file)
 	{
 		this.inputFile = file;
@@ -295,6 +1037,40 @@ public abstract class AbstractImporter
 		}
 	}
 
+	/**
+	 * Removes everything the cancelled import would leave behind half-written and marks the job as cancelled.
+	 */
+	private void reportCancelled()
+	{
+		Logger.getLogger("").info("Import job " + importJobId + " stopped after being cancelled");
+
+		stopHeartbeat();
+		cancellation.cleanup();
+		deleteCheckpoint();
+
+		try (Connection conn = Database.getConnection())
+		{
+			DSLContext context = Database.getContext(conn);
+
+			writeFeedbackFile();
+
+			// Keep the timings, they show how far the import got
+			finishPhase();
+			importJobStats.setTimings(timings.getEntries());
+			reportStatements();
+
+			DataImportJobsRecord job = context.selectFrom(DATA_IMPORT_JOBS).where(DATA_IMPORT_JOBS.ID.eq(this.importJobId)).fetchAny();
+			job.setFeedback(getImportResult().toArray(new ImportResult[0]));
+			job.setStatus(DataImportJobsStatus.cancelled);
+			job.setStats(importJobStats);
+			job.store(DATA_IMPORT_JOBS.FEEDBACK, DATA_IMPORT_JOBS.STATUS, DATA_IMPORT_JOBS.STATS);
+		}
+		catch (SQLException e)
+		{
+			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, "Unable to establish database connection: " + e.getMessage());
+		}
+	}
+
 	protected void reportError(Exception ex)
 	{
 		// Update the database record to indicate the job has finished running
@@ -306,10 +1082,18 @@ public abstract class AbstractImporter
 			List<ImportResult> result = getImportResult();
 
 			result.add(new ImportResult(ImportStatus.GENERIC_IO_ERROR, -1, ex.getMessage()));
+			writeFeedbackFile();
+
+			// Keep the timings of a failed import, they show where it got to
+			finishPhase();
+			importJobStats.setTimings(timings.getEntries());
+			reportStatements();
+
 			DataImportJobsRecord job = context.selectFrom(DATA_IMPORT_JOBS).where(DATA_IMPORT_JOBS.ID.eq(this.importJobId)).fetchAny();
 			job.setFeedback(result.toArray(new ImportResult[0]));
 			job.setStatus(DataImportJobsStatus.failed);
-			job.store(DATA_IMPORT_JOBS.FEEDBACK, DATA_IMPORT_JOBS.STATUS);
+			job.setStats(importJobStats);
+			job.store(DATA_IMPORT_JOBS.FEEDBACK, DATA_IMPORT_JOBS.STATUS, DATA_IMPORT_JOBS.STATS);
 		}
 		catch (SQLException e)
 		{
@@ -64,7 +64,7 @@ public class ClimateDataImporter extends DatasheetImporter
 
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			context.selectFrom(CLIMATES)
 				   .forEach(p -> climateNameToId.put(p.getName(), p.getId()));
 
@@ -345,7 +345,7 @@ public class ClimateDataImporter extends DatasheetImporter
 
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 
 			Optional<Sheet> climateSheet = wb.getSheets().filter(s -> Objects.equals(s.getName(), "ENVIRONMENTAL VARIABLES")).findAny();
 
@@ -560,16 +560,14 @@ public class ClimateDataImporter extends DatasheetImporter
 
 					if (newData.size() >= 10000)
 					{
-						context.batchStore(newData)
-							   .execute();
+						batchStore(context, newData);
 						newData.clear();
 					}
 				}
 
 				if (newData.size() > 0)
 				{
-					context.batchStore(newData)
-						   .execute();
+					batchStore(context, newData);
 					newData.clear();
 				}
 			}
@@ -5,6 +5,7 @@ import jhi.germinate.server.database.codegen.enums.AttributesDatatype;
 import jhi.germinate.server.database.codegen.tables.records.*;
 import jhi.germinate.server.database.pojo.*;
 import jhi.germinate.server.util.StringUtils;
+import jhi.germinate.server.util.importer.util.FilePlacement;
 import org.dhatim.fastexcel.reader.*;
 import org.jooq.DSLContext;
 
@@ -54,7 +55,7 @@ public abstract class DatasheetImporter extends AbstractExcelImporter
 	{
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			countryCode2ToId = context.selectFrom(COUNTRIES)
 									  .fetchMap(COUNTRIES.COUNTRY_CODE2, COUNTRIES.ID);
 
@@ -369,7 +370,7 @@ public abstract class DatasheetImporter extends AbstractExcelImporter
 	{
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			wb.findSheet("METADATA")
 			  .ifPresent(s -> {
 				  try
@@ -403,8 +404,15 @@ public abstract class DatasheetImporter extends AbstractExcelImporter
 
 			getOrCreateLocations(context, wb);
 			checkBrapiStudyId(wb);
+
+			// A resumed import carries on with the dataset of the run it continues, which has its attributes already
+			Integer resumedDatasetId = getCheckpoint().getId("dataset");
+			if (resumedDatasetId != null)
+				datasetId = resumedDatasetId;
+
 			getOrCreateDataset(context, wb);
-			getOrCreateAttributes(context, wb);
+			if (resumedDatasetId == null)
+				getOrCreateAttributes(context, wb);
 			getOrCreateCollaborators(context, wb);
 		}
 		catch (SQLException e)
@@ -854,7 +862,7 @@ public abstract class DatasheetImporter extends AbstractExcelImporter
 		// Create a backup copy of the uploaded file and link it to the newly created dataset.
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			FileresourcetypesRecord type = context.selectFrom(FILERESOURCETYPES)
 												  .where(FILERESOURCETYPES.NAME.eq("Dataset resource"))
 												  .and(FILERESOURCETYPES.DESCRIPTION.eq("Automatically created linked backups of uploaded data resources."))
@@ -890,8 +898,8 @@ public abstract class DatasheetImporter extends AbstractExcelImporter
 
 			importJobStats.setFileResourceId(fileResource.getId());
 
-			// Finally copy the file
-			Files.copy(input.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			// Finally place the file, sharing its data with the upload where possible
+			FilePlacement.copy(input.toPath(), target.toPath());
 
 			DatasetfileresourcesRecord link = context.newRecord(DATASETFILERESOURCES);
 			link.setDatasetId(this.dataset.getId());
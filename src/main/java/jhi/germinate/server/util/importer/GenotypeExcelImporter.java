@@ -2,6 +2,7 @@ package jhi.germinate.server.util.importer;
 
 import jhi.germinate.server.database.codegen.enums.DataImportJobsDatatype;
 import jhi.germinate.server.database.pojo.*;
+import jhi.germinate.server.util.importer.util.FeedbackCollector;
 import org.dhatim.fastexcel.reader.*;
 
 import java.io.*;
@@ -56,7 +57,10 @@ public class GenotypeExcelImporter extends DatasheetImporter
 		this.txtFile = new File(input.getParentFile(), input.getName().replace(".xlsx", ".txt"));
 
 		flatFileImporter = new GenotypeFlatFileImporter(this.importJobId);
-		flatFileImporter.init(getArgs());
+		// This importer has claimed the job already
+		flatFileImporter.setJobClaimed(true);
+		flatFileImporter.initJob(getArgs());
+		flatFileImporter.shareProgress(this);
 		flatFileImporter.setInputFile(this.txtFile);
 		flatFileImporter.prepare();
 	}
@@ -80,12 +84,19 @@ public class GenotypeExcelImporter extends DatasheetImporter
 
 		exportData(wb);
 
+		// From here on, the progress is about reading the exported text file
+		getProgress().setTotalBytes(this.txtFile.length());
 		flatFileImporter.checkFile();
 
-		List<ImportResult> result = flatFileImporter.getImportResult();
-
-		for (ImportResult entry : result)
-			addImportResult(entry.getStatus(), entry.getRowIndex(), entry.getMessage());
+		// Take over all of the flat file importer's results, not just its sample
+		try (FeedbackCollector result = flatFileImporter.getFeedback())
+		{
+			result.forEach(entry -> addImportResult(entry.getStatus(), entry.getRowIndex(), entry.getMessage()));
+		}
+		catch (IOException e)
+		{
+			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
+		}
 	}
 
 	private void exportData(ReadableWorkbook wb)
@@ -163,6 +174,7 @@ public class GenotypeExcelImporter extends DatasheetImporter
 		if (!this.txtFile.exists() || this.txtFile.length() < 1)
 			exportData(wb);
 
+		getProgress().setTotalBytes(this.txtFile.length());
 		flatFileImporter.setDataset(dataset);
 		flatFileImporter.importFile();
 	}
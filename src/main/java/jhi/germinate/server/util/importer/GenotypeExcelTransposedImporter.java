@@ -3,6 +3,7 @@ package jhi.germinate.server.util.importer;
 import jhi.germinate.server.database.codegen.enums.DataImportJobsDatatype;
 import jhi.germinate.server.database.pojo.*;
 import jhi.germinate.server.util.importer.task.FlatFileTransposeTask;
+import jhi.germinate.server.util.importer.util.FeedbackCollector;
 import org.dhatim.fastexcel.reader.*;
 
 import java.io.*;
@@ -59,7 +60,10 @@ public class GenotypeExcelTransposedImporter extends DatasheetImporter
 		this.transposedTxtFile = new File(txtFile.getParentFile(), "transposed-" + txtFile.getName());
 
 		flatFileImporter = new GenotypeFlatFileImporter(this.importJobId);
-		flatFileImporter.init(getArgs());
+		// This importer has claimed the job already
+		flatFileImporter.setJobClaimed(true);
+		flatFileImporter.initJob(getArgs());
+		flatFileImporter.shareProgress(this);
 		flatFileImporter.setInputFile(this.transposedTxtFile);
 		flatFileImporter.prepare();
 	}
@@ -83,12 +87,19 @@ public class GenotypeExcelTransposedImporter extends DatasheetImporter
 
 		exportData(wb);
 
+		// From here on, the progress is about reading the exported text file
+		getProgress().setTotalBytes(this.transposedTxtFile.length());
 		flatFileImporter.checkFile();
 
-		List<ImportResult> result = flatFileImporter.getImportResult();
-
-		for (ImportResult entry : result)
-			addImportResult(entry.getStatus(), entry.getRowIndex(), entry.getMessage());
+		// Take over all of the flat file importer's results, not just its sample
+		try (FeedbackCollector result = flatFileImporter.getFeedback())
+		{
+			result.forEach(entry -> addImportResult(entry.getStatus(), entry.getRowIndex(), entry.getMessage()));
+		}
+		catch (IOException e)
+		{
+			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
+		}
 	}
 
 	private void exportData(ReadableWorkbook wb)
@@ -167,6 +178,7 @@ public class GenotypeExcelTransposedImporter extends DatasheetImporter
 		if (!this.txtFile.exists() || this.txtFile.length() < 1)
 			exportData(wb);
 
+		getProgress().setTotalBytes(this.transposedTxtFile.length());
 		flatFileImporter.setDataset(dataset);
 		flatFileImporter.importFile();
 	}
@@ -6,7 +6,7 @@ import jhi.germinate.server.database.codegen.tables.records.*;
 import jhi.germinate.server.database.pojo.ImportStatus;
 import jhi.germinate.server.util.*;
 import jhi.germinate.server.util.importer.task.*;
-import jhi.germinate.server.util.importer.util.GermplasmNotFoundException;
+import jhi.germinate.server.util.importer.util.*;
 import org.jooq.DSLContext;
 
 import java.io.*;
@@ -14,41 +14,25 @@ import java.nio.file.*;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
-import java.util.stream.Collectors;
-
-import static jhi.germinate.server.database.codegen.tables.Datasetfileresources.DATASETFILERESOURCES;
-import static jhi.germinate.server.database.codegen.tables.Datasets.DATASETS;
-import static jhi.germinate.server.database.codegen.tables.Experiments.EXPERIMENTS;
-import static jhi.germinate.server.database.codegen.tables.Fileresources.FILERESOURCES;
-import static jhi.germinate.server.database.codegen.tables.Fileresourcetypes.FILERESOURCETYPES;
-import static jhi.germinate.server.database.codegen.tables.Mapfeaturetypes.MAPFEATURETYPES;
-import static jhi.germinate.server.database.codegen.tables.Maps.MAPS;
-import static jhi.germinate.server.database.codegen.tables.Markers.MARKERS;
-import static jhi.germinate.server.database.codegen.tables.Markertypes.MARKERTYPES;
+import java.util.logging.Logger;
 
 /**
  * @author Sebastian Raubach
  */
-public class GenotypeFlatFileImporter extends AbstractFlatFileImporter
+public class GenotypeFlatFileImporter extends AbstractFlatFileImporter<FieldScanner>
 {
-	private final Map<String, Integer> markerToId = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-	private       File                 hdf5TargetFolder;
-
 	private       String[]            markers       = null;
-	private       int[]               markerIds     = null;
 	private       String[]            chromosomes   = null;
 	private       String[]            positions     = null;
 	private final Map<String, String> headerMapping = new HashMap<>();
 
-	private final Set<Integer> markerIdsInFile    = new HashSet<>();
-	private final Set<Integer> germplasmIdsInFile = new HashSet<>();
-
-	private DatasetsRecord dataset;
+	// HDF5 files written while the check reads the genotype rows, so that the import doesn't have to read them again
+	private File    stagedHdf5           = null;
+	private File    stagedHdf5Transposed = null;
+	private boolean bodyScanned          = false;
 
 	private CountDownLatch latch;
 
-	private GermplasmLookup germplasmLookup;
-
 	public static void main(String[] args)
 			throws SQLException, IOException
 	{
@@ -79,93 +63,25 @@ public class GenotypeFlatFileImporter extends AbstractFlatFileImporter
 	@Override
 	protected void prepare()
 	{
-		germplasmLookup = new GermplasmLookup();
+		germplasmLookup = new GermplasmLookup(this::getContext, getSnapshotFolder());
 
-		this.hdf5TargetFolder = new File(new File(this.jobDetails.getJobConfig().getBaseFolder(), "data"), "genotypes");
-		this.hdf5TargetFolder.mkdirs();
-
-		try (Connection conn = Database.getConnection())
-		{
-			DSLContext context = Database.getContext(conn);
-			context.selectFrom(MARKERS)
-				   .forEach(m -> markerToId.put(m.getMarkerName(), m.getId()));
-		}
-		catch (SQLException e)
-		{
-			e.printStackTrace();
-			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
-		}
+		super.prepare();
 	}
 
 	@Override
-	protected void postImport()
+	protected FieldScanner openInput()
+			throws IOException
 	{
-		File input = getInputFile();
-		// Create a backup copy of the uploaded file and link it to the newly created dataset.
-		try (Connection conn = Database.getConnection())
-		{
-			DSLContext context = Database.getContext(conn);
-			FileresourcetypesRecord type = context.selectFrom(FILERESOURCETYPES)
-												  .where(FILERESOURCETYPES.NAME.eq("Dataset resource"))
-												  .and(FILERESOURCETYPES.DESCRIPTION.eq("Automatically created linked backups of uploaded data resources."))
-												  .fetchAny();
-
-			if (type == null)
-			{
-				type = context.newRecord(FILERESOURCETYPES);
-				type.setName("Dataset resource");
-				type.setDescription("Automatically created linked backups of uploaded data resources.");
-				type.setCreatedOn(new Timestamp(System.currentTimeMillis()));
-				type.store();
-			}
-
-			File typeFolder = new File(new File(new File(jobDetails.getJobConfig().getBaseFolder(), "data"), "download"), Integer.toString(type.getId()));
-			typeFolder.mkdirs();
-			File target = new File(typeFolder, input.getName());
-
-			FileresourcesRecord fileRes = context.newRecord(FILERESOURCES);
-			fileRes.setName(this.jobDetails.getOriginalFilename());
-			fileRes.setPath(target.getName());
-			fileRes.setFilesize(input.length());
-			fileRes.setDescription("Automatic upload backup.");
-			fileRes.setFileresourcetypeId(type.getId());
-			fileRes.setCreatedOn(new Timestamp(System.currentTimeMillis()));
-			fileRes.setUpdatedOn(new Timestamp(System.currentTimeMillis()));
-			fileRes.store();
-
-			// Now update the name with the file resource id
-			target = new File(typeFolder, fileRes.getId() + "-" + input.getName());
-			fileRes.setPath(target.getName());
-			fileRes.store();
-
-			importJobStats.setFileResourceId(fileRes.getId());
-
-			// Finally copy the file
-			Files.copy(input.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
-
-			DatasetfileresourcesRecord link = context.newRecord(DATASETFILERESOURCES);
-			link.setDatasetId(this.dataset.getId());
-			link.setFileresourceId(fileRes.getId());
-			link.setCreatedOn(new Timestamp(System.currentTimeMillis()));
-			link.setUpdatedOn(new Timestamp(System.currentTimeMillis()));
-			link.store();
-		}
-		catch (SQLException | IOException e)
-		{
-			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, "Failed to create file resource for dataset: " + e.getMessage());
-		}
-
-		importJobStats.setDatasetId(dataset.getId());
-		importJobStats.setGermplasm(germplasmIdsInFile.size());
-		importJobStats.setMarkers(markerIdsInFile.size());
+		// The genotypes are only decoded if they're written to HDF5
+		return openScanner();
 	}
 
 	@Override
-	protected void checkFile(BufferedReader br)
+	protected void checkFile(FieldScanner scanner)
 	{
 		try
 		{
-			String line = readHeaders(br);
+			boolean hasLine = readHeaders(scanner);
 
 			if (CollectionUtils.isEmpty(markers))
 			{
@@ -197,50 +113,137 @@ public class GenotypeFlatFileImporter extends AbstractFlatFileImporter
 				}
 			}
 
-			int counter = 1;
-			do
-			{
-				if (StringUtils.isEmpty(line))
-					continue;
+			// If the import follows straight away, write the HDF5 files during this pass as well
+			boolean writeHdf5 = this.jobDetails.getJobConfig().getRunType().includesImport() && !hasImportError();
 
-				int index = line.indexOf("\t");
+			scanBody(scanner, hasLine, writeHdf5);
 
-				if (index == -1)
-					continue;
+			if (hasImportError())
+				deleteStagedFiles();
+			else
+				bodyScanned = writeHdf5;
+		}
+		catch (IOException e)
+		{
+			deleteStagedFiles();
+			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
+		}
+	}
 
-				String germplasm = line.substring(0, index);
+	/**
+	 * Reads the genotype rows once, collecting their germplasm and, optionally, handing each of them to both HDF5 writers.
+	 *
+	 * @param hasLine Whether the scanner is on the first genotype row
+	 */
+	private void scanBody(FieldScanner scanner, boolean hasLine, boolean writeHdf5)
+			throws IOException
+	{
+		int counter = 1;
 
-				try
-				{
-					germplasmLookup.getGermplasmId(germplasm);
-				}
-				catch (GermplasmNotFoundException e)
+		FanOut<String> fanOut = new FanOut<>();
+
+		if (writeHdf5)
+		{
+			// Stage them in the job folder, so they can most likely be renamed into place rather than copied
+			Path jobFolder = getInputFile().getAbsoluteFile().getParentFile().toPath();
+			stagedHdf5 = getCancellation().deleteOnCancel(Files.createTempFile(jobFolder, getInputFile().getName(), ".temp").toFile());
+			stagedHdf5Transposed = getCancellation().deleteOnCancel(Files.createTempFile(jobFolder, "transposed-" + getInputFile().getName(), ".temp").toFile());
+
+			// Both writers get the same rows, so only the first one reports those it has to skip
+			fanOut.addQueued("hdf5-" + importJobId, getTimings().time("hdf5", stagedHdf5, new Hdf5GenotypeWriter<>(stagedHdf5, markers, true, false, Hdf5GenotypeWriter.FLAPJACK, this::addImportResult)))
+				  .addQueued("hdf5-transposed-" + importJobId, getTimings().time("hdf5-transposed", stagedHdf5Transposed, new Hdf5GenotypeWriter<>(stagedHdf5Transposed, markers, true, true, Hdf5GenotypeWriter.FLAPJACK, null)));
+		}
+
+		boolean complete = false;
+		try
+		{
+			for (; hasLine; hasLine = scanner.nextLine())
+			{
+				if (scanner.isEmpty())
+					continue;
+
+				// Remember the germplasm ids
+				if (scanner.getFieldCount() > 1)
 				{
-					addImportResult(e.getReason(), counter, germplasm);
+					String germplasm = scanner.getField(0);
+
+					try
+					{
+						germplasmIdsInFile.add(germplasmLookup.getGermplasmId(germplasm));
+					}
+					catch (GermplasmNotFoundException e)
+					{
+						addImportResult(e.getReason(), counter, germplasm);
+					}
+
+					counter++;
 				}
 
-				counter++;
+				// Only the HDF5 writers need the genotypes
+				if (writeHdf5)
+					fanOut.offer(scanner.getLine());
 			}
-			while ((line = br.readLine()) != null);
+
+			complete = true;
 		}
-		catch (IOException e)
+		finally
 		{
-			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
+			// Don't write the outputs of a partial read, e.g. because the import has been cancelled
+			if (complete)
+				fanOut.close();
+			else
+				fanOut.abort();
 		}
 	}
 
-	private String readHeaders(BufferedReader br)
+	private void moveStagedFile(File staged, File hdf5)
 			throws IOException
 	{
-		String line;
+		FilePlacement.move(staged.toPath(), hdf5.toPath());
+
+		Logger.getLogger("").info("HDF5 file written to: " + hdf5.getAbsolutePath() + " " + hdf5.exists() + " " + hdf5.length());
+	}
+
+	@Override
+	protected void onAlreadyImported()
+	{
+		// The check wrote the HDF5 files for an import that's no longer needed
+		deleteStagedFiles();
+	}
+
+	private void deleteStagedFiles()
+	{
+		if (stagedHdf5 != null)
+			stagedHdf5.delete();
+		if (stagedHdf5Transposed != null)
+			stagedHdf5Transposed.delete();
+
+		stagedHdf5 = null;
+		stagedHdf5Transposed = null;
+		bodyScanned = false;
+	}
+
+	/**
+	 * Reads the header lines and the map.
+	 *
+	 * @return Whether the scanner is on the first genotype row
+	 */
+	private boolean readHeaders(FieldScanner scanner)
+			throws IOException
+	{
+		boolean hasLine;
+
+		markers = null;
+		chromosomes = null;
+		positions = null;
 
 		// Read the headers, set defaults first
 		headerMapping.put("dataset", this.getInputFile().getName());
 		headerMapping.put("map", this.getInputFile().getName());
 		headerMapping.put("markerType", "UNKNOWN");
-		while ((line = br.readLine()) != null && line.startsWith("#"))
+		while ((hasLine = scanner.nextLine()) && scanner.startsWith("#"))
 		{
-			String[] parts = line.substring(1).split("=", -1);
+			String[] parts = scanner.getLine().substring(1).split("=", -1);
 			if (parts.length == 2)
 			{
 				parts[0] = parts[0].trim();
@@ -251,19 +254,18 @@ public class GenotypeFlatFileImporter extends AbstractFlatFileImporter
 		}
 
 		// Now the map
-		while (markers == null && line != null)
+		while (markers == null && hasLine)
 		{
-			if (line.startsWith("Linkage Group / Chromosome"))
-				chromosomes = line.replace("Linkage Group / Chromosome\t", "").split("\t", -1);
-			else if (line.startsWith("Position"))
-				positions = line.replace("Position\t", "").split("\t", -1);
-			else if (line.startsWith("Lines/Markers"))
+			if (scanner.startsWith("Linkage Group / Chromosome"))
+				chromosomes = scanner.getFields(1);
+			else if (scanner.startsWith("Position"))
+				positions = scanner.getFields(1);
+			else if (scanner.startsWith("Lines/Markers"))
 			{
-				markers = line.replace("Lines/Markers\t", "").split("\t", -1);
-				markerIds = new int[markers.length];
+				markers = scanner.getFields(1);
 			}
 
-			line = br.readLine();
+			hasLine = scanner.nextLine();
 		}
 
 		if (chromosomes == null)
@@ -271,227 +273,80 @@ public class GenotypeFlatFileImporter extends AbstractFlatFileImporter
 		if (positions == null)
 			positions = new String[0];
 
-		return line;
+		return hasLine;
 	}
 
 	@Override
-	protected void importFile(BufferedReader br)
+	protected void importFile(FieldScanner scanner)
 	{
 		// We need to navigate to the correct location for the resulting hdf5 file
-		File hdf5 = new File(this.hdf5TargetFolder, this.getInputFile().getName() + ".hdf5");
-		File hdf5Transposed = new File(this.hdf5TargetFolder, "transposed-" + this.getInputFile().getName() + ".hdf5");
+		File hdf5 = getHdf5File(false);
+		File hdf5Transposed = getHdf5File(true);
 		hdf5.getParentFile().mkdirs();
 
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
-			String line = readHeaders(br);
-//			line = br.readLine();
-//			line = br.readLine();
+			DSLContext context = getContext(conn);
+			// The check has already parsed the headers and staged the HDF5 files, otherwise start from the top
+			boolean hasLine = !bodyScanned && readHeaders(scanner);
 
-			do
-			{
-				if (StringUtils.isEmpty(line))
-					continue;
-
-				int index = line.indexOf("\t");
-
-				if (index == -1)
-					continue;
-
-				// Remember the germplasm ids
-				String germplasm = line.substring(0, index);
-				germplasmIdsInFile.add(germplasmLookup.getGermplasmId(germplasm));
-			}
-			while ((line = br.readLine()) != null);
-
-			String markerTypeName = headerMapping.get("markerType");
-			MarkertypesRecord markerType = context.selectFrom(MARKERTYPES)
-												  .where(MARKERTYPES.DESCRIPTION.eq(markerTypeName))
-												  .fetchAny();
-
-			if (markerType == null)
-			{
-				markerType = context.newRecord(MARKERTYPES);
-				markerType.setDescription(markerTypeName);
-				markerType.setCreatedOn(new Timestamp(System.currentTimeMillis()));
-				markerType.store();
-			}
-
-			MapfeaturetypesRecord mapFeatureType = context.selectFrom(MAPFEATURETYPES)
-														  .where(MAPFEATURETYPES.DESCRIPTION.eq(markerTypeName))
-														  .fetchAny();
-
-			if (mapFeatureType == null)
-			{
-				mapFeatureType = context.newRecord(MAPFEATURETYPES);
-				mapFeatureType.setDescription(markerTypeName);
-				mapFeatureType.setCreatedOn(new Timestamp(System.currentTimeMillis()));
-				mapFeatureType.store();
-			}
+			MarkertypesRecord markerType = getOrCreateMarkerType(context, headerMapping.get("markerType"));
+			MapfeaturetypesRecord mapFeatureType = getOrCreateMapFeatureType(context, headerMapping.get("markerType"));
 
 			// Import markers
-			int markerTypeId = markerType.getId();
-			List<String> newMarkers = Arrays.stream(markers).filter(m -> !markerToId.containsKey(m)).collect(Collectors.toList());
+			MarkerTable markerTable = MarkerTable.of(markers, chromosomes, positions);
+			int[] markerIds = importMarkers(markerTable, markerType.getId());
 
-			// Run the marker importer synchronously (we need the markers before we can continue
-			new MarkerImporterTask(newMarkers, markerTypeId, this::addImportResult).run();
+			// Don't create a dataset that would be missing some of its markers
+			if (markerIds == null)
+				return;
 
-			// Now get the marker ids
-			markerToId.clear();
-			context.selectFrom(MARKERS)
-				   .forEach(m -> markerToId.put(m.getMarkerName(), m.getId()));
+			createDataset(context, headerMapping.get("dataset"), hdf5);
 
-			for (int i = 0; i < markers.length; i++)
-			{
-				String marker = markers[i];
-				Integer id = markerToId.get(marker);
+			latch = new CountDownLatch(2);
 
-				markerIds[i] = id;
-				markerIdsInFile.add(id);
-			}
-
-			ExperimentsRecord experiment = context.selectFrom(EXPERIMENTS)
-												  .where(EXPERIMENTS.EXPERIMENT_NAME.eq(headerMapping.get("dataset")))
-												  .fetchAny();
-
-			if (experiment == null)
-			{
-				experiment = context.newRecord(EXPERIMENTS);
-				experiment.setExperimentName(headerMapping.get("dataset"));
-				experiment.setCreatedOn(new Timestamp(System.currentTimeMillis()));
-				experiment.store();
-			}
-
-			if (dataset == null)
-			{
-				dataset = context.newRecord(DATASETS);
-				dataset.setExperimentId(experiment.getId());
-				dataset.setDatasettypeId(1);
-				dataset.setDatasetStateId(this.jobDetails.getDatasetstateId());
-				// Hide it initially. We don't want people using half-imported data.
-				dataset.setDatasetStateId(3);
-				dataset.setName(headerMapping.get("dataset"));
-				dataset.setDescription(headerMapping.get("dataset"));
-				dataset.setCreatedOn(new Timestamp(System.currentTimeMillis()));
-			}
+			// Only create a map if there's something to put on it
+			if (markerTable.getChromosomeValueCount() > 0 && markerTable.getPositionValueCount() > 0)
+				startMapdefinitionImport(markerTable, markerIds, createMap(context, headerMapping.get("map")), mapFeatureType, latch);
 			else
-			{
-				// We need to fetch it again, because its database connection has been closed and updates won't be possible
-				dataset = context.selectFrom(DATASETS)
-								 .where(DATASETS.ID.eq(dataset.getId()))
-								 .fetchAny();
-			}
-
-			dataset.setSourceFile(hdf5.getName());
-			dataset.store();
-
-			latch = new CountDownLatch(4);
-
-			if (!CollectionUtils.isEmpty(positions) && !CollectionUtils.isEmpty(chromosomes))
-			{
-				int chromosomeCount = 0;
-				int positionCount = 0;
+				latch.countDown();
 
-				for (int i = 0; i < chromosomes.length; i++)
+			// Read the genotype rows (unless the check has already done so), then import the dataset members
+			boolean hasFirstLine = hasLine;
+			new Thread(() -> {
+				try
 				{
-					if (!StringUtils.isEmpty(chromosomes[i]))
-						chromosomeCount++;
-					if (!StringUtils.isEmpty(positions[i]))
-						positionCount++;
-				}
+					if (!bodyScanned)
+						scanBody(scanner, hasFirstLine, true);
 
-				if (chromosomeCount > 0 && positionCount > 0)
-				{
-					MapsRecord map = context.newRecord(MAPS);
-					map.setName(headerMapping.get("map"));
-					map.setDescription(headerMapping.get("map"));
-					map.setVisibility(true);
-					map.setUserId(this.jobDetails.getUserId());
-					map.setCreatedOn(new Timestamp(System.currentTimeMillis()));
-					map.store();
-
-					// Start the mapdefinition importer
-					new Thread(new MapdefinitionImporterTask(
-							markers,
-							markerIds,
-							map.getId(),
-							mapFeatureType.getId(),
-							chromosomes,
-							positions,
-							this::addImportResult)
+					// Without a check beforehand, the scan is the first to find invalid rows. Keep nothing from them, the dataset stays hidden.
+					if (hasImportError())
 					{
-						@Override
-						protected void onFinished()
-						{
-							latch.countDown();
-						}
-					}).start();
+						deleteStagedFiles();
+						return;
+					}
+
+					moveStagedFile(stagedHdf5, hdf5);
+					moveStagedFile(stagedHdf5Transposed, hdf5Transposed);
+
+					importDatasetMembers();
 				}
-				else
+				catch (IOException e)
 				{
-					latch.countDown();
+					deleteStagedFiles();
+					addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
 				}
-			}
-			else
-			{
-				// If there are none, just count this as finished
-				latch.countDown();
-			}
-
-			// Import the dataset members
-			new Thread(new DatasetMemberImporterTask(
-					markerIdsInFile,
-					germplasmIdsInFile,
-					dataset.getId(),
-					this::addImportResult)
-			{
-				@Override
-				protected void onFinished()
+				catch (ImportCancelledException e)
 				{
-					latch.countDown();
+					deleteStagedFiles();
 				}
-			}).start();
-
-			int skipLines = 0;
-			if (chromosomes.length != 0)
-				skipLines++;
-			if (positions.length != 0)
-				skipLines++;
-
-			// Convert the Flapjack file to HDF5
-			new Thread(new FJTabbedToHdf5Task(this.getInputFile(), hdf5, false, skipLines, this::addImportResult)
-			{
-				@Override
-				protected void onFinished()
+				finally
 				{
 					latch.countDown();
 				}
 			}).start();
 
-			// Convert the Flapjack file to transposed HDF5
-			new Thread(new FJTabbedToHdf5Task(this.getInputFile(), hdf5Transposed, true, skipLines, this::addImportResult)
-			{
-				@Override
-				protected void onFinished()
-				{
-					latch.countDown();
-				}
-			}).start();
-
-			try
-			{
-				// Wait for the others to finish
-				latch.await();
-
-				// Now set it to be public. Everything has been imported successfully.
-				dataset.setDatasetStateId(1);
-				dataset.store(DATASETS.DATASET_STATE_ID);
-			}
-			catch (InterruptedException e)
-			{
-				addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
-			}
+			publishDataset(latch);
 		}
 		catch (SQLException | IOException e)
 		{
@@ -505,21 +360,9 @@ public class GenotypeFlatFileImporter extends AbstractFlatFileImporter
 	}
 
 	@Override
-	protected void updateFile(BufferedReader br)
+	protected void updateFile(FieldScanner scanner)
 	{
 		// We don't update, just import
-		this.importFile(br);
-	}
-
-	@Override
-	protected int getMarkerCount()
-	{
-		return markerIdsInFile.size();
-	}
-
-	@Override
-	protected int getGermplasmCount()
-	{
-		return germplasmIdsInFile.size();
+		this.importFile(scanner);
 	}
 }
@@ -0,0 +1,389 @@
+package jhi.germinate.server.util.importer;
+
+import jhi.germinate.server.Database;
+import jhi.germinate.server.database.codegen.enums.DataImportJobsDatatype;
+import jhi.germinate.server.database.codegen.tables.records.*;
+import jhi.germinate.server.database.pojo.ImportStatus;
+import jhi.germinate.server.util.StringUtils;
+import jhi.germinate.server.util.importer.task.*;
+import jhi.germinate.server.util.importer.util.*;
+import org.jooq.DSLContext;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Imports genotypes from PLINK binary files. The upload is a zip container holding the <code>.bed</code>, <code>.bim</code> and <code>.fam</code>
+ * files. The <code>.bim</code> and <code>.bed</code> files are read in lockstep, one variant at a time, and the 2-bit genotype codes are decoded
+ * directly into state table indices without ever creating a text representation of the calls.
+ *
+ * @author Sebastian Raubach
+ */
+public class GenotypePlinkImporter extends AbstractGenotypeImporter
+{
+	/** The magic number of a <code>.bed</code> file followed by the SNP-major mode flag */
+	private static final byte[] BED_MAGIC = {0x6c, 0x1b, 0x01};
+
+	public static void main(String[] args)
+			throws SQLException, IOException
+	{
+		GenotypePlinkImporter importer;
+
+		if (args.length == 6)
+		{
+			importer = new GenotypePlinkImporter(Integer.parseInt(args[5]));
+		}
+		else if (args.length == 9)
+		{
+			importer = new GenotypePlinkImporter(createImportJobFromCommandline(args, DataImportJobsDatatype.genotype));
+		}
+		else
+		{
+			throw new RuntimeException("Invalid number of arguments: " + Arrays.toString(args));
+		}
+
+		importer.init(args);
+		importer.run();
+	}
+
+	public GenotypePlinkImporter(Integer importJobId)
+	{
+		super(importJobId);
+	}
+
+	/**
+	 * Finds the first file with the given extension in the zip container.
+	 */
+	private Path findFile(FileSystem fs, String extension)
+			throws IOException
+	{
+		for (Path root : fs.getRootDirectories())
+		{
+			try (Stream<Path> files = Files.walk(root))
+			{
+				Optional<Path> match = files.filter(p -> p.getFileName() != null && p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(extension))
+											.findFirst();
+
+				if (match.isPresent())
+					return match.get();
+			}
+		}
+
+		addImportResult(ImportStatus.GENERIC_MISSING_REQUIRED_VALUE, -1, "Missing " + extension + " file in zip container.");
+		return null;
+	}
+
+	/**
+	 * Reads the sample ids (the second column) of the <code>.fam</code> file.
+	 */
+	private List<String> readSamples(Path fam)
+			throws IOException
+	{
+		List<String> samples = new ArrayList<>();
+
+		try (BufferedReader br = Files.newBufferedReader(fam, StandardCharsets.UTF_8))
+		{
+			String line;
+			int counter = 0;
+			while ((line = br.readLine()) != null)
+			{
+				counter++;
+
+				if (StringUtils.isEmpty(line))
+					continue;
+
+				String[] parts = line.trim().split("\\s+");
+
+				if (parts.length < 2)
+					addImportResult(ImportStatus.GENERIC_MISSING_COLUMN, counter, ".fam file: " + line);
+				else
+					samples.add(parts[1]);
+			}
+		}
+
+		return samples;
+	}
+
+	/**
+	 * @return The number of bytes per variant in the <code>.bed</code> file
+	 */
+	private static int getBlockSize(int sampleCount)
+	{
+		return (sampleCount + 3) / 4;
+	}
+
+	private boolean checkMagic(InputStream bed)
+			throws IOException
+	{
+		byte[] magic = bed.readNBytes(BED_MAGIC.length);
+
+		if (!Arrays.equals(magic, BED_MAGIC))
+		{
+			addImportResult(ImportStatus.GENERIC_INVALID_DATATYPE, -1, "Not a SNP-major PLINK .bed file.");
+			return false;
+		}
+
+		return true;
+	}
+
+	@Override
+	protected void checkFile()
+	{
+		try (FileSystem fs = FileSystems.newFileSystem(getInputFile().toPath(), (ClassLoader) null))
+		{
+			Path bed = findFile(fs, ".bed");
+			Path bim = findFile(fs, ".bim");
+			Path fam = findFile(fs, ".fam");
+
+			if (bed == null || bim == null || fam == null)
+				return;
+
+			List<String> samples = readSamples(fam);
+
+			// Only the germplasm in the header are needed, so don't load the whole germplasm table
+			if (germplasmLookup == null)
+				germplasmLookup = new GermplasmLookup(this::getContext, getSnapshotFolder(), samples);
+
+			for (int i = 0; i < samples.size(); i++)
+			{
+				try
+				{
+					germplasmLookup.getGermplasmId(samples.get(i));
+				}
+				catch (GermplasmNotFoundException e)
+				{
+					addImportResult(e.getReason(), i + 1, samples.get(i));
+				}
+			}
+
+			int variants = 0;
+			try (BufferedReader br = getProgress().trackLines(Files.newBufferedReader(bim, StandardCharsets.UTF_8)))
+			{
+				String line;
+				while ((line = br.readLine()) != null)
+				{
+					if (StringUtils.isEmpty(line))
+						continue;
+
+					variants++;
+					String[] parts = line.trim().split("\\s+");
+
+					if (parts.length != 6)
+					{
+						addImportResult(ImportStatus.GENOTYPE_HEADER_LENGTH_MISMATCH, variants, ".bim file: " + line);
+						continue;
+					}
+
+					try
+					{
+						Long.parseLong(parts[3]);
+					}
+					catch (NumberFormatException e)
+					{
+						addImportResult(ImportStatus.GENERIC_INVALID_NUMBER, variants, "Marker position has to be a number.");
+					}
+				}
+			}
+
+			try (InputStream is = new BufferedInputStream(Files.newInputStream(bed)))
+			{
+				if (checkMagic(is))
+				{
+					long expected = BED_MAGIC.length + (long) variants * getBlockSize(samples.size());
+					long actual = Files.size(bed);
+
+					if (expected != actual)
+						addImportResult(ImportStatus.GENOTYPE_HEADER_LENGTH_MISMATCH, -1, ".bed file size (" + actual + " bytes) doesn't match the " + variants + " variants and " + samples.size() + " samples (" + expected + " bytes).");
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
+		}
+	}
+
+	@Override
+	protected void importFile()
+	{
+		// We need to navigate to the correct location for the resulting hdf5 file
+		File hdf5 = getHdf5File(false);
+		File hdf5Transposed = getHdf5File(true);
+		hdf5.getParentFile().mkdirs();
+
+		File tempHdf5 = null;
+		File tempHdf5Transposed = null;
+
+		try (FileSystem fs = FileSystems.newFileSystem(getInputFile().toPath(), (ClassLoader) null);
+			 Connection conn = Database.getConnection())
+		{
+			DSLContext context = getContext(conn);
+
+			Path bed = findFile(fs, ".bed");
+			Path bim = findFile(fs, ".bim");
+			Path fam = findFile(fs, ".fam");
+
+			if (bed == null || bim == null || fam == null)
+				return;
+
+			String[] samples = readSamples(fam).toArray(new String[0]);
+
+			if (germplasmLookup == null)
+				germplasmLookup = new GermplasmLookup(this::getContext, getSnapshotFolder(), Arrays.asList(samples));
+
+			for (String g : samples)
+				germplasmIdsInFile.add(germplasmLookup.getGermplasmId(g));
+
+			// Write them to the job folder, so they can most likely be renamed into place rather than copied
+			Path jobFolder = getInputFile().getAbsoluteFile().getParentFile().toPath();
+			tempHdf5 = Files.createTempFile(jobFolder, getInputFile().getName(), ".temp").toFile();
+			tempHdf5Transposed = Files.createTempFile(jobFolder, "transposed-" + getInputFile().getName(), ".temp").toFile();
+
+			// Read the .bim and .bed files in lockstep: the marker table is filled inline, the HDF5 files are written on their own threads
+			MarkerTable markers = new MarkerTable();
+			int blockSize = getBlockSize(samples.length);
+
+			// Both writers get the same rows, so only the first one reports those it has to skip
+			FanOut<BedVariant> fanOut = new FanOut<>();
+			fanOut.addInline(v -> markers.add(v.name, v.chromosome, v.position))
+				  .addQueued("hdf5-" + importJobId, getTimings().time("hdf5", tempHdf5, new Hdf5GenotypeWriter<>(tempHdf5, samples, false, false, GenotypePlinkImporter::decode, this::addImportResult)))
+				  .addQueued("hdf5-transposed-" + importJobId, getTimings().time("hdf5-transposed", tempHdf5Transposed, new Hdf5GenotypeWriter<>(tempHdf5Transposed, samples, false, true, GenotypePlinkImporter::decode, null)));
+
+			// The .bed file is read from start to end, so its size tells how far along we are
+			getProgress().setTotalBytes(Files.size(bed));
+
+			boolean complete = false;
+			try (BufferedReader br = getProgress().trackLines(Files.newBufferedReader(bim, StandardCharsets.UTF_8));
+				 InputStream is = new BufferedInputStream(getProgress().track(Files.newInputStream(bed)), 65536))
+			{
+				if (!checkMagic(is))
+					return;
+
+				String line;
+				while ((line = br.readLine()) != null)
+				{
+					if (StringUtils.isEmpty(line))
+						continue;
+
+					String[] parts = line.trim().split("\\s+");
+					byte[] block = is.readNBytes(blockSize);
+
+					if (block.length != blockSize)
+						throw new EOFException(".bed file ended before variant " + parts[1]);
+
+					fanOut.offer(new BedVariant(parts[1], parts[0], parts[3], parts[4], parts[5], block));
+				}
+
+				complete = true;
+			}
+			finally
+			{
+				// Don't write the outputs of a partial read, e.g. because the import has been cancelled
+				if (complete)
+					fanOut.close();
+				else
+					fanOut.abort();
+			}
+
+			MarkertypesRecord markerType = getOrCreateMarkerType(context, "SNP");
+			MapfeaturetypesRecord mapFeatureType = getOrCreateMapFeatureType(context, "SNP");
+
+			String fileName = getInputFile().getName();
+			MapsRecord map = createMap(context, fileName);
+
+			// Import markers
+			int[] markerIds = importMarkers(markers, markerType.getId());
+
+			// Don't create a dataset that would be missing some of its markers
+			if (markerIds == null)
+				return;
+
+			createDataset(context, fileName, hdf5);
+
+			// The HDF5 files are complete at this point, move them into place
+			FilePlacement.move(tempHdf5.toPath(), hdf5.toPath());
+			FilePlacement.move(tempHdf5Transposed.toPath(), hdf5Transposed.toPath());
+			Logger.getLogger("").info("HDF5 files written to: " + hdf5.getAbsolutePath() + " and " + hdf5Transposed.getAbsolutePath());
+
+			CountDownLatch latch = new CountDownLatch(2);
+
+			startMapdefinitionImport(markers, markerIds, map, mapFeatureType, latch);
+			startDatasetMemberImport(latch);
+
+			publishDataset(latch);
+		}
+		catch (SQLException | IOException e)
+		{
+			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
+		}
+		finally
+		{
+			if (tempHdf5 != null)
+				tempHdf5.delete();
+			if (tempHdf5Transposed != null)
+				tempHdf5Transposed.delete();
+		}
+	}
+
+	/**
+	 * Decodes one variant of the <code>.bed</code> file. Each sample takes two bits, starting at the low end of each byte: 00 is homozygous for the
+	 * first allele, 01 missing, 10 heterozygous and 11 homozygous for the second allele.
+	 */
+	private static void decode(BedVariant variant, Hdf5GenotypeWriter<BedVariant> writer)
+	{
+		byte[] codes = new byte[4];
+		codes[0] = writer.getState(variant.allele1);
+		codes[1] = writer.getState("");
+		codes[2] = writer.getState(variant.allele1 + "/" + variant.allele2);
+		codes[3] = writer.getState(variant.allele2);
+
+		byte[] states = new byte[writer.getColumnCount()];
+		for (int s = 0; s < states.length; s++)
+			states[s] = codes[(variant.block[s >> 2] >> ((s & 3) << 1)) & 3];
+
+		writer.addRow(variant.name, states);
+	}
+
+	@Override
+	protected void updateFile()
+	{
+		// We don't update, just import
+		this.importFile();
+	}
+
+	@Override
+	protected boolean isBackupCompressible()
+	{
+		// The upload is a zip container already
+		return false;
+	}
+
+	/**
+	 * One line of the <code>.bim</code> file together with its genotype block from the <code>.bed</code> file.
+	 */
+	private static class BedVariant
+	{
+		private final String name;
+		private final String chromosome;
+		private final String position;
+		private final String allele1;
+		private final String allele2;
+		private final byte[] block;
+
+		private BedVariant(String name, String chromosome, String position, String allele1, String allele2, byte[] block)
+		{
+			this.name = name;
+			this.chromosome = chromosome;
+			this.position = position;
+			this.allele1 = allele1;
+			this.allele2 = allele2;
+			this.block = block;
+		}
+	}
+}
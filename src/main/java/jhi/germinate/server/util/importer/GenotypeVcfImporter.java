@@ -0,0 +1,264 @@
+package jhi.germinate.server.util.importer;
+
+import jhi.germinate.server.Database;
+import jhi.germinate.server.database.codegen.enums.DataImportJobsDatatype;
+import jhi.germinate.server.database.codegen.tables.records.*;
+import jhi.germinate.server.database.pojo.ImportStatus;
+import jhi.germinate.server.util.StringUtils;
+import jhi.germinate.server.util.importer.task.*;
+import jhi.germinate.server.util.importer.util.*;
+import org.jooq.DSLContext;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+/**
+ * Imports genotypes from VCF files, plain or (b)gzipped. Records are streamed straight into the marker table and both HDF5 files, the file is
+ * never held in memory as a whole.
+ *
+ * @author Sebastian Raubach
+ */
+public class GenotypeVcfImporter extends AbstractFlatFileImporter<BufferedReader>
+{
+	private static final String HEADER_PREFIX = "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT";
+
+	public static void main(String[] args)
+			throws SQLException, IOException
+	{
+		GenotypeVcfImporter importer;
+
+		if (args.length == 6)
+		{
+			importer = new GenotypeVcfImporter(Integer.parseInt(args[5]));
+		}
+		else if (args.length == 9)
+		{
+			importer = new GenotypeVcfImporter(createImportJobFromCommandline(args, DataImportJobsDatatype.genotype));
+		}
+		else
+		{
+			throw new RuntimeException("Invalid number of arguments: " + Arrays.toString(args));
+		}
+
+		importer.init(args);
+		importer.run();
+	}
+
+	public GenotypeVcfImporter(Integer importJobId)
+	{
+		super(importJobId);
+	}
+
+	@Override
+	protected BufferedReader openInput()
+			throws IOException
+	{
+		return getProgress().trackLines(new InputStreamReader(openInputStream(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Skips the meta-information lines and returns the sample names from the header line or <code>null</code> if there isn't one.
+	 */
+	private String[] readHeader(BufferedReader br)
+			throws IOException
+	{
+		String line;
+		while ((line = br.readLine()) != null && line.startsWith("##"))
+		{
+			// Skip meta-information
+		}
+
+		if (line == null || !line.startsWith(HEADER_PREFIX + "\t"))
+			return null;
+
+		String[] parts = line.split("\t", -1);
+		return Arrays.copyOfRange(parts, VcfRecord.FIXED_COLUMNS, parts.length);
+	}
+
+	@Override
+	protected void checkFile(BufferedReader br)
+	{
+		try
+		{
+			String[] samples = readHeader(br);
+
+			if (samples == null)
+			{
+				addImportResult(ImportStatus.GENOTYPE_MISSING_ROW, -1, "VCF header line (" + HEADER_PREFIX.replace("\t", " ") + " ...) missing or incomplete.");
+				return;
+			}
+
+			// Only the germplasm in the header are needed, so don't load the whole germplasm table
+			if (germplasmLookup == null)
+				germplasmLookup = new GermplasmLookup(this::getContext, getSnapshotFolder(), Arrays.asList(samples));
+
+			for (String g : samples)
+			{
+				try
+				{
+					germplasmLookup.getGermplasmId(g);
+				}
+				catch (GermplasmNotFoundException e)
+				{
+					addImportResult(e.getReason(), 1, g);
+				}
+			}
+
+			String line;
+			int counter = 1;
+			while ((line = br.readLine()) != null)
+			{
+				counter++;
+
+				if (StringUtils.isEmpty(line))
+					continue;
+
+				VcfRecord record = VcfRecord.parse(line);
+
+				if (record == null || record.getSampleCount() != samples.length)
+				{
+					addImportResult(ImportStatus.GENOTYPE_HEADER_LENGTH_MISMATCH, counter, "Number of columns doesn't match the header.");
+					continue;
+				}
+
+				if (!StringUtils.isEmpty(record.getPosition()))
+				{
+					try
+					{
+						Long.parseLong(record.getPosition());
+					}
+					catch (NumberFormatException e)
+					{
+						addImportResult(ImportStatus.GENERIC_INVALID_NUMBER, counter, "Marker position has to be a number.");
+					}
+				}
+
+				if (record.getGenotypeIndex() == -1)
+					addImportResult(ImportStatus.GENERIC_MISSING_COLUMN, counter, "FORMAT column doesn't contain GT: " + record.getMarkerName());
+			}
+		}
+		catch (IOException e)
+		{
+			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
+		}
+	}
+
+	@Override
+	protected void importFile(BufferedReader br)
+	{
+		// We need to navigate to the correct location for the resulting hdf5 file
+		File hdf5 = getHdf5File(false);
+		File hdf5Transposed = getHdf5File(true);
+		hdf5.getParentFile().mkdirs();
+
+		File tempHdf5 = null;
+		File tempHdf5Transposed = null;
+
+		try (Connection conn = Database.getConnection())
+		{
+			DSLContext context = getContext(conn);
+
+			String[] samples = readHeader(br);
+
+			if (samples == null)
+			{
+				addImportResult(ImportStatus.GENOTYPE_MISSING_ROW, -1, "VCF header line missing or incomplete.");
+				return;
+			}
+
+			if (germplasmLookup == null)
+				germplasmLookup = new GermplasmLookup(this::getContext, getSnapshotFolder(), Arrays.asList(samples));
+
+			for (String g : samples)
+				germplasmIdsInFile.add(germplasmLookup.getGermplasmId(g));
+
+			// Write them to the job folder, so they can most likely be renamed into place rather than copied
+			Path jobFolder = getInputFile().getAbsoluteFile().getParentFile().toPath();
+			tempHdf5 = Files.createTempFile(jobFolder, getInputFile().getName(), ".temp").toFile();
+			tempHdf5Transposed = Files.createTempFile(jobFolder, "transposed-" + getInputFile().getName(), ".temp").toFile();
+
+			// Read the records once: the marker table is filled inline, the HDF5 files are written on their own threads
+			MarkerTable markers = new MarkerTable();
+			Hdf5GenotypeWriter.RowDecoder<VcfRecord> decoder = (record, writer) -> writer.addRow(record.getMarkerName(), record.toStates(writer));
+
+			// Both writers get the same rows, so only the first one reports those it has to skip
+			FanOut<VcfRecord> fanOut = new FanOut<>();
+			fanOut.addInline(record -> markers.add(record.getMarkerName(), record.getChromosome(), record.getPosition()))
+				  .addQueued("hdf5-" + importJobId, getTimings().time("hdf5", tempHdf5, new Hdf5GenotypeWriter<>(tempHdf5, samples, false, false, decoder, this::addImportResult)))
+				  .addQueued("hdf5-transposed-" + importJobId, getTimings().time("hdf5-transposed", tempHdf5Transposed, new Hdf5GenotypeWriter<>(tempHdf5Transposed, samples, false, true, decoder, null)));
+
+			boolean complete = false;
+			try
+			{
+				String line;
+				while ((line = br.readLine()) != null)
+				{
+					VcfRecord record = StringUtils.isEmpty(line) ? null : VcfRecord.parse(line);
+
+					if (record != null)
+						fanOut.offer(record);
+				}
+
+				complete = true;
+			}
+			finally
+			{
+				// Don't write the outputs of a partial read, e.g. because the import has been cancelled
+				if (complete)
+					fanOut.close();
+				else
+					fanOut.abort();
+			}
+
+			MarkertypesRecord markerType = getOrCreateMarkerType(context, "SNP");
+			MapfeaturetypesRecord mapFeatureType = getOrCreateMapFeatureType(context, "SNP");
+
+			String fileName = getInputFile().getName();
+			MapsRecord map = createMap(context, fileName);
+
+			// Import markers
+			int[] markerIds = importMarkers(markers, markerType.getId());
+
+			// Don't create a dataset that would be missing some of its markers
+			if (markerIds == null)
+				return;
+
+			createDataset(context, fileName, hdf5);
+
+			// The HDF5 files are complete at this point, move them into place
+			FilePlacement.move(tempHdf5.toPath(), hdf5.toPath());
+			FilePlacement.move(tempHdf5Transposed.toPath(), hdf5Transposed.toPath());
+			Logger.getLogger("").info("HDF5 files written to: " + hdf5.getAbsolutePath() + " and " + hdf5Transposed.getAbsolutePath());
+
+			CountDownLatch latch = new CountDownLatch(2);
+
+			startMapdefinitionImport(markers, markerIds, map, mapFeatureType, latch);
+			startDatasetMemberImport(latch);
+
+			publishDataset(latch);
+		}
+		catch (SQLException | IOException e)
+		{
+			addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
+		}
+		finally
+		{
+			if (tempHdf5 != null)
+				tempHdf5.delete();
+			if (tempHdf5Transposed != null)
+				tempHdf5Transposed.delete();
+		}
+	}
+
+	@Override
+	protected void updateFile(BufferedReader br)
+	{
+		// We don't update, just import
+		this.importFile(br);
+	}
+}
@@ -6,7 +6,7 @@ import jhi.germinate.server.database.codegen.tables.pojos.ViewTableImages;
 import jhi.germinate.server.database.codegen.tables.records.*;
 import jhi.germinate.server.database.pojo.ImportStatus;
 import jhi.germinate.server.util.StringUtils;
-import jhi.germinate.server.util.importer.util.GdalUtils;
+import jhi.germinate.server.util.importer.util.*;
 import org.apache.commons.io.FileUtils;
 import org.dhatim.fastexcel.reader.*;
 import org.jooq.DSLContext;
@@ -17,6 +17,7 @@ import java.nio.file.*;
 import java.nio.file.FileSystem;
 import java.sql.*;
 import java.sql.Date;
+import java.time.LocalDate;
 import java.util.*;
 
 import static jhi.germinate.server.database.codegen.tables.Climates.CLIMATES;
@@ -59,7 +60,7 @@ public class GeotiffImporter extends AbstractImporter
 	{
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			context.selectFrom(DATASETS).forEach(d -> datasetIds.add(d.getId()));
 			context.selectFrom(CLIMATES).forEach(g -> climateNameToId.put(g.getName(), g.getId()));
 			context.selectFrom(PHENOTYPES).forEach(g -> traitNameToId.put(g.getName(), g.getId()));
@@ -331,7 +332,7 @@ public class GeotiffImporter extends AbstractImporter
 			{
 				try (Connection conn = Database.getConnection())
 				{
-					DSLContext context = Database.getContext(conn);
+					DSLContext context = getContext(conn);
 					templateUnzipped = Files.createTempFile("geotiff-template", "xlsx");
 					Files.copy(template, templateUnzipped, StandardCopyOption.REPLACE_EXISTING);
 
@@ -490,7 +491,7 @@ public class GeotiffImporter extends AbstractImporter
 		// Create a backup copy of the uploaded file and link it to the newly created dataset.
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			FileresourcetypesRecord type = context.selectFrom(FILERESOURCETYPES).where(FILERESOURCETYPES.NAME.eq("Dataset resource")).and(FILERESOURCETYPES.DESCRIPTION.eq("Automatically created linked backups of uploaded data resources.")).fetchAny();
 
 			if (type == null)
@@ -534,8 +535,8 @@ public class GeotiffImporter extends AbstractImporter
 				link.store();
 			}
 
-			// Finally copy the file
-			Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			// Finally place the file, sharing its data with the upload where possible
+			FilePlacement.copy(source.toPath(), target.toPath());
 		}
 		catch (SQLException | IOException e)
 		{
@@ -562,51 +563,10 @@ public class GeotiffImporter extends AbstractImporter
 
 	protected Date getCellValueDate(Row r, int index)
 	{
-		String value = getCellValue(r, index);
-
-		java.util.Date date = null;
-		if (!StringUtils.isEmpty(value))
-		{
-			if (!StringUtils.isEmpty(value))
-			{
-				if (value.length() == 10)
-				{
-					try
-					{
-						date = SDF_FULL_DASH.parse(value);
-					}
-					catch (Exception e)
-					{
-					}
-				}
-				else
-				{
-					// Replace all hyphens with zeros so that we only have one case to handle.
-					value = value.replace("-", "0");
-
-					try
-					{
-						boolean noMonth = value.startsWith("00", 4);
-						boolean noDay = value.startsWith("00", 6);
-
-						if (noDay && noMonth)
-							date = SDF_YEAR.parse(value.substring(0, 4));
-						else if (noDay)
-							date = SDF_YEAR_MONTH.parse(value.substring(0, 6));
-						else if (noMonth)
-							date = SDF_YEAR_DAY.parse(value.substring(0, 4) + value.substring(6, 8));
-						else
-							date = SDF_FULL.parse(value);
-					}
-					catch (Exception e)
-					{
-					}
-				}
-			}
-		}
+		LocalDate date = DateDecoder.decode(getCellValue(r, index));
 
 		if (date != null)
-			return new Date(date.getTime());
+			return Date.valueOf(date);
 		else
 			return null;
 	}
@@ -3,39 +3,158 @@ package jhi.germinate.server.util.importer;
 import jhi.germinate.server.Database;
 import jhi.germinate.server.database.pojo.ImportStatus;
 import jhi.germinate.server.util.*;
-import jhi.germinate.server.util.importer.util.GermplasmNotFoundException;
+import jhi.germinate.server.util.importer.util.*;
 import org.jooq.DSLContext;
 
+import java.io.File;
 import java.sql.*;
 import java.util.*;
 
 import static jhi.germinate.server.database.codegen.tables.Germinatebase.GERMINATEBASE;
 
+/**
+ * Resolves germplasm names and display names to their ids. By default, the names of all germplasm are loaded up front. If the importer knows the
+ * identifiers it's going to need, only those are resolved instead, and any identifier that wasn't known up front is resolved once it's first
+ * requested. Whenever everything is loaded, it's taken from or written to an {@link IndexSnapshot}.
+ *
+ * @author Sebastian Raubach
+ */
 public class GermplasmLookup
 {
-	private final Map<String, Integer>      germplasmToId   = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-	private final Map<String, Set<Integer>> displayNameToId = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	/** Marks display names that are used by more than one germplasm */
+	private static final int    AMBIGUOUS          = -1;
+	/** Number of identifiers per <code>IN</code> query */
+	private static final int    BATCH_SIZE         = 1000;
+	/** If the file references more than this fraction of the germplasm table, it's cheaper to load all of it */
+	private static final double FULL_SCAN_FRACTION = 0.25;
 
-	public GermplasmLookup()
+	private       NameIndex germplasmToId   = new NameIndex();
+	private       NameIndex displayNameToId = new NameIndex();
+	private final BitSet    germplasmIds    = new BitSet();
+
+	/** The identifiers that have been looked up in targeted mode, <code>null</code> if everything has been loaded */
+	private NameIndex resolved = null;
+
+	private final ContextFactory contexts;
+
+	/**
+	 * Loads the names and display names of all germplasm.
+	 *
+	 * @param contexts       Creates the database contexts the germplasm are loaded through
+	 * @param snapshotFolder The folder holding the snapshots shared between imports. May be <code>null</code>.
+	 */
+	public GermplasmLookup(ContextFactory contexts, File snapshotFolder)
+	{
+		this(contexts, snapshotFolder, null);
+	}
+
+	/**
+	 * Only resolves the given identifiers against the germplasm names and display names, unless they make up a large part of the germplasm table
+	 * or there's an up-to-date snapshot of all of them.
+	 *
+	 * @param contexts       Creates the database contexts the germplasm are loaded through
+	 * @param snapshotFolder The folder holding the snapshots shared between imports. May be <code>null</code>.
+	 * @param identifiers    The germplasm identifiers the importer is going to look up or <code>null</code> to load everything
+	 */
+	public GermplasmLookup(ContextFactory contexts, File snapshotFolder, Collection<String> identifiers)
+	{
+		this.contexts = contexts;
+
+		ImportEvents.GermplasmLookup event = new ImportEvents.GermplasmLookup();
+		event.begin();
+
+		Set<String> distinct = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+		if (identifiers != null)
+		{
+			for (String identifier : identifiers)
+			{
+				if (!StringUtils.isEmpty(identifier))
+					distinct.add(identifier);
+			}
+		}
+
+		try (Connection conn = Database.getConnection())
+		{
+			DSLContext context = contexts.getContext(conn);
+
+			File snapshotFile = snapshotFolder == null ? null : new File(snapshotFolder, "germplasm.snapshot");
+			IndexSnapshot snapshot = IndexSnapshot.of(context, snapshotFile, GERMINATEBASE, GERMINATEBASE.UPDATED_ON);
+			NameIndex[] indexes = snapshot.read();
+
+			if (indexes != null)
+			{
+				event.mode = "snapshot";
+				germplasmToId = indexes[0];
+				displayNameToId = indexes[1];
+				germplasmToId.forEachId(germplasmIds::set);
+			}
+			else if (identifiers == null || distinct.size() > snapshot.getRowCount() * FULL_SCAN_FRACTION)
+			{
+				event.mode = "full";
+				loadAll(context);
+				snapshot.write(germplasmToId, displayNameToId);
+			}
+			else
+			{
+				event.mode = "targeted";
+				resolved = new NameIndex(distinct.size());
+				resolve(context, new ArrayList<>(distinct));
+			}
+
+			event.bytes = snapshotFile == null ? 0 : snapshotFile.length();
+		}
+		catch (SQLException e)
+		{
+			e.printStackTrace();
+		}
+
+		event.end();
+		if (event.shouldCommit())
+		{
+			event.identifiers = identifiers == null ? -1 : distinct.size();
+			event.rows = germplasmToId.size();
+			event.commit();
+		}
+	}
+
+	private void loadAll(DSLContext context)
+	{
+		context.select(GERMINATEBASE.ID, GERMINATEBASE.NAME, GERMINATEBASE.DISPLAY_NAME)
+			   .from(GERMINATEBASE)
+			   .forEach(g -> add(g.get(GERMINATEBASE.ID), g.get(GERMINATEBASE.NAME), g.get(GERMINATEBASE.DISPLAY_NAME)));
+	}
+
+	/**
+	 * Looks up the germplasm whose name or display name matches any of the identifiers. All germplasm sharing a requested display name are
+	 * fetched, so ambiguous display names are detected just like when everything is loaded.
+	 */
+	private void resolve(DSLContext context, List<String> identifiers)
+	{
+		for (int i = 0; i < identifiers.size(); i += BATCH_SIZE)
+		{
+			List<String> batch = identifiers.subList(i, Math.min(i + BATCH_SIZE, identifiers.size()));
+
+			context.select(GERMINATEBASE.ID, GERMINATEBASE.NAME, GERMINATEBASE.DISPLAY_NAME)
+				   .from(GERMINATEBASE)
+				   .where(GERMINATEBASE.NAME.in(batch))
+				   .or(GERMINATEBASE.DISPLAY_NAME.in(batch))
+				   .forEach(g -> add(g.get(GERMINATEBASE.ID), g.get(GERMINATEBASE.NAME), g.get(GERMINATEBASE.DISPLAY_NAME)));
+
+			batch.forEach(identifier -> resolved.put(identifier, 0));
+		}
+	}
+
+	/**
+	 * Resolves a single identifier that wasn't known when this lookup was created.
+	 */
+	private void resolveLate(String identifier)
 	{
+		if (resolved == null || StringUtils.isEmpty(identifier) || resolved.containsKey(identifier))
+			return;
+
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
-			context.selectFrom(GERMINATEBASE)
-				   .forEach(g -> {
-					   germplasmToId.put(g.getName(), g.getId());
-					   if (!StringUtils.isEmpty(g.getDisplayName()))
-					   {
-						   Set<Integer> ids = displayNameToId.get(g.getDisplayName());
-
-						   if (ids == null)
-							   ids = new HashSet<>();
-
-						   ids.add(g.getId());
-
-						   displayNameToId.put(g.getDisplayName(), ids);
-					   }
-				   });
+			resolve(contexts.getContext(conn), Collections.singletonList(identifier));
 		}
 		catch (SQLException e)
 		{
@@ -43,34 +162,70 @@ public class GermplasmLookup
 		}
 	}
 
+	private void add(int id, String name, String displayName)
+	{
+		germplasmToId.put(name, id);
+		germplasmIds.set(id);
+
+		if (!StringUtils.isEmpty(displayName))
+		{
+			int existing = displayNameToId.get(displayName);
+
+			if (existing == NameIndex.MISSING)
+				displayNameToId.put(displayName, id);
+			else if (existing != id)
+				displayNameToId.put(displayName, AMBIGUOUS);
+		}
+	}
+
 	public boolean containsGermplasmId(Integer id)
 	{
-		return germplasmToId.containsKey(id);
+		if (id == null || id < 0)
+			return false;
+
+		if (!germplasmIds.get(id) && resolved != null)
+		{
+			try (Connection conn = Database.getConnection())
+			{
+				contexts.getContext(conn)
+						.select(GERMINATEBASE.ID, GERMINATEBASE.NAME, GERMINATEBASE.DISPLAY_NAME)
+						.from(GERMINATEBASE)
+						.where(GERMINATEBASE.ID.eq(id))
+						.forEach(g -> add(g.get(GERMINATEBASE.ID), g.get(GERMINATEBASE.NAME), g.get(GERMINATEBASE.DISPLAY_NAME)));
+			}
+			catch (SQLException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		return germplasmIds.get(id);
 	}
 
 	public Integer getGermplasmId(String germplasmName)
 	{
+		resolveLate(germplasmName);
+
 		// Check if a germplasm with this exact name as the identifier exists
-		Integer result = germplasmToId.get(germplasmName);
+		int result = germplasmToId.get(germplasmName);
 
-		if (result == null)
+		if (result == NameIndex.MISSING)
 		{
 			// If not, check the display names
-			Set<Integer> possibleIds = displayNameToId.get(germplasmName);
+			result = displayNameToId.get(germplasmName);
 
-			if (CollectionUtils.isEmpty(possibleIds))
+			if (result == NameIndex.MISSING)
 			{
 				// There is no germplasm with this display name, so no match found overall
 				throw new GermplasmNotFoundException(ImportStatus.GENERIC_INVALID_GERMPLASM);
 			}
-			else if (possibleIds.size() > 1)
+			else if (result == AMBIGUOUS)
 			{
 				// There is germplasm with this display name, but it's not unique, this is an issue
 				throw new GermplasmNotFoundException(ImportStatus.GENERIC_DISPLAY_NAME_USED_BUT_NOT_UNIQUE);
 			}
 
-			// Otherwise, just use the one single match based on display name
-			result = possibleIds.iterator().next();
+			// Otherwise, result is the one single match based on display name
 		}
 
 		// Return any result (which will exist at this point, otherwise we'd have thrown an exception
@@ -3,7 +3,7 @@ package jhi.germinate.server.util.importer;
 import jhi.germinate.server.Database;
 import jhi.germinate.server.database.codegen.tables.records.*;
 import jhi.germinate.server.database.pojo.ImportStatus;
-import jhi.germinate.server.util.importer.util.GermplasmNotFoundException;
+import jhi.germinate.server.util.importer.util.*;
 import org.dhatim.fastexcel.reader.*;
 import org.jooq.DSLContext;
 import org.jooq.tools.StringUtils;
@@ -16,14 +16,13 @@ import java.util.stream.Collectors;
 import static jhi.germinate.server.database.codegen.tables.Groupmembers.GROUPMEMBERS;
 import static jhi.germinate.server.database.codegen.tables.Groups.GROUPS;
 import static jhi.germinate.server.database.codegen.tables.Locations.LOCATIONS;
-import static jhi.germinate.server.database.codegen.tables.Markers.MARKERS;
 
 /**
  * @author Sebastian Raubach
  */
 public class GroupImporter extends AbstractExcelImporter
 {
-	private final Map<String, Integer> markerNameToId   = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private       NameIndex            markerNameToId   = new NameIndex();
 	private final Map<String, Integer> locationNameToId = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 
 	private final Set<Integer> markerIds    = new HashSet<>();
@@ -59,13 +58,12 @@ public class GroupImporter extends AbstractExcelImporter
 	@Override
 	protected void prepare()
 	{
-		germplasmLookup = new GermplasmLookup();
+		germplasmLookup = new GermplasmLookup(this::getContext, getSnapshotFolder());
 
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
-			context.selectFrom(MARKERS)
-				   .forEach(m -> markerNameToId.put(m.getMarkerName(), m.getId()));
+			DSLContext context = getContext(conn);
+			markerNameToId = IndexSnapshot.loadMarkers(context, getSnapshotFolder());
 
 			context.selectFrom(LOCATIONS)
 				   .forEach(l -> locationNameToId.put(l.getSiteName(), l.getId()));
@@ -329,7 +327,7 @@ public class GroupImporter extends AbstractExcelImporter
 							 locationIds.add(groupMember.getForeignId());
 							 break;
 						 case 2:
-							 groupMember.setForeignId(markerNameToId.get(identifier));
+							 groupMember.setForeignId(markerNameToId.getOrNull(identifier));
 							 markerIds.add(groupMember.getForeignId());
 							 break;
 						 case 3:
@@ -341,8 +339,7 @@ public class GroupImporter extends AbstractExcelImporter
 
 					 if (newGroupMembers.size() > 10000)
 					 {
-						 context.batchStore(newGroupMembers)
-								.execute();
+						 batchStore(context, newGroupMembers);
 						 newGroupMembers.clear();
 					 }
 				 }
@@ -351,8 +348,7 @@ public class GroupImporter extends AbstractExcelImporter
 
 		if (newGroupMembers.size() > 0)
 		{
-			context.batchStore(newGroupMembers)
-				   .execute();
+			batchStore(context, newGroupMembers);
 			newGroupMembers.clear();
 		}
 	}
@@ -362,7 +358,7 @@ public class GroupImporter extends AbstractExcelImporter
 	{
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			try
 			{
 				wb.getSheets()
@@ -5,7 +5,7 @@ import jhi.germinate.server.database.codegen.tables.pojos.ViewTableImages;
 import jhi.germinate.server.database.codegen.tables.records.*;
 import jhi.germinate.server.database.pojo.ImportStatus;
 import jhi.germinate.server.util.StringUtils;
-import jhi.germinate.server.util.importer.util.GermplasmNotFoundException;
+import jhi.germinate.server.util.importer.util.*;
 import org.dhatim.fastexcel.reader.*;
 import org.dhatim.fastexcel.reader.Row;
 import org.jooq.*;
@@ -63,11 +63,11 @@ public class ImageImporter extends AbstractImporter
 	@Override
 	protected void prepare()
 	{
-		germplasmLookup = new GermplasmLookup();
+		germplasmLookup = new GermplasmLookup(this::getContext, getSnapshotFolder());
 
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			context.selectFrom(PHENOTYPES).forEach(g -> traitNameToId.put(g.getName(), g.getId()));
 			context.selectFrom(IMAGETAGS).forEach(g -> tagToImageTagId.put(g.getTagName(), g.getId()));
 			context.selectFrom(IMAGETYPES).forEach(g -> imageTypeToId.put(g.getReferenceTable(), g.getId()));
@@ -315,7 +315,7 @@ public class ImageImporter extends AbstractImporter
 			{
 				try (Connection conn = Database.getConnection())
 				{
-					DSLContext context = Database.getContext(conn);
+					DSLContext context = getContext(conn);
 					templateUnzipped = Files.createTempFile("image-template", "xlsx");
 					Files.copy(template, templateUnzipped, StandardCopyOption.REPLACE_EXISTING);
 
@@ -471,7 +471,7 @@ public class ImageImporter extends AbstractImporter
 		// Create a backup copy of the uploaded file and link it to the newly created dataset.
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			FileresourcetypesRecord type = context.selectFrom(FILERESOURCETYPES).where(FILERESOURCETYPES.NAME.eq("Dataset resource")).and(FILERESOURCETYPES.DESCRIPTION.eq("Automatically created linked backups of uploaded data resources.")).fetchAny();
 
 			if (type == null)
@@ -505,8 +505,8 @@ public class ImageImporter extends AbstractImporter
 
 			importJobStats.setFileResourceId(fileRes.getId());
 
-			// Finally copy the file
-			Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			// Finally place the file, sharing its data with the upload where possible
+			FilePlacement.copy(source.toPath(), target.toPath());
 		}
 		catch (SQLException | IOException e)
 		{
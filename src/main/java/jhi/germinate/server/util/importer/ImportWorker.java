@@ -0,0 +1,300 @@
+package jhi.germinate.server.util.importer;
+
+import jhi.germinate.server.Database;
+import jhi.germinate.server.database.codegen.enums.*;
+import jhi.germinate.server.database.codegen.tables.pojos.DataImportJobs;
+import jhi.germinate.server.database.pojo.*;
+import org.jooq.DSLContext;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.*;
+
+import static jhi.germinate.server.database.codegen.tables.DataImportJobs.DATA_IMPORT_JOBS;
+
+/**
+ * Resident worker that polls <code>DATA_IMPORT_JOBS</code> for waiting jobs and runs them on a fixed number of threads. This avoids starting a
+ * new JVM and setting up the database for every single job. A job is claimed by switching its status from <code>waiting</code> to
+ * <code>running</code> in a single update, so several workers can poll the same database without running a job twice.
+ *
+ * @author Sebastian Raubach
+ */
+public class ImportWorker implements Runnable
+{
+	/** Number of waiting jobs to look at per poll */
+	private static final int      CANDIDATE_LIMIT     = 10;
+	/** Suffixes of the compressions {@link jhi.germinate.server.util.importer.util.CompressedInput} can read */
+	private static final String[] COMPRESSED_SUFFIXES = {".gz", ".zst", ".bz2"};
+
+	private final String[]        databaseArgs;
+	private final long            pollInterval;
+	private final ExecutorService executor;
+	private final Semaphore       freeSlots;
+	private final CountDownLatch  stopped = new CountDownLatch(1);
+	private final Object          monitor = new Object();
+
+	private volatile boolean running         = true;
+	private          boolean useShadowTables = false;
+
+	/**
+	 * @param databaseArgs The database server, name, port, username and password. The database has to be initialized already.
+	 * @param threads      The maximum number of jobs to run at the same time
+	 * @param pollInterval Milliseconds to wait before polling again if there were no waiting jobs
+	 */
+	public ImportWorker(String[] databaseArgs, int threads, long pollInterval)
+	{
+		this.databaseArgs = Arrays.copyOf(databaseArgs, databaseArgs.length);
+		this.pollInterval = pollInterval;
+		this.freeSlots = new Semaphore(threads);
+
+		AtomicInteger counter = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, r -> new Thread(r, "import-worker-" + counter.incrementAndGet()));
+	}
+
+	/**
+	 * Makes the jobs run by this worker stage their bulk data, see {@link AbstractImporter#setUseShadowTables(boolean)}.
+	 */
+	public void setUseShadowTables(boolean useShadowTables)
+	{
+		this.useShadowTables = useShadowTables;
+	}
+
+	@Override
+	public void run()
+	{
+		Logger.getLogger("").info("Import worker started, polling for waiting jobs every " + pollInterval + "ms");
+
+		try
+		{
+			while (running)
+			{
+				// Only claim a job once there's a thread to run it
+				freeSlots.acquire();
+
+				Integer jobId = null;
+
+				try
+				{
+					jobId = claimNextJob();
+				}
+				catch (SQLException e)
+				{
+					Logger.getLogger("").log(Level.WARNING, "Unable to poll for import jobs: " + e.getMessage(), e);
+				}
+
+				if (jobId == null)
+				{
+					freeSlots.release();
+
+					synchronized (monitor)
+					{
+						if (running)
+							monitor.wait(pollInterval);
+					}
+				}
+				else
+				{
+					int id = jobId;
+					executor.execute(() -> {
+						try
+						{
+							runJob(id);
+						}
+						finally
+						{
+							freeSlots.release();
+						}
+					});
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			// Let running jobs finish, but don't start any new ones
+			executor.shutdown();
+
+			try
+			{
+				while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+					Logger.getLogger("").info("Waiting for running import jobs to finish");
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+
+			stopped.countDown();
+			Logger.getLogger("").info("Import worker stopped");
+		}
+	}
+
+	/**
+	 * Stops polling for new jobs and waits for the running ones to finish.
+	 */
+	public void stop()
+	{
+		running = false;
+
+		synchronized (monitor)
+		{
+			monitor.notifyAll();
+		}
+
+		try
+		{
+			stopped.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return The id of the job this worker now owns or <code>null</code> if there are no waiting jobs
+	 */
+	private Integer claimNextJob()
+			throws SQLException
+	{
+		try (Connection conn = Database.getConnection())
+		{
+			DSLContext context = Database.getContext(conn);
+
+			List<Integer> candidates = context.select(DATA_IMPORT_JOBS.ID)
+											  .from(DATA_IMPORT_JOBS)
+											  .where(DATA_IMPORT_JOBS.STATUS.eq(DataImportJobsStatus.waiting))
+											  .orderBy(DATA_IMPORT_JOBS.CREATED_ON, DATA_IMPORT_JOBS.ID)
+											  .limit(CANDIDATE_LIMIT)
+											  .fetch(DATA_IMPORT_JOBS.ID);
+
+			for (Integer candidate : candidates)
+			{
+				// Another worker may have claimed it in the meantime, in which case nothing gets updated
+				int claimed = context.update(DATA_IMPORT_JOBS)
+									 .set(DATA_IMPORT_JOBS.STATUS, DataImportJobsStatus.running)
+									 .set(DATA_IMPORT_JOBS.UPDATED_ON, new Timestamp(System.currentTimeMillis()))
+									 .where(DATA_IMPORT_JOBS.ID.eq(candidate))
+									 .and(DATA_IMPORT_JOBS.STATUS.eq(DataImportJobsStatus.waiting))
+									 .execute();
+
+				if (claimed == 1)
+					return candidate;
+			}
+		}
+
+		return null;
+	}
+
+	private void runJob(int jobId)
+	{
+		Logger.getLogger("").info("Running import job " + jobId);
+
+		try
+		{
+			DataImportJobs job;
+
+			try (Connection conn = Database.getConnection())
+			{
+				job = Database.getContext(conn).selectFrom(DATA_IMPORT_JOBS).where(DATA_IMPORT_JOBS.ID.eq(jobId)).fetchAnyInto(DataImportJobs.class);
+			}
+
+			Class<? extends AbstractImporter> clazz = getImporterClass(job);
+
+			if (clazz == null)
+			{
+				markFailed(jobId, "No importer available for data type: " + job.getDatatype());
+				return;
+			}
+
+			AbstractImporter importer = clazz.getConstructor(Integer.class).newInstance(jobId);
+			importer.setUseShadowTables(useShadowTables);
+			// Claimed by claimNextJob() already
+			importer.setJobClaimed(true);
+			importer.initJob(databaseArgs);
+			importer.run();
+		}
+		catch (Exception e)
+		{
+			Logger.getLogger("").log(Level.SEVERE, "Import job " + jobId + " failed: " + e.getMessage(), e);
+			markFailed(jobId, e.getMessage());
+		}
+	}
+
+	private void markFailed(int jobId, String message)
+	{
+		try (Connection conn = Database.getConnection())
+		{
+			Database.getContext(conn)
+					.update(DATA_IMPORT_JOBS)
+					.set(DATA_IMPORT_JOBS.STATUS, DataImportJobsStatus.failed)
+					.set(DATA_IMPORT_JOBS.FEEDBACK, new ImportResult[]{new ImportResult(ImportStatus.GENERIC_IO_ERROR, -1, message)})
+					.where(DATA_IMPORT_JOBS.ID.eq(jobId))
+					.execute();
+		}
+		catch (SQLException e)
+		{
+			Logger.getLogger("").log(Level.SEVERE, "Unable to mark import job " + jobId + " as failed: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Picks the importer for the job's data type. Genotype files are told apart by their extension and Excel genotype files by their orientation.
+	 *
+	 * @return The importer class or <code>null</code> if there isn't one for the data type
+	 */
+	static Class<? extends AbstractImporter> getImporterClass(DataImportJobs job)
+	{
+		if (job == null || job.getDatatype() == null)
+			return null;
+
+		return switch (job.getDatatype())
+		{
+			case mcpd -> McpdImporter.class;
+			case trial -> TraitDataImporter.class;
+			case pedigree -> PedigreeImporter.class;
+			case groups -> GroupImporter.class;
+			case climate -> ClimateDataImporter.class;
+			case images -> ImageImporter.class;
+			case shapefile -> ShapefileImporter.class;
+			case geotiff -> GeotiffImporter.class;
+			case genotype -> getGenotypeImporterClass(job);
+			default -> null;
+		};
+	}
+
+	private static Class<? extends AbstractImporter> getGenotypeImporterClass(DataImportJobs job)
+	{
+		// The stored data file only keeps the last extension, so prefer the original name (e.g. ".vcf.gz")
+		String filename = job.getOriginalFilename();
+		if (filename == null)
+			filename = job.getJobConfig().getDataFilename();
+		filename = filename.toLowerCase(Locale.ROOT);
+
+		// Compressed flat files are read as they are, so go by the extension underneath
+		for (String suffix : COMPRESSED_SUFFIXES)
+		{
+			if (filename.endsWith(suffix))
+			{
+				filename = filename.substring(0, filename.length() - suffix.length());
+				break;
+			}
+		}
+
+		if (filename.endsWith(".xlsx"))
+			return job.getJobConfig().getDataOrientation() == DataOrientation.GENOTYPE_MARKER_BY_GERMPLASM ? GenotypeExcelTransposedImporter.class : GenotypeExcelImporter.class;
+		else if (filename.endsWith(".hapmap") || filename.endsWith(".hmp") || filename.endsWith(".hmp.txt"))
+			return GenotypeHapmapImporter.class;
+		else if (filename.endsWith(".vcf"))
+			return GenotypeVcfImporter.class;
+		else if (filename.endsWith(".zip"))
+			return GenotypePlinkImporter.class;
+		else
+			return GenotypeFlatFileImporter.class;
+	}
+}
@@ -5,16 +5,18 @@ import jhi.germinate.server.database.codegen.enums.*;
 import jhi.germinate.server.database.codegen.tables.records.*;
 import jhi.germinate.server.database.pojo.*;
 import jhi.germinate.server.util.*;
+import jhi.germinate.server.util.importer.util.*;
 import org.dhatim.fastexcel.reader.*;
 import org.dhatim.fastexcel.reader.Row;
 import org.jooq.*;
+import org.jooq.impl.DSL;
 
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.*;
 import java.sql.Date;
 import java.util.*;
-import java.util.function.Function;
+import java.util.function.*;
 import java.util.stream.*;
 
 import static jhi.germinate.server.database.codegen.tables.Attributedata.ATTRIBUTEDATA;
@@ -47,20 +49,21 @@ public class McpdImporter extends AbstractExcelImporter
 	private static final String[] COLUMN_HEADERS = {"PUID", "INSTCODE", "ACCENUMB", "COLLNUMB", "COLLCODE", "COLLNAME", "COLLINSTADDRESS", "COLLMISSID", "GENUS", "SPECIES", "SPAUTHOR", "SUBTAXA", "SUBTAUTHOR", "CROPNAME", "ACCENAME", "ACQDATE", "ORIGCTY", "COLLSITE", "DECLATITUDE", "LATITUDE", "DECLONGITUDE", "LONGITUDE", "COORDUNCERT", "COORDDATUM", "GEOREFMETH", "ELEVATION", "COLLDATE", "BREDCODE", "BREDNAME", "SAMPSTAT", "ANCEST", "COLLSRC", "DONORCODE", "DONORNAME", "DONORNUMB", "OTHERNUMB", "DUPLSITE", "DUPLINSTNAME", "STORAGE", "MLSSTAT", "REMARKS"};
 
 	private       Map<String, Integer>              columnNameToIndex;
-	private final Set<String>                       foundAccenumb   = new HashSet<>();
-	private final Set<Integer>                      newGermplasm    = new HashSet<>();
-	private final List<Integer>                     attributeIds    = new ArrayList<>();
-	private final Map<String, Integer>              gidToId         = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-	private final Map<String, Integer>              countryCodeToId = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-	private final Map<String, Integer>              attributeToId   = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-	private final Map<String, Integer>              accenumbToId    = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-	private final Map<String, Integer>              entityTypeToId  = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private final Set<String>                       foundAccenumb    = new HashSet<>();
+	private final Set<Integer>                      newGermplasm     = new HashSet<>();
+	private final List<Integer>                     attributeIds     = new ArrayList<>();
+	private final Map<String, Integer>              gidToId          = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private final Map<String, Integer>              countryCodeToId  = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private final Map<String, Integer>              attributeToId    = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private final NameIndex                         accenumbToId     = new NameIndex();
+	private final Map<String, Integer>              entityTypeToId   = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 	private       Map<Integer, GerminatebaseRecord> germinatebaseRecords;
 	private       Map<Integer, McpdRecord>          mcpdRecords;
 	private       Map<Integer, LocationsRecord>     locationRecords;
 	private       List<Integer>                     validCollsrc;
 	private       List<Integer>                     validSampstat;
 	private       List<Integer>                     validMlsStatus;
+	private       int                               resumedGermplasm = 0;
 
 	private Map<String, InstitutionsRecord> institutionCodes = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 
@@ -98,7 +101,7 @@ public class McpdImporter extends AbstractExcelImporter
 	{
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			context.selectFrom(GERMINATEBASE).forEach(g -> gidToId.put(g.getGeneralIdentifier(), g.getId()));
 
 			context.selectFrom(COUNTRIES).forEach(c -> countryCodeToId.put(c.getCountryCode3(), c.getId()));
@@ -113,7 +116,7 @@ public class McpdImporter extends AbstractExcelImporter
 
 			context.selectFrom(ATTRIBUTES).forEach(a -> attributeToId.put(a.getName(), a.getId()));
 
-			context.selectFrom(GERMINATEBASE).forEach(g -> accenumbToId.put(g.getName(), g.getId()));
+			context.select(GERMINATEBASE.ID, GERMINATEBASE.NAME).from(GERMINATEBASE).forEach(g -> accenumbToId.put(g.get(GERMINATEBASE.NAME), g.get(GERMINATEBASE.ID)));
 
 			germinatebaseRecords = context.selectFrom(GERMINATEBASE).fetchMap(GERMINATEBASE.ID);
 
@@ -138,10 +141,27 @@ public class McpdImporter extends AbstractExcelImporter
 				{
 					// Map headers to their index
 					s.openStream().findFirst().ifPresent(this::getHeaderMapping);
-					// Check the sheet
-					s.openStream().skip(1).forEachOrdered(this::check);
-					// Check the entity parent for each row
-					s.openStream().skip(1).forEachOrdered(this::checkEntityParent);
+					// Check the sheet, staging its rows for the import
+					startStaging(s.getName());
+					s.openStream().skip(1).forEachOrdered(r -> {
+						check(r);
+						stage(s.getName(), r);
+					});
+					finishStaging(s.getName());
+					// Check the entity parent for each row, now that all accenumbs are known. Use the staged rows if there are any.
+					try (StagedRow.Reader staged = replay(s.getName()))
+					{
+						if (staged != null)
+						{
+							StagedRow r;
+							while ((r = staged.next()) != null)
+								checkEntityParent(r);
+						}
+						else
+						{
+							s.openStream().skip(1).filter(r -> !allCellsEmpty(r)).map(this::toStagedRow).forEachOrdered(this::checkEntityParent);
+						}
+					}
 				}
 				catch (IOException e)
 				{
@@ -198,7 +218,7 @@ public class McpdImporter extends AbstractExcelImporter
 		}
 	}
 
-	private void checkEntityParent(Row r)
+	private void checkEntityParent(StagedRow r)
 	{
 		try
 		{
@@ -219,6 +239,8 @@ public class McpdImporter extends AbstractExcelImporter
 	{
 		if (allCellsEmpty(r)) return;
 
+		getProgress().addRows(1);
+
 		// Check the accenumb isn't a duplicate
 		boolean alreadyFoundInFile = false;
 		String accenumb = getCellValue(r, columnNameToIndex, McpdField.ACCENUMB.name());
@@ -428,7 +450,7 @@ public class McpdImporter extends AbstractExcelImporter
 	{
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 
 			context.selectFrom(INSTITUTIONS).where(INSTITUTIONS.CODE.isNotNull()).forEach(i -> {
 				institutionCodes.put(i.getCode(), i);
@@ -438,21 +460,7 @@ public class McpdImporter extends AbstractExcelImporter
 			wb.getSheets().filter(s -> Objects.equals(s.getName(), "DATA")).findFirst().ifPresent(s -> {
 				try
 				{
-					// Map headers to their index
-					s.openStream().findFirst().ifPresent(this::getHeaderMapping);
-					// Import the sheet
-					s.openStream().skip(1).forEachOrdered(r -> insert(context, r, false));
-				}
-				catch (IOException e)
-				{
-					addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
-				}
-
-				// Set entity parents
-				try
-				{
-					// Import the sheet
-					s.openStream().skip(1).filter(r -> getCellValue(r, columnNameToIndex, "Entity parent ACCENUMB") != null).forEachOrdered(r -> setEntityParent(context, r));
+					importData(context, s, false);
 				}
 				catch (IOException e)
 				{
@@ -485,25 +493,11 @@ public class McpdImporter extends AbstractExcelImporter
 	{
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			wb.getSheets().filter(s -> Objects.equals(s.getName(), "DATA")).findFirst().ifPresent(s -> {
 				try
 				{
-					// Map headers to their index
-					s.openStream().findFirst().ifPresent(this::getHeaderMapping);
-					// Update the sheet
-					s.openStream().skip(1).forEachOrdered(r -> insert(context, r, true));
-				}
-				catch (IOException e)
-				{
-					addImportResult(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
-				}
-
-				// Set entity parents
-				try
-				{
-					// Import the sheet
-					s.openStream().skip(1).filter(r -> getCellValue(r, columnNameToIndex, "Entity parent ACCENUMB") != null).forEachOrdered(r -> setEntityParent(context, r));
+					importData(context, s, true);
 				}
 				catch (IOException e)
 				{
@@ -531,12 +525,62 @@ public class McpdImporter extends AbstractExcelImporter
 		}
 	}
 
+	private void importData(DSLContext context, Sheet s, boolean isUpdate)
+			throws IOException
+	{
+		// When resuming, the rows up to the checkpoint have been imported by an earlier run of this job
+		int resumeAfter = getCheckpoint().getPosition(s.getName());
+		resumedGermplasm = getCheckpoint().getCreated("germplasm");
+
+		// Only write checkpoints if that's possible at all
+		saveCheckpoint();
+
+		List<StagedRow> children = new ArrayList<>();
+		Consumer<StagedRow> insert = r -> {
+			if (r.getRowNum() > resumeAfter)
+			{
+				// Commit each row as a whole, so a resumed import never finds one half imported
+				context.transaction(configuration -> insert(DSL.using(configuration), r, isUpdate));
+
+				// A row committed just before the import died may be imported again, which is harmless, as every write is a get-or-create
+				getCheckpoint().setCreated("germplasm", resumedGermplasm + newGermplasm.size());
+				checkpoint(s.getName(), r.getRowNum());
+			}
+
+			// Remember the rows with an entity parent, the parents are set once all germplasm exists
+			if (getCellValue(r, columnNameToIndex, "Entity parent ACCENUMB") != null)
+				children.add(r);
+		};
+
+		// Replay the rows staged during the check, only parse the sheet again if there aren't any
+		try (StagedRow.Reader staged = replay(s.getName()))
+		{
+			if (staged != null)
+			{
+				StagedRow r;
+				while ((r = staged.next()) != null)
+					insert.accept(r);
+			}
+			else
+			{
+				// Map headers to their index
+				s.openStream().findFirst().ifPresent(this::getHeaderMapping);
+				s.openStream().skip(1).filter(r -> !allCellsEmpty(r)).map(this::toStagedRow).forEachOrdered(insert);
+			}
+		}
+
+		saveCheckpoint();
+
+		// Set entity parents. This, like the attributes, is safe to repeat, so it's simply done again when resuming.
+		children.forEach(r -> setEntityParent(context, r));
+	}
+
 	private void updateAttributeData(DSLContext context, Row r)
 	{
 		if (allCellsEmpty(r)) return;
 
 		String accenumb = getCellValue(r.getCell(0));
-		Integer germplasmId = accenumbToId.get(accenumb);
+		Integer germplasmId = accenumbToId.getOrNull(accenumb);
 
 		r.stream().skip(1).forEachOrdered(c -> {
 			String value = getCellValue(c);
@@ -572,7 +616,7 @@ public class McpdImporter extends AbstractExcelImporter
 		if (allCellsEmpty(r)) return;
 
 		String accenumb = getCellValue(r, 0);
-		Integer germplasmId = accenumbToId.get(accenumb);
+		Integer germplasmId = accenumbToId.getOrNull(accenumb);
 
 		// Get all the attribute data for this germplasm
 		Set<String> existingData = new HashSet<>();
@@ -630,10 +674,10 @@ public class McpdImporter extends AbstractExcelImporter
 		});
 	}
 
-	private void setEntityParent(DSLContext context, Row r)
+	private void setEntityParent(DSLContext context, StagedRow r)
 	{
-		Integer parentId = accenumbToId.get(getCellValue(r, columnNameToIndex, "Entity parent ACCENUMB"));
-		Integer childId = accenumbToId.get(getCellValue(r, columnNameToIndex, McpdField.ACCENUMB.name()));
+		Integer parentId = accenumbToId.getOrNull(getCellValue(r, columnNameToIndex, "Entity parent ACCENUMB"));
+		Integer childId = accenumbToId.getOrNull(getCellValue(r, columnNameToIndex, McpdField.ACCENUMB.name()));
 
 		GerminatebaseRecord parent = germinatebaseRecords.get(parentId);
 		GerminatebaseRecord child = germinatebaseRecords.get(childId);
@@ -651,9 +695,9 @@ public class McpdImporter extends AbstractExcelImporter
 		}
 	}
 
-	private void insert(DSLContext context, Row r, boolean isUpdate)
+	private void insert(DSLContext context, StagedRow r, boolean isUpdate)
 	{
-		if (allCellsEmpty(r)) return;
+		getProgress().addRows(1);
 
 		Germplasm insert = parseMcpd(r);
 
@@ -858,9 +902,11 @@ public class McpdImporter extends AbstractExcelImporter
 			newGermplasm.add(germinatebase.getId());
 			germinatebaseRecords.put(germinatebase.getId(), germinatebase);
 			accenumbToId.put(germinatebase.getName(), germinatebase.getId());
-			germplasm.germinatebase = germinatebase;
 		}
 
+		// Everything else refers to the stored record, whether it's new or not
+		germplasm.germinatebase = germinatebase;
+
 		McpdRecord mcpd = context.selectFrom(MCPD).where(MCPD.GERMINATEBASE_ID.isNotDistinctFrom(germinatebase.getId())).and(MCPD.ACCENAME.isNotDistinctFrom(germplasm.mcpd.getAccename())).and(MCPD.ACCENUMB.isNotDistinctFrom(germplasm.mcpd.getAccenumb())).and(MCPD.ACQDATE.isNotDistinctFrom(germplasm.mcpd.getAcqdate())).and(MCPD.BREDCODE.isNotDistinctFrom(germplasm.mcpd.getBredcode())).and(MCPD.BREDNAME.isNotDistinctFrom(germplasm.mcpd.getBredname())).and(MCPD.COLLDATE.isNotDistinctFrom(germplasm.mcpd.getColldate())).and(MCPD.COLLMISSID.isNotDistinctFrom(germplasm.mcpd.getCollmissid())).and(MCPD.COLLNAME.isNotDistinctFrom(germplasm.mcpd.getCollname())).and(MCPD.COLLNUMB.isNotDistinctFrom(germplasm.mcpd.getCollnumb())).and(MCPD.COLLSRC.isNotDistinctFrom(germplasm.mcpd.getCollsrc())).and(MCPD.DONORCODE.isNotDistinctFrom(germplasm.mcpd.getDonorcode())).and(MCPD.DONORNAME.isNotDistinctFrom(germplasm.mcpd.getDonorname())).and(MCPD.DONORNUMB.isNotDistinctFrom(germplasm.mcpd.getDonornumb())).and(MCPD.DUPLINSTNAME.isNotDistinctFrom(germplasm.mcpd.getDuplinstname())).and(MCPD.DUPLSITE.isNotDistinctFrom(germplasm.mcpd.getDuplsite())).and(MCPD.MLSSTAT.isNotDistinctFrom(germplasm.mcpd.getMlsstat())).and(MCPD.OTHERNUMB.isNotDistinctFrom(germplasm.mcpd.getOthernumb())).and(MCPD.PUID.isNotDistinctFrom(germplasm.mcpd.getPuid())).and(MCPD.SAMPSTAT.isNotDistinctFrom(germplasm.mcpd.getSampstat())).fetchAny();
 
 		if (mcpd == null)
@@ -868,8 +914,9 @@ public class McpdImporter extends AbstractExcelImporter
 			mcpd = context.newRecord(MCPD, germplasm.mcpd);
 			mcpd.setGerminatebaseId(germinatebase.getId());
 			mcpd.store();
-			germplasm.mcpd = mcpd;
 		}
+
+		germplasm.mcpd = mcpd;
 	}
 
 	private TaxonomiesRecord getOrCreateTaxonomy(DSLContext context, TaxonomiesRecord taxonomy)
@@ -1038,7 +1085,7 @@ public class McpdImporter extends AbstractExcelImporter
 		return context.selectFrom(COUNTRIES).where(COUNTRIES.COUNTRY_CODE3.isNotDistinctFrom(country.getCountryCode3())).fetchAnyInto(CountriesRecord.class);
 	}
 
-	private Germplasm parseMcpd(Row r)
+	private Germplasm parseMcpd(StagedRow r)
 	{
 		Germplasm germplasm = new Germplasm();
 
@@ -1186,7 +1233,7 @@ public class McpdImporter extends AbstractExcelImporter
 	{
 		super.postImport();
 
-		importJobStats.setGermplasm(newGermplasm.size());
+		importJobStats.setGermplasm(resumedGermplasm + newGermplasm.size());
 	}
 
 	private static class Germplasm
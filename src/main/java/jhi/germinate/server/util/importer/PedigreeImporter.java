@@ -67,11 +67,11 @@ public class PedigreeImporter extends DatasheetImporter
 	{
 		super.prepare();
 
-		germplasmLookup = new GermplasmLookup();
+		germplasmLookup = new GermplasmLookup(this::getContext, getSnapshotFolder());
 
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			Field<String> concat = PEDIGREEDESCRIPTIONS.NAME.concat("|").concat(DSL.coalesce(PEDIGREEDESCRIPTIONS.AUTHOR, "null"));
 			pedigreeDescriptionToId = context.select(concat, PEDIGREEDESCRIPTIONS.ID).from(PEDIGREEDESCRIPTIONS).fetchMap(concat, PEDIGREEDESCRIPTIONS.ID);
 
@@ -257,7 +257,7 @@ public class PedigreeImporter extends DatasheetImporter
 		wb.findSheet("DATA").ifPresent(s -> {
 			try (Connection conn = Database.getConnection())
 			{
-				DSLContext context = Database.getContext(conn);
+				DSLContext context = getContext(conn);
 				s.openStream().skip(1).forEachOrdered(r -> {
 					if (allCellsEmpty(r)) return;
 
@@ -325,7 +325,7 @@ public class PedigreeImporter extends DatasheetImporter
 		wb.findSheet("DATA-STRING").ifPresent(s -> {
 			try (Connection conn = Database.getConnection())
 			{
-				DSLContext context = Database.getContext(conn);
+				DSLContext context = getContext(conn);
 				s.openStream().skip(1).forEachOrdered(r -> {
 					if (allCellsEmpty(r)) return;
 
@@ -4,6 +4,7 @@ import jhi.germinate.server.Database;
 import jhi.germinate.server.database.codegen.tables.records.*;
 import jhi.germinate.server.database.pojo.*;
 import jhi.germinate.server.util.*;
+import jhi.germinate.server.util.importer.util.FilePlacement;
 import org.geotools.data.*;
 import org.geotools.feature.*;
 import org.jooq.DSLContext;
@@ -49,7 +50,7 @@ public class ShapefileImporter extends AbstractImporter
 	{
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 
 			context.select(GERMINATEBASE.NAME, GERMINATEBASE.ID, TRIALSETUP.TRIAL_ROW, TRIALSETUP.TRIAL_COLUMN)
 				   .from(TRIALSETUP)
@@ -219,7 +220,7 @@ public class ShapefileImporter extends AbstractImporter
 		// Create a backup copy of the uploaded file and link it to the newly created dataset.
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			FileresourcetypesRecord type = context.selectFrom(FILERESOURCETYPES)
 												  .where(FILERESOURCETYPES.NAME.eq("Trials Shapefile"))
 												  .and(FILERESOURCETYPES.DESCRIPTION.eq("Shape file associated with a phenotypic trial. Fields within the shape file have to match the database entries."))
@@ -256,8 +257,8 @@ public class ShapefileImporter extends AbstractImporter
 
 			importJobStats.setFileResourceId(fileRes.getId());
 
-			// Finally copy the file
-			Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			// Finally place the file, sharing its data with the upload where possible
+			FilePlacement.copy(source.toPath(), target.toPath());
 
 			DatasetfileresourcesRecord dsf = context.newRecord(DATASETFILERESOURCES);
 			dsf.setDatasetId(jobDetails.getJobConfig().getTargetDatasetId());
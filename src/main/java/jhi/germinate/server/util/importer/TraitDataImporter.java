@@ -11,6 +11,7 @@ import jhi.germinate.server.util.importer.util.GermplasmNotFoundException;
 import org.dhatim.fastexcel.reader.*;
 import org.dhatim.fastexcel.reader.Row;
 import org.jooq.*;
+import org.jooq.impl.DSL;
 
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -18,6 +19,7 @@ import java.sql.*;
 import java.sql.Date;
 import java.util.*;
 import java.util.function.Function;
+import java.util.logging.Logger;
 import java.util.stream.*;
 
 import static jhi.germinate.server.database.codegen.tables.Phenotypedata.PHENOTYPEDATA;
@@ -57,7 +59,9 @@ public class TraitDataImporter extends DatasheetImporter
 
 	private GermplasmLookup germplasmLookup;
 
-	private int traitColumnStartIndex = 10;
+	private int     traitColumnStartIndex = 10;
+	/** Whether this import continues the dataset of an earlier run of the job */
+	private boolean resumed               = false;
 
 	public static void main(String[] args)
 			throws SQLException, IOException
@@ -80,11 +84,9 @@ public class TraitDataImporter extends DatasheetImporter
 	{
 		super.prepare();
 
-		germplasmLookup = new GermplasmLookup();
-
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
 			context.selectFrom(PHENOTYPES)
 				   .forEach(p -> traitNameToId.put(p.getName(), p.getId()));
 
@@ -189,6 +191,9 @@ public class TraitDataImporter extends DatasheetImporter
 			data.openStream()
 				.findFirst()
 				.ifPresent(this::checkTraitNames);
+
+			initGermplasmLookup(data, dates);
+
 			// Check germplasm names in data sheet against the database
 			data.openStream()
 				.skip(1)
@@ -279,6 +284,31 @@ public class TraitDataImporter extends DatasheetImporter
 		}
 	}
 
+	/**
+	 * Creates the germplasm lookup from the identifiers in the first column of the given sheets, so that only those have to be resolved.
+	 */
+	private void initGermplasmLookup(Sheet... sheets)
+			throws IOException
+	{
+		if (germplasmLookup != null)
+			return;
+
+		List<String> germplasm = new ArrayList<>();
+
+		for (Sheet s : sheets)
+		{
+			if (s == null)
+				continue;
+
+			s.openStream()
+			 .skip(1)
+			 .filter(r -> !allCellsEmpty(r))
+			 .forEachOrdered(r -> germplasm.add(getCellValue(r, 0)));
+		}
+
+		germplasmLookup = new GermplasmLookup(this::getContext, getSnapshotFolder(), germplasm);
+	}
+
 	private void checkRowColumn(Row r)
 	{
 		if (allCellsEmpty(r))
@@ -641,6 +671,8 @@ public class TraitDataImporter extends DatasheetImporter
 				s.openStream()
 				 .skip(1)
 				 .forEachOrdered(r -> {
+					 getProgress().addRows(1);
+
 					 for (int i = this.traitColumnStartIndex; i < r.getPhysicalCellCount(); i++)
 					 {
 						 String cellValue = getCellValue(r, i);
@@ -789,7 +821,19 @@ public class TraitDataImporter extends DatasheetImporter
 
 		try (Connection conn = Database.getConnection())
 		{
-			DSLContext context = Database.getContext(conn);
+			DSLContext context = getContext(conn);
+
+			// Remember the dataset, so a resumed import adds to it instead of creating another one
+			resumed = dataset != null && Objects.equals(getCheckpoint().getId("dataset"), dataset.getId());
+
+			if (dataset != null && !resumed && !hasImportError())
+			{
+				getCheckpoint().setId("dataset", dataset.getId());
+				getCheckpoint().setId("phenotypedata", getLastDataId(context));
+				getCheckpoint().setPosition("DATA", -1);
+				saveCheckpoint();
+			}
+
 			wb.findSheet("PHENOTYPES")
 			  .ifPresent(s -> {
 				  try
@@ -1155,6 +1199,8 @@ public class TraitDataImporter extends DatasheetImporter
 				.findFirst()
 				.ifPresent(this::checkPredefinedHeaders);
 
+			initGermplasmLookup(data);
+
 			List<Row> dataRows = data.read();
 			List<Row> datesRows = null;
 
@@ -1169,6 +1215,15 @@ public class TraitDataImporter extends DatasheetImporter
 			Map<Integer, Integer> rowToTrialsetupId = new HashMap<>();
 			Map<String, TrialsetupRecord> existingTrialsetups = new HashMap<>();
 
+			// When resuming, the trial setups and the data up to the checkpoint have been imported by an earlier run of this job
+			int resumeAfter = getCheckpoint().getPosition(data.getName());
+
+			if (resumed)
+				resumeData(context, existingTrialsetups);
+
+			// Staged data is dropped when the import dies, so only data written to the live table can be resumed
+			boolean checkpointed = !getShadowTables().isStaged(PHENOTYPEDATA);
+
 			for (int r = 1; r < dataRows.size(); r++)
 			{
 				Row dataRow = dataRows.get(r);
@@ -1176,6 +1231,8 @@ public class TraitDataImporter extends DatasheetImporter
 				if (allCellsEmpty(dataRow))
 					continue;
 
+				getProgress().addRows(1);
+
 				String germplasmName = getCellValue(dataRow, dataColumnNameToIndex, "Line/Phenotype");
 				String rep = getCellValue(dataRow, dataColumnNameToIndex, "Rep");
 				String block = getCellValue(dataRow, dataColumnNameToIndex, "Block");
@@ -1198,7 +1255,8 @@ public class TraitDataImporter extends DatasheetImporter
 				if (!StringUtils.isEmpty(treatmentName))
 					treatmentId = treatmentToId.get(treatmentName);
 
-				String id = germplasmId + "|" + row + "|" + column + "|" + rep + "|" + treatmentId + "|" + locationName;
+				Integer locationId = StringUtils.isEmpty(locationName) ? null : this.locationNameToId.get(locationName);
+				String id = getTrialsetupKey(germplasmId, row, column, rep, treatmentId, locationId);
 
 				TrialsetupRecord ts = existingTrialsetups.get(id);
 
@@ -1215,8 +1273,7 @@ public class TraitDataImporter extends DatasheetImporter
 					ts.setElevation(elevation);
 					ts.setTreatmentId(treatmentId);
 					ts.setDatasetId(dataset.getId());
-					if (!StringUtils.isEmpty(locationName))
-						ts.setLocationId(this.locationNameToId.get(locationName));
+					ts.setLocationId(locationId);
 
 					ts.store();
 				}
@@ -1233,7 +1290,7 @@ public class TraitDataImporter extends DatasheetImporter
 				Row dataRow = dataRows.get(r);
 				Row datesRow = (datesRows == null || r > datesRows.size() - 1) ? null : datesRows.get(r);
 
-				if (allCellsEmpty(dataRow))
+				if (allCellsEmpty(dataRow) || r <= resumeAfter)
 					continue;
 
 				for (int c = this.traitColumnStartIndex; c < dataRow.getCellCount(); c++)
@@ -1262,7 +1319,7 @@ public class TraitDataImporter extends DatasheetImporter
 						Date dateValue = getCellValueDate(dataRow, c);
 
 						if (dateValue != null)
-							value = SDF_FULL_DASH.format(dateValue);
+							value = dateValue.toLocalDate().toString();
 					}
 
 					// See if we can match the value to its actual trait category restriction equivalent. This is used to map e.g. "2.0" to "2".
@@ -1302,22 +1359,18 @@ public class TraitDataImporter extends DatasheetImporter
 						record.setRecordingDate(new Timestamp(date.getTime()));
 
 					newData.add(record);
-
-					if (newData.size() >= 10000)
-					{
-						context.batchStore(newData)
-							   .execute();
-						newData.clear();
-					}
 				}
 
-				if (!newData.isEmpty())
+				// Only store whole rows, so the checkpoint after them is exact
+				if (newData.size() >= 10000)
 				{
-					context.batchStore(newData)
-						   .execute();
+					storeData(context, newData, data.getName(), r, checkpointed);
 					newData.clear();
 				}
 			}
+
+			if (!newData.isEmpty())
+				storeData(context, newData, data.getName(), dataRows.size() - 1, checkpointed);
 		}
 		catch (IOException e)
 		{
@@ -1325,6 +1378,51 @@ public class TraitDataImporter extends DatasheetImporter
 		}
 	}
 
+	private static String getTrialsetupKey(Integer germplasmId, Short row, Short column, String rep, Integer treatmentId, Integer locationId)
+	{
+		return germplasmId + "|" + row + "|" + column + "|" + rep + "|" + treatmentId + "|" + locationId;
+	}
+
+	/**
+	 * Picks up where the run this one resumes left off. Its trial setups are used again, and any data it stored after its last checkpoint is
+	 * removed, as the rows it belongs to are imported again.
+	 */
+	private void resumeData(DSLContext context, Map<String, TrialsetupRecord> existingTrialsetups)
+	{
+		context.selectFrom(TRIALSETUP)
+			   .where(TRIALSETUP.DATASET_ID.eq(dataset.getId()))
+			   .forEach(ts -> existingTrialsetups.put(getTrialsetupKey(ts.getGerminatebaseId(), ts.getTrialRow(), ts.getTrialColumn(), ts.getRep(), ts.getTreatmentId(), ts.getLocationId()), ts));
+
+		int deleted = context.deleteFrom(PHENOTYPEDATA)
+							 .where(PHENOTYPEDATA.ID.gt(getCheckpoint().getId("phenotypedata")))
+							 .and(PHENOTYPEDATA.TRIALSETUP_ID.in(DSL.select(TRIALSETUP.ID).from(TRIALSETUP).where(TRIALSETUP.DATASET_ID.eq(dataset.getId()))))
+							 .execute();
+
+		Logger.getLogger("").info("Resuming with " + existingTrialsetups.size() + " trial setups, removed " + deleted + " data points stored after the checkpoint");
+	}
+
+	/**
+	 * Stores the data of the rows up to the given one and records a checkpoint after them. The checkpoint holds the highest data id at that point,
+	 * ids only ever increase, so everything a resumed import finds above it has been stored after the checkpoint.
+	 */
+	private void storeData(DSLContext context, List<PhenotypedataRecord> newData, String sheet, int row, boolean checkpointed)
+	{
+		batchStore(context, newData);
+
+		if (checkpointed)
+		{
+			getCheckpoint().setId("phenotypedata", getLastDataId(context));
+			checkpoint(sheet, row);
+		}
+	}
+
+	private static int getLastDataId(DSLContext context)
+	{
+		Integer id = context.select(DSL.max(PHENOTYPEDATA.ID)).from(PHENOTYPEDATA).fetchOne(0, Integer.class);
+
+		return id == null ? 0 : id;
+	}
+
 	@Override
 	protected void updateFile(ReadableWorkbook wb)
 	{
@@ -52,6 +52,18 @@ public abstract class AbstractImporterCommand implements Callable<Integer>
 	)
 	protected String databasePassword;
 
+	@CommandLine.Option(
+			names = {"-st", "--shadow-tables"},
+			description = "Load the phenotype data, dataset members and map definitions into staging tables and only publish them into the live tables once the import has succeeded"
+	)
+	protected boolean shadowTables;
+
+	@CommandLine.Option(
+			names = {"-fi", "--force-import"},
+			description = "Import the file even if the same file has already been imported into the same target"
+	)
+	protected boolean forceImport;
+
 	@CommandLine.ArgGroup(multiplicity = "1")
 	Args args;
 
@@ -79,6 +91,12 @@ public abstract class AbstractImporterCommand implements Callable<Integer>
 				description = "The id of the Germinate data import job."
 		)
 		protected Integer jobId;
+
+		@CommandLine.Option(
+				names = {"-r", "--resume"},
+				description = "Continue an import that died part way through from its last checkpoint instead of starting over. Currently supported for MCPD and trial imports."
+		)
+		protected boolean resume;
 	}
 
 	static class NewImportJob
@@ -141,8 +159,14 @@ public abstract class AbstractImporterCommand implements Callable<Integer>
 			// Create a new instance of the importer
 			Constructor<?> constructor = clazz.getConstructor(Integer.class);
 			importer = (AbstractImporter) constructor.newInstance(jobId);
+			if (args.existingImportJobArgs != null)
+				importer.setResume(args.existingImportJobArgs.resume);
+			importer.setUseShadowTables(shadowTables);
+			importer.setForceImport(forceImport);
 			importer.init(new String[]{databaseServer, databaseName, databasePort, databaseUsername, databasePassword});
 			importer.run();
+			// The process exits straight after, which would cut the compression short
+			importer.awaitBackupCompression();
 		}
 		catch (SQLException | IOException | NoSuchMethodException | InstantiationException | IllegalAccessException |
 			   InvocationTargetException e)
@@ -10,6 +10,8 @@ import java.util.concurrent.Callable;
 				ExcelGenotypeImporterCommand.class,
 				HapmapGenotypeImporterCommand.class,
 				FlatFileGenotypeImporterCommand.class,
+				VcfGenotypeImporterCommand.class,
+				PlinkGenotypeImporterCommand.class,
 		},
 		mixinStandardHelpOptions = true,
 		versionProvider = jhi.germinate.GerminateCommandVersion.class
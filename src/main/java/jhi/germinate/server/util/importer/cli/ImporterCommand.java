@@ -16,6 +16,7 @@ import java.util.concurrent.Callable;
 				ClimateImporterCommand.class,
 				GeotiffImporterCommand.class,
 				ShapefileImporterCommand.class,
+				WorkerCommand.class,
 		},
 		mixinStandardHelpOptions = true,
 		versionProvider = jhi.germinate.GerminateCommandVersion.class
@@ -0,0 +1,34 @@
+package jhi.germinate.server.util.importer.cli;
+
+import jhi.germinate.server.database.codegen.enums.DataImportJobsDatatype;
+import jhi.germinate.server.util.importer.GenotypePlinkImporter;
+import picocli.CommandLine;
+
+@CommandLine.Command(
+		name = "plink",
+		description = "Genotype importer for PLINK binary files (.bed, .bim and .fam in a zip container).",
+		mixinStandardHelpOptions = true,
+		versionProvider = jhi.germinate.GerminateCommandVersion.class
+)
+public class PlinkGenotypeImporterCommand extends AbstractImporterCommand
+{
+	public static final String[] CMD_ARGS = {"import", "genotype", "plink"};
+
+	public static void main(String[] args)
+	{
+		int exitCode = new CommandLine(new PlinkGenotypeImporterCommand()).execute(args);
+		System.exit(exitCode);
+	}
+
+	@Override
+	protected DataImportJobsDatatype getDataImportJobsDatatype()
+	{
+		return DataImportJobsDatatype.genotype;
+	}
+
+	@Override
+	protected Class<?> getImporterClass()
+	{
+		return GenotypePlinkImporter.class;
+	}
+}
@@ -0,0 +1,34 @@
+package jhi.germinate.server.util.importer.cli;
+
+import jhi.germinate.server.database.codegen.enums.DataImportJobsDatatype;
+import jhi.germinate.server.util.importer.GenotypeVcfImporter;
+import picocli.CommandLine;
+
+@CommandLine.Command(
+		name = "vcf",
+		description = "Genotype importer for files in VCF format, plain or (b)gzipped.",
+		mixinStandardHelpOptions = true,
+		versionProvider = jhi.germinate.GerminateCommandVersion.class
+)
+public class VcfGenotypeImporterCommand extends AbstractImporterCommand
+{
+	public static final String[] CMD_ARGS = {"import", "genotype", "vcf"};
+
+	public static void main(String[] args)
+	{
+		int exitCode = new CommandLine(new VcfGenotypeImporterCommand()).execute(args);
+		System.exit(exitCode);
+	}
+
+	@Override
+	protected DataImportJobsDatatype getDataImportJobsDatatype()
+	{
+		return DataImportJobsDatatype.genotype;
+	}
+
+	@Override
+	protected Class<?> getImporterClass()
+	{
+		return GenotypeVcfImporter.class;
+	}
+}
@@ -0,0 +1,108 @@
+package jhi.germinate.server.util.importer.cli;
+
+import jhi.germinate.server.Database;
+import jhi.germinate.server.util.importer.ImportWorker;
+import picocli.CommandLine;
+
+import java.util.concurrent.Callable;
+
+@CommandLine.Command(
+		name = "worker",
+		description = "Resident worker that runs waiting Germinate data import jobs until it's stopped.",
+		mixinStandardHelpOptions = true,
+		versionProvider = jhi.germinate.GerminateCommandVersion.class
+)
+public class WorkerCommand implements Callable<Integer>
+{
+	public static final String[] CMD_ARGS = {"import", "worker"};
+
+	@CommandLine.Option(
+			names = {"-dbserver", "--database-server"},
+			paramLabel = "databaseServer",
+			required = true,
+			description = "Name/IP of the database server"
+	)
+	protected String databaseServer;
+
+	@CommandLine.Option(
+			names = {"-dbname", "--database-name"},
+			paramLabel = "databaseName",
+			required = true,
+			description = "Name of the database on the database server"
+	)
+	protected String databaseName;
+
+	@CommandLine.Option(
+			names = {"-dbport", "--database-port"},
+			paramLabel = "databasePort",
+			defaultValue = "3306",
+			description = "Port the database server is listening on (default: 3306)"
+	)
+	protected String databasePort;
+
+	@CommandLine.Option(
+			names = {"-dbuser", "--database-username"},
+			paramLabel = "databaseUsername",
+			required = true,
+			description = "Username of a user with permissions to access this database"
+	)
+	protected String databaseUsername;
+
+	@CommandLine.Option(
+			names = {"-dbpass", "--database-password"},
+			paramLabel = "databasePassword",
+			description = "Password of the user specified with -dbuser or --database-username"
+	)
+	protected String databasePassword;
+
+	@CommandLine.Option(
+			names = {"-t", "--threads"},
+			paramLabel = "threads",
+			defaultValue = "2",
+			description = "Maximum number of import jobs to run at the same time (default: 2)"
+	)
+	protected int threads;
+
+	@CommandLine.Option(
+			names = {"-pi", "--poll-interval"},
+			paramLabel = "pollInterval",
+			defaultValue = "5",
+			description = "Seconds to wait before checking for new import jobs if there weren't any (default: 5)"
+	)
+	protected int pollInterval;
+
+	@CommandLine.Option(
+			names = {"-st", "--shadow-tables"},
+			description = "Load the phenotype data, dataset members and map definitions into staging tables and only publish them into the live tables once an import has succeeded"
+	)
+	protected boolean shadowTables;
+
+	public static void main(String[] args)
+	{
+		int exitCode = new CommandLine(new WorkerCommand()).execute(args);
+		System.exit(exitCode);
+	}
+
+	@Override
+	public Integer call()
+	{
+		if (threads < 1 || pollInterval < 1)
+		{
+			System.err.println("Both the number of threads and the poll interval have to be at least 1.");
+			return 1;
+		}
+
+		String[] databaseArgs = {databaseServer, databaseName, databasePort, databaseUsername, databasePassword};
+		Database.init(databaseServer, databaseName, databasePort, databaseUsername, databasePassword, false);
+
+		ImportWorker worker = new ImportWorker(databaseArgs, threads, pollInterval * 1000L);
+		worker.setUseShadowTables(shadowTables);
+
+		// Finish the running jobs when the process is asked to stop
+		Runtime.getRuntime().addShutdownHook(new Thread(worker::stop));
+
+		worker.run();
+
+		return 0;
+	}
+}
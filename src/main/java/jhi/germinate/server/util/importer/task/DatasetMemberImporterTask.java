@@ -2,7 +2,8 @@ package jhi.germinate.server.util.importer.task;
 
 import jhi.germinate.server.Database;
 import jhi.germinate.server.database.pojo.ImportStatus;
-import org.jooq.DSLContext;
+import jhi.germinate.server.util.importer.util.*;
+import org.jooq.*;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -14,32 +15,46 @@ import static jhi.germinate.server.database.codegen.tables.Datasetmembers.DATASE
 
 public abstract class DatasetMemberImporterTask implements Runnable
 {
-	private final Set<Integer>  markerIdsInFile;
-	private final Set<Integer>  germplasmIdsInFile;
-	private final int           datasetId;
-	private final ErrorCallback callback;
+	private final Set<Integer>      markerIdsInFile;
+	private final Set<Integer>      germplasmIdsInFile;
+	private final int               datasetId;
+	private final ContextFactory    contexts;
+	private final ErrorCallback     callback;
+	private final ImportTimings     timings;
+	private final CancellationToken cancellation;
+	private final ShadowTables      shadowTables;
 
-	public DatasetMemberImporterTask(Set<Integer> markerIdsInFile, Set<Integer> germplasmIdsInFile, int datasetId, ErrorCallback callback)
+	public DatasetMemberImporterTask(Set<Integer> markerIdsInFile, Set<Integer> germplasmIdsInFile, int datasetId, ContextFactory contexts, ErrorCallback callback, ImportTimings timings, CancellationToken cancellation, ShadowTables shadowTables)
 	{
 		this.markerIdsInFile = markerIdsInFile;
 		this.germplasmIdsInFile = germplasmIdsInFile;
 		this.datasetId = datasetId;
+		this.contexts = contexts;
 		this.callback = callback;
+		this.timings = timings;
+		this.cancellation = cancellation;
+		this.shadowTables = shadowTables;
 	}
 
 	@Override
 	public void run()
 	{
+		ImportTimings.Timer timer = timings.start("datasetmembers").addRows(markerIdsInFile.size() + germplasmIdsInFile.size());
+
+		File temp = null;
+
 		try
 		{
 			// Write the data to a temporary file
-			File temp = Files.createTempFile("datasetmembers", "txt").toFile();
+			temp = Files.createTempFile("datasetmembers", "txt").toFile();
 			try (BufferedWriter bw = new BufferedWriter(new FileWriter(temp, StandardCharsets.UTF_8)))
 			{
 				bw.write("dataset_id\tforeign_id\tdatasetmembertype_id");
 				bw.newLine();
 
 				markerIdsInFile.forEach(id -> {
+					cancellation.throwIfCancelled();
+
 					try
 					{
 						bw.write(datasetId + "\t" + id + "\t1");
@@ -52,6 +67,8 @@ public abstract class DatasetMemberImporterTask implements Runnable
 				});
 
 				germplasmIdsInFile.forEach(id -> {
+					cancellation.throwIfCancelled();
+
 					try
 					{
 						bw.write(datasetId + "\t" + id + "\t2");
@@ -64,26 +81,44 @@ public abstract class DatasetMemberImporterTask implements Runnable
 				});
 			}
 
+			// Don't start loading data the import no longer wants
+			cancellation.throwIfCancelled();
+
 			try (Connection conn = Database.getConnection())
 			{
-				DSLContext context = Database.getContext(conn);
+				DSLContext context = contexts.getContext(conn);
 				context.execute("SET autocommit=0;");
 				context.execute("SET unique_checks=0;");
 				context.execute("SET foreign_key_checks=0;");
 
+				// This is the staging table if the import publishes its data at the end
+				Table<?> target = shadowTables.target(context, DATASETMEMBERS);
+
+				ImportEvents.LoadInto event = new ImportEvents.LoadInto();
+				event.begin();
+
 				// Then load it using the LOAD INTO mechanism
-				context.loadInto(DATASETMEMBERS)
+				context.loadInto(target)
 					   .bulkAfter(2000)
 					   .loadCSV(temp, StandardCharsets.UTF_8)
 					   .fields(DATASETMEMBERS.DATASET_ID, DATASETMEMBERS.FOREIGN_ID, DATASETMEMBERS.DATASETMEMBERTYPE_ID)
 					   .separator('\t')
 					   .execute();
 
+				event.end();
+				if (event.shouldCommit())
+				{
+					event.table = target.getName();
+					event.rows = markerIdsInFile.size() + germplasmIdsInFile.size();
+					event.bytes = temp.length();
+					event.commit();
+				}
+
 				context.execute("SET autocommit=1;");
 				context.execute("SET unique_checks=1;");
 				context.execute("SET foreign_key_checks=1;");
 
-				temp.delete();
+				timer.addBytes(temp.length());
 			}
 			catch (SQLException e)
 			{
@@ -94,8 +129,17 @@ public abstract class DatasetMemberImporterTask implements Runnable
 		{
 			callback.onError(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
 		}
+		catch (ImportCancelledException e)
+		{
+			// The importer deals with the cancellation once everything has stopped
+		}
 		finally
 		{
+			if (temp != null)
+				temp.delete();
+
+			// Record the timing before anyone waiting for this task is told it's done
+			timer.stop();
 			this.onFinished();
 		}
 	}
@@ -2,8 +2,8 @@ package jhi.germinate.server.util.importer.task;
 
 import jhi.germinate.server.Database;
 import jhi.germinate.server.database.pojo.ImportStatus;
-import jhi.germinate.server.util.StringUtils;
-import org.jooq.DSLContext;
+import jhi.germinate.server.util.importer.util.*;
+import org.jooq.*;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -14,73 +14,97 @@ import static jhi.germinate.server.database.codegen.tables.Mapdefinitions.MAPDEF
 
 public abstract class MapdefinitionImporterTask implements Runnable
 {
-	private final String[]      markers;
-	private final int[]         markerIds;
-	private final int           mapId;
-	private final int           mapFeatureTypeId;
-	private final String[]      chromosomes;
-	private final String[]      positions;
-	private final ErrorCallback callback;
-
-	public MapdefinitionImporterTask(String[] markers, int[] markerIds, int mapId, int mapFeatureTypeId, String[] chromosomes, String[] positions, ErrorCallback callback)
+	private final MarkerTable       markers;
+	private final int[]             markerIds;
+	private final int               mapId;
+	private final int               mapFeatureTypeId;
+	private final ContextFactory    contexts;
+	private final ErrorCallback     callback;
+	private final ImportTimings     timings;
+	private final CancellationToken cancellation;
+	private final ShadowTables      shadowTables;
+
+	public MapdefinitionImporterTask(MarkerTable markers, int[] markerIds, int mapId, int mapFeatureTypeId, ContextFactory contexts, ErrorCallback callback, ImportTimings timings, CancellationToken cancellation, ShadowTables shadowTables)
 	{
 		this.markers = markers;
 		this.markerIds = markerIds;
 		this.mapId = mapId;
 		this.mapFeatureTypeId = mapFeatureTypeId;
-		this.chromosomes = chromosomes;
-		this.positions = positions;
+		this.contexts = contexts;
 		this.callback = callback;
+		this.timings = timings;
+		this.cancellation = cancellation;
+		this.shadowTables = shadowTables;
 	}
 
 	@Override
 	public void run()
 	{
+		ImportTimings.Timer timer = timings.start("mapdefinitions").addRows(markers.size());
+
+		File temp = null;
+
 		try
 		{
 			// Write the data to a temporary file
-			File temp = Files.createTempFile("mapdefinitions", "txt").toFile();
+			temp = Files.createTempFile("mapdefinitions", "txt").toFile();
 			try (BufferedWriter bw = new BufferedWriter(new FileWriter(temp, StandardCharsets.UTF_8)))
 			{
 				bw.write("mapfeaturetype_id\tmarker_id\tmap_id\tdefinition_start\tdefinition_end\tchromosome");
 				bw.newLine();
-				for (int i = 0; i < markers.length; i++)
+				for (int i = 0; i < markers.size(); i++)
 				{
+					cancellation.throwIfCancelled();
+
 					int markerId = markerIds[i];
-					String chromosome = StringUtils.isEmpty(chromosomes[i]) ? "NA" : chromosomes[i];
-					double position = 0d;
-					try
-					{
-						position = Double.parseDouble(positions[i]);
-					}
-					catch (Exception e)
-					{
-					}
+					String chromosome = markers.getChromosome(i);
+					if (chromosome == null)
+						chromosome = "NA";
+					double position = markers.hasPosition(i) ? markers.getPosition(i) : 0d;
 
 					bw.write(mapFeatureTypeId + "\t" + markerId + "\t" + mapId + "\t" + position + "\t" + position + "\t" + chromosome);
 					bw.newLine();
 				}
 			}
 
+			// Don't start loading data the import no longer wants
+			cancellation.throwIfCancelled();
+
 			try (Connection conn = Database.getConnection())
 			{
-				DSLContext context = Database.getContext(conn);
+				DSLContext context = contexts.getContext(conn);
 				context.execute("SET autocommit=0;");
 				context.execute("SET unique_checks=0;");
 				context.execute("SET foreign_key_checks=0;");
 
+				// This is the staging table if the import publishes its data at the end
+				Table<?> target = shadowTables.target(context, MAPDEFINITIONS);
+
+				ImportEvents.LoadInto event = new ImportEvents.LoadInto();
+				event.begin();
+
 				// Then load it using the LOAD INTO mechanism
-				context.loadInto(MAPDEFINITIONS)
+				context.loadInto(target)
 					   .bulkAfter(2000)
 					   .loadCSV(temp, StandardCharsets.UTF_8)
 					   .fields(MAPDEFINITIONS.MAPFEATURETYPE_ID, MAPDEFINITIONS.MARKER_ID, MAPDEFINITIONS.MAP_ID, MAPDEFINITIONS.DEFINITION_START, MAPDEFINITIONS.DEFINITION_END, MAPDEFINITIONS.CHROMOSOME)
 					   .separator('\t')
 					   .execute();
 
+				event.end();
+				if (event.shouldCommit())
+				{
+					event.table = target.getName();
+					event.rows = markers.size();
+					event.bytes = temp.length();
+					event.commit();
+				}
+
 				context.execute("SET autocommit=1;");
 				context.execute("SET unique_checks=1;");
 				context.execute("SET foreign_key_checks=1;");
-				temp.delete();
+
+				timer.addBytes(temp.length());
 			}
 			catch (SQLException e)
 			{
@@ -91,8 +115,17 @@ public abstract class MapdefinitionImporterTask implements Runnable
 		{
 			callback.onError(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
 		}
+		catch (ImportCancelledException e)
+		{
+			// The importer deals with the cancellation once everything has stopped
+		}
 		finally
 		{
+			if (temp != null)
+				temp.delete();
+
+			// Record the timing before anyone waiting for this task is told it's done
+			timer.stop();
 			this.onFinished();
 		}
 	}
@@ -2,41 +2,68 @@ package jhi.germinate.server.util.importer.task;
 
 import jhi.germinate.server.Database;
 import jhi.germinate.server.database.pojo.ImportStatus;
+import jhi.germinate.server.util.importer.util.*;
 import org.jooq.DSLContext;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.sql.*;
-import java.util.List;
+import java.util.*;
 
 import static jhi.germinate.server.database.codegen.tables.Markers.MARKERS;
 
 public class MarkerImporterTask implements Runnable
 {
-	private final List<String>  newMarkers;
-	private final int           markerTypeId;
-	private final ErrorCallback callback;
+	/** Number of marker names per id lookup query */
+	private static final int LOOKUP_BATCH_SIZE = 5000;
 
-	public MarkerImporterTask(List<String> newMarkers, int markerTypeId, ErrorCallback callback)
+	private final List<String>      newMarkers;
+	private final int               markerTypeId;
+	private final NameIndex         markerToId;
+	private final ContextFactory    contexts;
+	private final ErrorCallback     callback;
+	private final ImportTimings     timings;
+	private final CancellationToken cancellation;
+
+	/**
+	 * @param newMarkers   The names of the markers that don't exist yet
+	 * @param markerTypeId The marker type of the new markers
+	 * @param markerToId   The existing marker name to id mapping. The ids of the new markers are added to it once they've been imported.
+	 * @param contexts     Creates the database context the markers are loaded through
+	 * @param callback     Receives any errors
+	 * @param timings      Receives how long the import took
+	 * @param cancellation Stops the import by throwing an {@link ImportCancelledException} to the caller
+	 */
+	public MarkerImporterTask(List<String> newMarkers, int markerTypeId, NameIndex markerToId, ContextFactory contexts, ErrorCallback callback, ImportTimings timings, CancellationToken cancellation)
 	{
 		this.newMarkers = newMarkers;
 		this.markerTypeId = markerTypeId;
+		this.markerToId = markerToId;
+		this.contexts = contexts;
 		this.callback = callback;
+		this.timings = timings;
+		this.cancellation = cancellation;
 	}
 
 	@Override
 	public void run()
 	{
+		ImportTimings.Timer timer = timings.start("markers").addRows(newMarkers.size());
+
+		File tempMarkers = null;
+
 		try (Connection conn = Database.getConnection())
 		{
-			File tempMarkers = Files.createTempFile("markers", "txt").toFile();
+			tempMarkers = Files.createTempFile("markers", "txt").toFile();
 			try (BufferedWriter bw = new BufferedWriter(new FileWriter(tempMarkers, StandardCharsets.UTF_8)))
 			{
 				bw.write("markertype_id\tmarker_name");
 				bw.newLine();
 
 				newMarkers.forEach(marker -> {
+					cancellation.throwIfCancelled();
+
 					try
 					{
 						bw.write(markerTypeId + "\t" + marker);
@@ -49,11 +76,17 @@ public class MarkerImporterTask implements Runnable
 				});
 			}
 
-			DSLContext context = Database.getContext(conn);
+			// Don't start loading data the import no longer wants
+			cancellation.throwIfCancelled();
+
+			DSLContext context = contexts.getContext(conn);
 			context.execute("SET autocommit=0;");
 			context.execute("SET unique_checks=0;");
 			context.execute("SET foreign_key_checks=0;");
 
+			ImportEvents.LoadInto event = new ImportEvents.LoadInto();
+			event.begin();
+
 			// Then load it using the LOAD INTO mechanism
 			context.loadInto(MARKERS)
 				   .bulkAfter(2000)
@@ -62,15 +95,42 @@ public class MarkerImporterTask implements Runnable
 				   .separator('\t')
 				   .execute();
 
+			event.end();
+			if (event.shouldCommit())
+			{
+				event.table = MARKERS.getName();
+				event.rows = newMarkers.size();
+				event.bytes = tempMarkers.length();
+				event.commit();
+			}
+
 			context.execute("SET autocommit=1;");
 			context.execute("SET unique_checks=1;");
 			context.execute("SET foreign_key_checks=1;");
 
-			tempMarkers.delete();
+			timer.addBytes(tempMarkers.length());
+
+			// Only look up the ids of the markers we've just added, everything else is known already
+			for (int i = 0; i < newMarkers.size(); i += LOOKUP_BATCH_SIZE)
+			{
+				List<String> batch = newMarkers.subList(i, Math.min(i + LOOKUP_BATCH_SIZE, newMarkers.size()));
+
+				context.select(MARKERS.ID, MARKERS.MARKER_NAME)
+					   .from(MARKERS)
+					   .where(MARKERS.MARKER_NAME.in(batch))
+					   .forEach(m -> markerToId.put(m.get(MARKERS.MARKER_NAME), m.get(MARKERS.ID)));
+			}
 		}
 		catch (IOException | SQLException e)
 		{
 			callback.onError(ImportStatus.GENERIC_IO_ERROR, -1, e.getMessage());
 		}
+		finally
+		{
+			if (tempMarkers != null)
+				tempMarkers.delete();
+
+			timer.stop();
+		}
 	}
 }
@@ -0,0 +1,55 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tells a running import and all of its background tasks that they should stop. The loops of the import check it regularly and throw an
+ * {@link ImportCancelledException}, which is cheap enough to do for every single row. Files that would only be left behind half-written are
+ * registered with {@link #deleteOnCancel(File)} and removed once the import has stopped.
+ *
+ * @author Sebastian Raubach
+ */
+public class CancellationToken
+{
+	private final    List<File> partialFiles = new CopyOnWriteArrayList<>();
+	private volatile boolean    cancelled    = false;
+
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * @throws ImportCancelledException If the import has been cancelled
+	 */
+	public void throwIfCancelled()
+	{
+		if (cancelled)
+			throw new ImportCancelledException();
+	}
+
+	/**
+	 * Registers a file that is incomplete until the import has finished. Files that have been moved or deleted in the meantime are ignored.
+	 */
+	public File deleteOnCancel(File file)
+	{
+		partialFiles.add(file);
+		return file;
+	}
+
+	/**
+	 * Deletes the registered files. Only call this once the import and its tasks have stopped.
+	 */
+	public void cleanup()
+	{
+		partialFiles.forEach(File::delete);
+		partialFiles.clear();
+	}
+}
@@ -0,0 +1,79 @@
+package jhi.germinate.server.util.importer.util;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import java.io.*;
+import java.nio.file.Files;
+
+/**
+ * Lets importers read compressed input files as if they were plain text. The compression is recognized by the first bytes of the file, not by its
+ * name, so users can upload a <code>.gz</code>, <code>.zst</code> or <code>.bz2</code> file as it is, without having to decompress it first.
+ *
+ * @author Sebastian Raubach
+ */
+public class CompressedInput
+{
+	public enum Format
+	{
+		NONE,
+		GZIP,
+		ZSTD,
+		BZIP2
+	}
+
+	private static final int  BUFFER_SIZE          = 65536;
+	/** Leaves some of the cores to the parsing and database threads */
+	private static final int  GZIP_THREADS         = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+	private CompressedInput()
+	{
+	}
+
+	/**
+	 * @return The compression of the file, based on its first bytes
+	 */
+	public static Format detect(File file)
+			throws IOException
+	{
+		try (InputStream is = Files.newInputStream(file.toPath()))
+		{
+			return detect(is.readNBytes(4));
+		}
+	}
+
+	private static Format detect(byte[] magic)
+	{
+		if (magic.length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B)
+			return Format.GZIP;
+		else if (magic.length >= 4 && (magic[0] & 0xFF) == 0x28 && (magic[1] & 0xFF) == 0xB5 && (magic[2] & 0xFF) == 0x2F && (magic[3] & 0xFF) == 0xFD)
+			return Format.ZSTD;
+		else if (magic.length >= 4 && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h' && magic[3] >= '1' && magic[3] <= '9')
+			return Format.BZIP2;
+		else
+			return Format.NONE;
+	}
+
+	/**
+	 * @param is The content of the file, which may or may not be compressed
+	 * @return The decompressed content. Closing it closes the given stream.
+	 */
+	public static InputStream open(InputStream is)
+			throws IOException
+	{
+		InputStream buffered = is.markSupported() ? is : new BufferedInputStream(is, BUFFER_SIZE);
+
+		buffered.mark(4);
+		Format format = detect(buffered.readNBytes(4));
+		buffered.reset();
+
+		return switch (format)
+		{
+			case GZIP -> new ParallelGzipInputStream(buffered, GZIP_THREADS);
+			case ZSTD -> new ZstdCompressorInputStream(buffered);
+			// Files written by parallel compressors consist of several streams
+			case BZIP2 -> new BZip2CompressorInputStream(buffered, true);
+			case NONE -> buffered;
+		};
+	}
+}
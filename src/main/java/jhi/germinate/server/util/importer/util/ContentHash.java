@@ -0,0 +1,171 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.*;
+import java.util.HexFormat;
+
+/**
+ * The SHA-256 of an input file, used to recognize a file that has already been imported, e.g. because it was uploaded a second time after the
+ * browser gave up waiting. Importers that read the whole file anyway feed its bytes in as they go, see {@link #track(InputStream)}, everything
+ * else hashes the file up front with {@link #of(File)}.
+ *
+ * @author Sebastian Raubach
+ */
+public class ContentHash
+{
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	/** Bytes left unread by a decompressor are read on close, as long as there aren't more than this */
+	private static final int DRAIN_LIMIT = 65536;
+
+	private final MessageDigest digest = newDigest();
+	private final long          size;
+	private       long          count  = 0;
+	private       String        result = null;
+
+	private ContentHash(long size)
+	{
+		this.size = size;
+		complete();
+	}
+
+	/**
+	 * @return The lower case hex SHA-256 of the content of the file
+	 */
+	public static String of(File file)
+			throws IOException
+	{
+		ContentHash hash = new ContentHash(file.length());
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+			while (channel.read(buffer) != -1)
+			{
+				buffer.flip();
+				hash.update(buffer);
+				buffer.clear();
+			}
+		}
+
+		return hash.get();
+	}
+
+	/**
+	 * Starts a hash of the file that's computed while it's being read, see {@link #track(InputStream)} and {@link #update(ByteBuffer)}.
+	 */
+	public static ContentHash forFile(File file)
+	{
+		return new ContentHash(file.length());
+	}
+
+	/**
+	 * @param is The raw content of the file, from its first byte
+	 * @return A stream that adds every byte read through it to the hash
+	 */
+	public InputStream track(InputStream is)
+	{
+		return new FilterInputStream(is)
+		{
+			@Override
+			public int read()
+					throws IOException
+			{
+				int b = super.read();
+
+				if (b != -1)
+					update(new byte[]{(byte) b}, 0, 1);
+
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len)
+					throws IOException
+			{
+				int read = super.read(b, off, len);
+
+				if (read > 0)
+					update(b, off, read);
+
+				return read;
+			}
+
+			@Override
+			public long skip(long n)
+					throws IOException
+			{
+				// Skipped bytes have to be hashed as well
+				byte[] buffer = new byte[(int) Math.min(n, 8192)];
+				int read = read(buffer, 0, buffer.length);
+
+				return Math.max(read, 0);
+			}
+
+			@Override
+			public void close()
+					throws IOException
+			{
+				// Decompressors may stop before the trailing bytes of the file
+				if (result == null && size - count <= DRAIN_LIMIT)
+				{
+					byte[] buffer = new byte[8192];
+
+					while (read(buffer, 0, buffer.length) != -1)
+					{
+						// Only hashing
+					}
+				}
+
+				super.close();
+			}
+		};
+	}
+
+	/**
+	 * Adds the remaining bytes of the buffer to the hash. They have to follow on from the bytes added before.
+	 */
+	public synchronized void update(ByteBuffer buffer)
+	{
+		count += buffer.remaining();
+		digest.update(buffer);
+		complete();
+	}
+
+	private synchronized void update(byte[] bytes, int offset, int length)
+	{
+		count += length;
+		digest.update(bytes, offset, length);
+		complete();
+	}
+
+	private void complete()
+	{
+		if (result == null && count == size)
+			result = HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * @return The lower case hex SHA-256 of the content of the file or <code>null</code> if not all of it has been read
+	 */
+	public synchronized String get()
+	{
+		return result;
+	}
+
+	private static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package jhi.germinate.server.util.importer.util;
+
+import org.jooq.DSLContext;
+
+import java.sql.Connection;
+
+/**
+ * Creates the database contexts an import executes its statements through, so that the statements of its helpers are profiled along with its own.
+ *
+ * @author Sebastian Raubach
+ */
+public interface ContextFactory
+{
+	DSLContext getContext(Connection conn);
+}
@@ -0,0 +1,121 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Decodes the date formats found in Germinate templates: <code>yyyy-MM-dd</code>, <code>yyyyMMdd</code> and MCPD dates where an unknown month
+ * or day is given as <code>00</code> or <code>--</code>, as well as the serial numbers Excel stores dates as. Unlike {@link java.text.SimpleDateFormat}
+ * this holds no state, so it can be used from any thread, and it signals invalid input by returning <code>null</code> instead of throwing.
+ *
+ * @author Sebastian Raubach
+ */
+public class DateDecoder
+{
+	/** Day zero of the Excel 1900 date system, one day earlier than it should be as Excel considers 1900 a leap year */
+	private static final LocalDate EXCEL_EPOCH      = LocalDate.of(1899, 12, 30);
+	/** Excel serials up to and including the non-existent 29th of February 1900 are off by one */
+	private static final int       EXCEL_LEAP_BUG   = 60;
+	/** Larger serials are most likely plain numbers rather than dates */
+	private static final long      EXCEL_MAX_SERIAL = ChronoUnit.DAYS.between(EXCEL_EPOCH, LocalDate.of(3001, 1, 1));
+	private static final long      MILLIS_PER_DAY   = 24 * 60 * 60 * 1000;
+
+	private DateDecoder()
+	{
+	}
+
+	/**
+	 * @param value Either <code>yyyy-MM-dd</code> or <code>yyyyMMdd</code>, where the month and day may be <code>00</code> or <code>--</code> if
+	 *              they're unknown, in which case they default to the first
+	 * @return The date or <code>null</code> if the value isn't a valid date in one of these formats
+	 */
+	public static LocalDate decode(CharSequence value)
+	{
+		if (value == null)
+			return null;
+
+		if (value.length() == 10)
+		{
+			if (value.charAt(4) != '-' || value.charAt(7) != '-')
+				return null;
+
+			return toDate(parseDigits(value, 0, 4), parseDigits(value, 5, 2), parseDigits(value, 8, 2));
+		}
+		else if (value.length() == 8)
+		{
+			int year = parseDigits(value, 0, 4);
+			int month = parsePlaceholder(value, 4);
+			int day = parsePlaceholder(value, 6);
+
+			if (month == 0)
+				month = 1;
+			if (day == 0)
+				day = 1;
+
+			return toDate(year, month, day);
+		}
+		else
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @param serial The number of days since the start of 1900, with the time of day as the fraction, as stored by Excel
+	 * @return The date or <code>null</code> if the number is outside the range of dates we accept
+	 */
+	public static LocalDateTime decodeExcelSerial(double serial)
+	{
+		if (Double.isNaN(serial) || serial < 1 || serial >= EXCEL_MAX_SERIAL)
+			return null;
+
+		long days = (long) serial;
+		long millis = Math.round((serial - days) * MILLIS_PER_DAY);
+
+		LocalDate date = EXCEL_EPOCH.plusDays(days < EXCEL_LEAP_BUG ? days + 1 : days);
+
+		return date.atStartOfDay().plus(millis, ChronoUnit.MILLIS);
+	}
+
+	/**
+	 * @return The number made up of the digits or <code>-1</code> if any of them isn't one
+	 */
+	private static int parseDigits(CharSequence value, int start, int length)
+	{
+		int result = 0;
+
+		for (int i = start; i < start + length; i++)
+		{
+			char c = value.charAt(i);
+
+			if (c < '0' || c > '9')
+				return -1;
+
+			result = result * 10 + (c - '0');
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return The two digit number, <code>0</code> if it's the <code>--</code> placeholder or <code>-1</code> if it's neither
+	 */
+	private static int parsePlaceholder(CharSequence value, int start)
+	{
+		if (value.charAt(start) == '-' && value.charAt(start + 1) == '-')
+			return 0;
+		else
+			return parseDigits(value, start, 2);
+	}
+
+	private static LocalDate toDate(int year, int month, int day)
+	{
+		if (year < 0 || month < 1 || month > 12 || day < 1)
+			return null;
+
+		if (day > Month.of(month).length(Year.isLeap(year)))
+			return null;
+
+		return LocalDate.of(year, month, day);
+	}
+}
@@ -0,0 +1,96 @@
+package jhi.germinate.server.util.importer.util;
+
+import jhi.germinate.server.database.pojo.ImportJobStats;
+
+import java.util.List;
+
+/**
+ * {@link ImportJobStats} with additional information about the import itself. The extra fields are stored alongside the regular ones in the
+ * job's <code>STATS</code> column and are simply ignored by anything that reads them back as {@link ImportJobStats}.
+ *
+ * @author Sebastian Raubach
+ */
+public class DetailedImportJobStats extends ImportJobStats
+{
+	private ImportProgress.Snapshot   progress;
+	private List<ImportTimings.Entry> timings;
+	private List<SqlProfiler.Summary> statements;
+	private String                    contentHash;
+	private Long                      backupSize;
+	private Long                      compressedBackupSize;
+
+	public ImportProgress.Snapshot getProgress()
+	{
+		return progress;
+	}
+
+	public DetailedImportJobStats setProgress(ImportProgress.Snapshot progress)
+	{
+		this.progress = progress;
+		return this;
+	}
+
+	public List<ImportTimings.Entry> getTimings()
+	{
+		return timings;
+	}
+
+	public DetailedImportJobStats setTimings(List<ImportTimings.Entry> timings)
+	{
+		this.timings = timings;
+		return this;
+	}
+
+	public List<SqlProfiler.Summary> getStatements()
+	{
+		return statements;
+	}
+
+	public DetailedImportJobStats setStatements(List<SqlProfiler.Summary> statements)
+	{
+		this.statements = statements;
+		return this;
+	}
+
+	/**
+	 * @return The SHA-256 of the imported file. Only set once the file has been imported successfully.
+	 */
+	public String getContentHash()
+	{
+		return contentHash;
+	}
+
+	public DetailedImportJobStats setContentHash(String contentHash)
+	{
+		this.contentHash = contentHash;
+		return this;
+	}
+
+	/**
+	 * @return The total size of the text files that have been kept as backups, before they were compressed
+	 */
+	public Long getBackupSize()
+	{
+		return backupSize;
+	}
+
+	public DetailedImportJobStats setBackupSize(Long backupSize)
+	{
+		this.backupSize = backupSize;
+		return this;
+	}
+
+	/**
+	 * @return The total size of these backups on disk once compressed
+	 */
+	public Long getCompressedBackupSize()
+	{
+		return compressedBackupSize;
+	}
+
+	public DetailedImportJobStats setCompressedBackupSize(Long compressedBackupSize)
+	{
+		this.compressedBackupSize = compressedBackupSize;
+		return this;
+	}
+}
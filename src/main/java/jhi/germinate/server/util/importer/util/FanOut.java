@@ -0,0 +1,269 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Distributes items produced by a single sequential reader to multiple consumers. Cheap consumers run inline on the reading thread, expensive
+ * ones each get their own thread fed through a bounded queue, so the reader never gets more than a few batches ahead of the slowest consumer.
+ *
+ * @author Sebastian Raubach
+ */
+public class FanOut<T>
+{
+	private static final int      BATCH_SIZE     = 256;
+	private static final int      QUEUE_CAPACITY = 32;
+	private static final Object[] END            = new Object[0];
+
+	private final List<Sink<T>>       inline = new ArrayList<>();
+	private final List<QueuedSink<T>> queued = new ArrayList<>();
+
+	private Object[] batch     = new Object[BATCH_SIZE];
+	private int      batchSize = 0;
+	private boolean  started   = false;
+
+	/**
+	 * Adds a consumer that is called directly on the reading thread.
+	 */
+	public FanOut<T> addInline(Sink<T> sink)
+	{
+		inline.add(sink);
+		return this;
+	}
+
+	/**
+	 * Adds a consumer that runs on its own thread and receives the items through a bounded queue.
+	 */
+	public FanOut<T> addQueued(String name, Sink<T> sink)
+	{
+		queued.add(new QueuedSink<>(name, sink));
+		return this;
+	}
+
+	public void offer(T item)
+			throws IOException
+	{
+		if (!started)
+		{
+			queued.forEach(QueuedSink::start);
+			started = true;
+		}
+
+		for (Sink<T> sink : inline)
+			sink.accept(item);
+
+		if (!queued.isEmpty())
+		{
+			batch[batchSize++] = item;
+
+			if (batchSize == BATCH_SIZE)
+				flush();
+		}
+	}
+
+	/**
+	 * Signals the end of the input, waits for all queued consumers to finish and rethrows the first exception any consumer has thrown.
+	 */
+	public void close()
+			throws IOException
+	{
+		if (!started)
+		{
+			queued.forEach(QueuedSink::start);
+			started = true;
+		}
+
+		IOException error = null;
+
+		try
+		{
+			flush();
+
+			for (QueuedSink<T> sink : queued)
+				sink.put(END);
+		}
+		catch (IOException e)
+		{
+			error = e;
+
+			// Some consumers haven't been sent the end of the input and would never finish, so stop all of them
+			for (QueuedSink<T> sink : queued)
+				sink.abort();
+		}
+
+		for (Sink<T> sink : inline)
+		{
+			try
+			{
+				sink.finish();
+			}
+			catch (IOException e)
+			{
+				if (error == null)
+					error = e;
+			}
+		}
+
+		for (QueuedSink<T> sink : queued)
+		{
+			IOException e = sink.join();
+
+			if (error == null)
+				error = e;
+		}
+
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Stops all consumers without finishing them, because the input hasn't been read completely, e.g. as the import has been cancelled. Waits
+	 * for the queued consumers to stop.
+	 */
+	public void abort()
+	{
+		for (Sink<T> sink : inline)
+			sink.abort();
+
+		for (QueuedSink<T> sink : queued)
+		{
+			if (started)
+				sink.abort();
+			else
+				sink.sink.abort();
+		}
+	}
+
+	private void flush()
+			throws IOException
+	{
+		if (batchSize == 0)
+			return;
+
+		Object[] full = batchSize == BATCH_SIZE ? batch : Arrays.copyOf(batch, batchSize);
+		for (QueuedSink<T> sink : queued)
+			sink.put(full);
+
+		batch = new Object[BATCH_SIZE];
+		batchSize = 0;
+	}
+
+	public interface Sink<T>
+	{
+		void accept(T item)
+				throws IOException;
+
+		default void finish()
+				throws IOException
+		{
+		}
+
+		/**
+		 * Called instead of {@link #finish()} if this consumer has failed, so it can release its resources.
+		 */
+		default void abort()
+		{
+		}
+	}
+
+	private static class QueuedSink<T> implements Runnable
+	{
+		private final BlockingQueue<Object[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		private final Sink<T>                 sink;
+		private final Thread                  thread;
+		private volatile IOException          error;
+		private volatile boolean              aborted = false;
+
+		private QueuedSink(String name, Sink<T> sink)
+		{
+			this.sink = sink;
+			this.thread = new Thread(this, name);
+		}
+
+		private void start()
+		{
+			thread.start();
+		}
+
+		private void put(Object[] items)
+				throws IOException
+		{
+			try
+			{
+				queue.put(items);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+		}
+
+		private void abort()
+		{
+			aborted = true;
+
+			// Drop whatever hasn't been consumed yet, this also leaves room for the end marker
+			queue.clear();
+			queue.offer(END);
+
+			join();
+		}
+
+		private IOException join()
+		{
+			try
+			{
+				thread.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return new IOException(e);
+			}
+
+			return error;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void run()
+		{
+			try
+			{
+				Object[] items;
+				while ((items = queue.take()) != END)
+				{
+					// Keep draining after a failure so that the reader never blocks on a full queue
+					if (error != null || aborted)
+						continue;
+
+					try
+					{
+						for (Object item : items)
+							sink.accept((T) item);
+					}
+					catch (IOException | RuntimeException e)
+					{
+						error = e instanceof IOException ? (IOException) e : new IOException(e);
+					}
+				}
+
+				if (error == null && !aborted)
+					sink.finish();
+				else
+					sink.abort();
+			}
+			catch (IOException | RuntimeException e)
+			{
+				error = e instanceof IOException ? (IOException) e : new IOException(e);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				error = new IOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package jhi.germinate.server.util.importer.util;
+
+import com.google.gson.Gson;
+import jhi.germinate.server.database.pojo.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * Collects the {@link ImportResult}s of an import. Only a capped sample is kept in memory and stored in the database, everything else is
+ * spilled to a temporary NDJSON file, so a bad file with millions of problems doesn't exhaust the memory or the <code>FEEDBACK</code> column.
+ * Whether there has been an error and how often each {@link ImportStatus} occurred are tracked as they come in.
+ * <p>
+ * Results can be added from any thread. Each thread collects them in its own buffer, which is merged into the collector whenever it fills up
+ * and whenever the results are read, e.g. once a phase of the import has finished. Adding a result therefore never waits for another thread.
+ *
+ * @author Sebastian Raubach
+ */
+public class FeedbackCollector implements Closeable
+{
+	/** Maximum number of results kept in memory */
+	private static final int MAX_SAMPLE            = 1000;
+	/** Maximum number of results kept in memory per status */
+	private static final int MAX_SAMPLE_PER_STATUS = 100;
+	/** Number of results a thread buffers before merging them */
+	private static final int BUFFER_SIZE           = 1024;
+
+	private static final Gson GSON = new Gson();
+
+	private final int[]                     counts       = new int[ImportStatus.values().length];
+	private final int[]                     sampleCounts = new int[ImportStatus.values().length];
+	private final ImportResult.StatusType[] types        = new ImportResult.StatusType[ImportStatus.values().length];
+	private final List<ImportResult>        sample       = new ArrayList<>();
+	private       int                       total        = 0;
+	private       File                      spillFile    = null;
+	private       BufferedWriter            spill        = null;
+
+	private final    Object              lock     = new Object();
+	private final    Queue<Buffer>       buffers  = new ConcurrentLinkedQueue<>();
+	private final    ThreadLocal<Buffer> buffer   = ThreadLocal.withInitial(this::createBuffer);
+	private final    AtomicIntegerArray  reported = new AtomicIntegerArray(ImportStatus.values().length);
+	private volatile boolean             hasError = false;
+
+	/**
+	 * Adds the result unless its status doesn't allow multiple results and has been reported before. This is safe to call from any thread.
+	 */
+	public void add(ImportResult result)
+	{
+		ImportStatus status = result.getStatus();
+
+		// Only the first thread to report a status like this gets to add it
+		if (!status.isAllowsMultiple() && !reported.compareAndSet(status.ordinal(), 0, 1))
+			return;
+
+		if (result.getType() == ImportResult.StatusType.ERROR)
+			hasError = true;
+
+		Buffer own = buffer.get();
+		if (own.add(result))
+			merge(own);
+	}
+
+	private Buffer createBuffer()
+	{
+		Buffer result = new Buffer();
+		buffers.add(result);
+		return result;
+	}
+
+	private void merge(Buffer source)
+	{
+		List<ImportResult> results = source.drain();
+
+		if (results.isEmpty())
+			return;
+
+		synchronized (lock)
+		{
+			results.forEach(this::store);
+		}
+	}
+
+	/**
+	 * Merges the buffers of all threads. Every method reading the results calls this first.
+	 */
+	private void mergeAll()
+	{
+		for (Buffer b : buffers)
+			merge(b);
+	}
+
+	private void store(ImportResult result)
+	{
+		int status = result.getStatus().ordinal();
+
+		counts[status]++;
+		total++;
+
+		if (types[status] == null)
+			types[status] = result.getType();
+
+		if (sample.size() < MAX_SAMPLE && sampleCounts[status] < MAX_SAMPLE_PER_STATUS)
+		{
+			sample.add(result);
+			sampleCounts[status]++;
+		}
+		else
+		{
+			spill(result);
+		}
+	}
+
+	private void spill(ImportResult result)
+	{
+		try
+		{
+			if (spill == null)
+			{
+				spillFile = Files.createTempFile("feedback", ".ndjson").toFile();
+				spill = Files.newBufferedWriter(spillFile.toPath(), StandardCharsets.UTF_8);
+			}
+
+			spill.write(GSON.toJson(result));
+			spill.write('\n');
+		}
+		catch (IOException e)
+		{
+			// The result is still counted, we just lose its message
+			e.printStackTrace();
+		}
+	}
+
+	public boolean hasError()
+	{
+		return hasError;
+	}
+
+	public int getCount(ImportStatus status)
+	{
+		mergeAll();
+
+		synchronized (lock)
+		{
+			return counts[status.ordinal()];
+		}
+	}
+
+	public int size()
+	{
+		mergeAll();
+
+		synchronized (lock)
+		{
+			return total;
+		}
+	}
+
+	/**
+	 * @return The sampled results followed by one summary result for each status that has been reported more often than it was sampled
+	 */
+	public List<ImportResult> getSample()
+	{
+		mergeAll();
+
+		synchronized (lock)
+		{
+			List<ImportResult> result = new ArrayList<>(sample);
+
+			for (ImportStatus status : ImportStatus.values())
+			{
+				int omitted = counts[status.ordinal()] - sampleCounts[status.ordinal()];
+
+				if (omitted > 0)
+					result.add(new ImportResult(status, -1, "... and " + omitted + " more. The full list is available in the job's feedback file.", types[status.ordinal()]));
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * Passes every result that has been added to the consumer, the sampled ones first and then the rest in the order they were added.
+	 */
+	public void forEach(Consumer<ImportResult> consumer)
+			throws IOException
+	{
+		mergeAll();
+
+		synchronized (lock)
+		{
+			sample.forEach(consumer);
+
+			if (spill == null)
+				return;
+
+			spill.flush();
+
+			try (BufferedReader br = Files.newBufferedReader(spillFile.toPath(), StandardCharsets.UTF_8))
+			{
+				String line;
+				while ((line = br.readLine()) != null)
+					consumer.accept(GSON.fromJson(line, ImportResult.class));
+			}
+		}
+	}
+
+	/**
+	 * Writes all results as NDJSON, one result per line, in the same order as {@link #forEach(Consumer)}.
+	 */
+	public void writeTo(File target)
+			throws IOException
+	{
+		mergeAll();
+
+		synchronized (lock)
+		{
+			write(target);
+		}
+	}
+
+	private void write(File target)
+			throws IOException
+	{
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target)))
+		{
+			Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			for (ImportResult result : sample)
+			{
+				writer.write(GSON.toJson(result));
+				writer.write('\n');
+			}
+			writer.flush();
+
+			// The spilled results are NDJSON already
+			if (spill != null)
+			{
+				spill.flush();
+				Files.copy(spillFile.toPath(), out);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the spill file. The sample stays available.
+	 */
+	@Override
+	public void close()
+	{
+		mergeAll();
+
+		synchronized (lock)
+		{
+			if (spill == null)
+				return;
+
+			try
+			{
+				spill.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+
+			spillFile.delete();
+			spill = null;
+			spillFile = null;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		mergeAll();
+
+		StringBuilder builder = new StringBuilder();
+
+		synchronized (lock)
+		{
+			for (ImportStatus status : ImportStatus.values())
+			{
+				int count = counts[status.ordinal()];
+
+				if (count > 0)
+					builder.append(builder.length() > 0 ? ", " : "").append(status).append(": ").append(count);
+			}
+		}
+
+		return "[" + builder + "]";
+	}
+
+	/**
+	 * The results of a single thread. Only that thread adds to it, so its lock is only ever contended while the buffer is being merged.
+	 */
+	private static class Buffer
+	{
+		private List<ImportResult> results = new ArrayList<>();
+
+		/**
+		 * @return Whether the buffer is full and should be merged
+		 */
+		private synchronized boolean add(ImportResult result)
+		{
+			results.add(result);
+			return results.size() >= BUFFER_SIZE;
+		}
+
+		private synchronized List<ImportResult> drain()
+		{
+			List<ImportResult> drained = results;
+			results = new ArrayList<>();
+			return drained;
+		}
+	}
+}
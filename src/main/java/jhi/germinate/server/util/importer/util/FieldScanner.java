@@ -0,0 +1,354 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * Reads tab-delimited files line by line without turning each line into a {@link String}. Only the offsets of the fields within the raw bytes are
+ * recorded, a field is decoded when it's asked for. Genotype files have tens of thousands of columns, most of which the check and the collection of
+ * marker and germplasm names never look at.
+ * <p>
+ * Plain files are memory-mapped in large windows, so their bytes aren't copied at all. Compressed files can't be mapped and are decompressed into
+ * a buffer instead. Lines are read as UTF-8 and may end in <code>\n</code> or <code>\r\n</code>. Not safe to use from several threads.
+ *
+ * @author Sebastian Raubach
+ */
+public class FieldScanner implements Closeable
+{
+	/** The largest part of a file that is mapped at once. No line can be longer than this. */
+	private static final long WINDOW_SIZE = 512 * 1024 * 1024;
+	/** The initial buffer size for compressed files, it grows to fit the longest line */
+	private static final int  BUFFER_SIZE = 1024 * 1024;
+
+	private final ImportProgress progress;
+	private final FileChannel    channel;
+	private final long           fileSize;
+	private final long           windowSize;
+	private final InputStream    stream;
+	private final ContentHash    hash;
+	/** The end of the part of a mapped file that has been added to the hash */
+	private       long           hashed = 0;
+
+	private ByteBuffer buffer;
+	private byte[]     bytes;
+	private long       windowStart = 0;
+	private boolean    eof         = false;
+
+	private int    position    = 0;
+	private int    lineStart   = 0;
+	private int    lineEnd     = 0;
+	private int[]  fieldStarts = new int[1024];
+	private int    fieldCount  = 0;
+	private long   lineNumber  = 0;
+	private byte[] scratch     = new byte[256];
+
+	private FieldScanner(ImportProgress progress, FileChannel channel, InputStream stream, ContentHash hash, long windowSize)
+			throws IOException
+	{
+		this.progress = progress;
+		this.channel = channel;
+		this.fileSize = channel == null ? -1 : channel.size();
+		this.windowSize = windowSize;
+		this.stream = stream;
+		this.hash = hash;
+
+		if (channel != null)
+		{
+			map(0);
+		}
+		else
+		{
+			this.bytes = new byte[BUFFER_SIZE];
+			this.buffer = ByteBuffer.wrap(bytes).limit(0);
+			fill();
+		}
+	}
+
+	/**
+	 * Opens the file for scanning. The bytes and lines read count towards the progress of the import, scanning throws an
+	 * {@link ImportCancelledException} once the import has been cancelled.
+	 */
+	public static FieldScanner open(File file, ImportProgress progress)
+			throws IOException
+	{
+		return open(file, progress, null);
+	}
+
+	/**
+	 * Opens the file for scanning and adds its raw bytes to the given hash as they are read.
+	 *
+	 * @param hash The hash of the file or <code>null</code> if it isn't needed
+	 */
+	public static FieldScanner open(File file, ImportProgress progress, ContentHash hash)
+			throws IOException
+	{
+		return open(file, progress, hash, WINDOW_SIZE);
+	}
+
+	/**
+	 * @param windowSize The largest part of a plain file to map at once, only smaller than {@link #WINDOW_SIZE} in tests
+	 */
+	static FieldScanner open(File file, ImportProgress progress, ContentHash hash, long windowSize)
+			throws IOException
+	{
+		if (CompressedInput.detect(file) == CompressedInput.Format.NONE)
+			return new FieldScanner(progress, FileChannel.open(file.toPath(), StandardOpenOption.READ), null, hash, windowSize);
+
+		InputStream raw = Files.newInputStream(file.toPath());
+		if (hash != null)
+			raw = hash.track(raw);
+
+		// Count the bytes as they are on disk, so they can be compared to the file size
+		InputStream is = CompressedInput.open(progress.track(raw));
+		return new FieldScanner(progress, null, is, null, windowSize);
+	}
+
+	/**
+	 * Moves to the next line.
+	 *
+	 * @return <code>false</code> if the end of the file has been reached
+	 */
+	public boolean nextLine()
+			throws IOException
+	{
+		while (true)
+		{
+			if (eof && position >= buffer.limit())
+				return false;
+
+			if (scanLine(position))
+				break;
+
+			// The line continues past the data we have, so get more and scan it again from the start
+			refill(position);
+		}
+
+		progress.addRows(1);
+		if (channel != null)
+			progress.addBytes(position - lineStart);
+
+		lineNumber++;
+		return true;
+	}
+
+	/**
+	 * Finds the end of the line starting at the given offset and the start of each of its fields.
+	 *
+	 * @return <code>false</code> if the line doesn't end within the buffer and there's more data to come
+	 */
+	private boolean scanLine(int start)
+	{
+		int limit = buffer.limit();
+		int count = 1;
+		fieldStarts[0] = start;
+
+		for (int i = start; i < limit; i++)
+		{
+			byte b = buffer.get(i);
+
+			if (b == '\t')
+			{
+				if (count == fieldStarts.length)
+					fieldStarts = Arrays.copyOf(fieldStarts, count * 2);
+
+				fieldStarts[count++] = i + 1;
+			}
+			else if (b == '\n')
+			{
+				setLine(start, i > start && buffer.get(i - 1) == '\r' ? i - 1 : i, count);
+				position = i + 1;
+				return true;
+			}
+		}
+
+		if (!eof)
+			return false;
+
+		// The last line doesn't have a line break
+		setLine(start, limit, count);
+		position = limit;
+		return true;
+	}
+
+	private void setLine(int start, int end, int count)
+	{
+		lineStart = start;
+		lineEnd = end;
+		fieldCount = count;
+	}
+
+	/**
+	 * Makes the data from the given offset onwards available at the start of the buffer, together with as much of what follows as fits.
+	 */
+	private void refill(int keep)
+			throws IOException
+	{
+		if (channel != null)
+		{
+			if (keep == 0)
+				throw new IOException("Line " + (lineNumber + 1) + " is longer than " + windowSize + " bytes");
+
+			map(windowStart + keep);
+		}
+		else
+		{
+			int remaining = buffer.limit() - keep;
+
+			// A single line fills the whole buffer
+			if (keep == 0)
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+
+			System.arraycopy(bytes, keep, bytes, 0, remaining);
+			buffer = ByteBuffer.wrap(bytes).limit(remaining);
+			fill();
+		}
+
+		position = 0;
+	}
+
+	private void map(long start)
+			throws IOException
+	{
+		long size = Math.min(windowSize, fileSize - start);
+
+		windowStart = start;
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		eof = start + size == fileSize;
+
+		// Windows overlap by the line that didn't fit into the previous one
+		if (hash != null && start + size > hashed)
+		{
+			hash.update(buffer.slice((int) (hashed - start), (int) (start + size - hashed)));
+			hashed = start + size;
+		}
+	}
+
+	/**
+	 * Reads from the stream until the buffer is full or the stream has ended.
+	 */
+	private void fill()
+			throws IOException
+	{
+		int limit = buffer.limit();
+
+		while (limit < bytes.length)
+		{
+			int read = stream.read(bytes, limit, bytes.length - limit);
+
+			if (read == -1)
+			{
+				eof = true;
+				break;
+			}
+
+			limit += read;
+		}
+
+		buffer.limit(limit);
+	}
+
+	/**
+	 * @return The number of the current line, starting at 1
+	 */
+	public long getLineNumber()
+	{
+		return lineNumber;
+	}
+
+	/**
+	 * @return The number of fields on the current line, which is one more than the number of tabs
+	 */
+	public int getFieldCount()
+	{
+		return fieldCount;
+	}
+
+	public boolean isEmpty()
+	{
+		return lineEnd == lineStart;
+	}
+
+	public boolean isFieldEmpty(int index)
+	{
+		return getFieldEnd(index) == fieldStarts[index];
+	}
+
+	/**
+	 * @return <code>true</code> if the current line starts with the given ASCII text
+	 */
+	public boolean startsWith(String prefix)
+	{
+		if (lineEnd - lineStart < prefix.length())
+			return false;
+
+		for (int i = 0; i < prefix.length(); i++)
+		{
+			if (buffer.get(lineStart + i) != prefix.charAt(i))
+				return false;
+		}
+
+		return true;
+	}
+
+	public String getField(int index)
+	{
+		if (index < 0 || index >= fieldCount)
+			throw new IndexOutOfBoundsException("Field " + index + " of " + fieldCount + " on line " + lineNumber);
+
+		return decode(fieldStarts[index], getFieldEnd(index));
+	}
+
+	/**
+	 * @return The fields from the given index to the end of the line
+	 */
+	public String[] getFields(int from)
+	{
+		String[] result = new String[Math.max(0, fieldCount - from)];
+
+		for (int i = 0; i < result.length; i++)
+			result[i] = getField(from + i);
+
+		return result;
+	}
+
+	/**
+	 * @return The whole line without its line break
+	 */
+	public String getLine()
+	{
+		return decode(lineStart, lineEnd);
+	}
+
+	private int getFieldEnd(int index)
+	{
+		return index == fieldCount - 1 ? lineEnd : fieldStarts[index + 1] - 1;
+	}
+
+	private String decode(int start, int end)
+	{
+		int length = end - start;
+
+		if (bytes != null)
+			return new String(bytes, start, length, StandardCharsets.UTF_8);
+
+		if (scratch.length < length)
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+
+		buffer.get(start, scratch, 0, length);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close()
+			throws IOException
+	{
+		if (channel != null)
+			channel.close();
+		if (stream != null)
+			stream.close();
+	}
+}
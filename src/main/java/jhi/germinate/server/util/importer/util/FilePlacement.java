@@ -0,0 +1,173 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.logging.Logger;
+import java.util.zip.*;
+
+/**
+ * Puts files where Germinate expects them with as little I/O as possible. Uploads and their backups are never modified once written, so a copy
+ * can share its data with the original through a hard link, and a move within a volume is a rename. Only when the two locations are on different
+ * volumes, or the file system doesn't support links, is the data actually copied. The target only ever appears complete, as copies are written
+ * next to it first and then renamed. The same goes for compressed copies.
+ *
+ * @author Sebastian Raubach
+ */
+public class FilePlacement
+{
+	public enum Method
+	{
+		LINK,
+		MOVE,
+		COPY
+	}
+
+	private FilePlacement()
+	{
+	}
+
+	/**
+	 * Places a copy of the source at the target, replacing whatever is there. The source stays where it is.
+	 *
+	 * @return How the file has been placed
+	 */
+	public static Method copy(Path source, Path target)
+			throws IOException
+	{
+		Method method;
+
+		try
+		{
+			Path temp = createTemp(target);
+			Files.delete(temp);
+
+			try
+			{
+				Files.createLink(temp, source);
+				moveAtomically(temp, target);
+			}
+			finally
+			{
+				Files.deleteIfExists(temp);
+			}
+
+			method = Method.LINK;
+		}
+		catch (UnsupportedOperationException | FileSystemException e)
+		{
+			// Different volumes or no support for hard links
+			copyViaTemp(source, target);
+			method = Method.COPY;
+		}
+
+		log(method, source, target);
+		return method;
+	}
+
+	/**
+	 * Moves the source to the target, replacing whatever is there.
+	 *
+	 * @return How the file has been placed
+	 */
+	public static Method move(Path source, Path target)
+			throws IOException
+	{
+		Method method;
+
+		try
+		{
+			moveAtomically(source, target);
+			method = Method.MOVE;
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			// Different volumes, so the data has to be copied
+			copyViaTemp(source, target);
+			Files.delete(source);
+			method = Method.COPY;
+		}
+
+		log(method, source, target);
+		return method;
+	}
+
+	/**
+	 * Writes a gzip compressed copy of the source to the target in a single pass, replacing whatever is there. The source stays where it is.
+	 * Favours speed over size, as this is meant for backups of text files, which compress well either way.
+	 *
+	 * @return The size of the compressed file
+	 */
+	public static long compress(Path source, Path target)
+			throws IOException
+	{
+		Path temp = createTemp(target);
+
+		try
+		{
+			try (InputStream is = Files.newInputStream(source);
+				 OutputStream os = new FastGzipOutputStream(Files.newOutputStream(temp)))
+			{
+				is.transferTo(os);
+			}
+
+			long size = Files.size(temp);
+			moveAtomically(temp, target);
+
+			Logger.getLogger("").info("Compressed " + source + " (" + Files.size(source) + " bytes) to " + target + " (" + size + " bytes)");
+			return size;
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void copyViaTemp(Path source, Path target)
+			throws IOException
+	{
+		Path temp = createTemp(target);
+
+		try
+		{
+			Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+			moveAtomically(temp, target);
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void moveAtomically(Path source, Path target)
+			throws IOException
+	{
+		Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return A new file in the folder of the target, so renaming it to the target can't cross volumes
+	 */
+	private static Path createTemp(Path target)
+			throws IOException
+	{
+		Path folder = target.toAbsolutePath().getParent();
+		Files.createDirectories(folder);
+
+		return Files.createTempFile(folder, target.getFileName().toString(), ".temp");
+	}
+
+	private static void log(Method method, Path source, Path target)
+	{
+		Logger.getLogger("").info("Placed " + source + " at " + target + " using " + method);
+	}
+
+	private static class FastGzipOutputStream extends GZIPOutputStream
+	{
+		public FastGzipOutputStream(OutputStream out)
+				throws IOException
+		{
+			super(out, 65536);
+			def.setLevel(Deflater.BEST_SPEED);
+		}
+	}
+}
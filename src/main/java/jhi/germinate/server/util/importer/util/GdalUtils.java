@@ -22,10 +22,16 @@ public class GdalUtils
 			params.add(0, "cmd.exe");
 		}
 
+		ImportEvents.Gdal event = new ImportEvents.Gdal();
+		event.begin();
+
 		ProcessBuilder builder = new ProcessBuilder().command(params);
 		Process proc = builder.start();
 		String json = captureJsonOutput(proc);
 		int result = proc.waitFor();
+
+		commit(event, "gdalinfo", file, null, result);
+
 		if (result == 0)
 			return new Gson().fromJson(json, GdalInfo.class);
 		else
@@ -51,10 +57,17 @@ public class GdalUtils
 			params.add(0, "cmd.exe");
 		}
 
+		ImportEvents.Gdal event = new ImportEvents.Gdal();
+		event.begin();
+
 		ProcessBuilder builder = new ProcessBuilder().command(params);
 
 		Process proc = builder.start();
-		return proc.waitFor() == 0;
+		int result = proc.waitFor();
+
+		commit(event, "gdalwarp", input, output, result);
+
+		return result == 0;
 	}
 
 	public static boolean gdal_translate(File input, File output)
@@ -94,10 +107,31 @@ public class GdalUtils
 			params.add(0, "cmd.exe");
 		}
 
+		ImportEvents.Gdal event = new ImportEvents.Gdal();
+		event.begin();
+
 		ProcessBuilder builder = new ProcessBuilder().command(params);
 
 		Process proc = builder.start();
-		return proc.waitFor() == 0;
+		int result = proc.waitFor();
+
+		commit(event, "gdal_translate", input, output, result);
+
+		return result == 0;
+	}
+
+	private static void commit(ImportEvents.Gdal event, String command, File input, File output, int exitCode)
+	{
+		event.end();
+
+		if (event.shouldCommit())
+		{
+			event.command = command;
+			event.inputBytes = input.length();
+			event.outputBytes = output == null ? 0 : output.length();
+			event.exitCode = exitCode;
+			event.commit();
+		}
 	}
 
 	private static String captureJsonOutput(Process process)
@@ -0,0 +1,241 @@
+package jhi.germinate.server.util.importer.util;
+
+import ch.systemsx.cisd.hdf5.*;
+import jhi.germinate.server.database.pojo.ImportStatus;
+import jhi.germinate.server.util.importer.task.ErrorCallback;
+
+import java.io.*;
+import java.util.*;
+
+import static jhi.germinate.server.util.hdf5.AbstractHdf5Converter.*;
+
+/**
+ * Streams genotype rows into an HDF5 file using the same layout as the {@link jhi.germinate.server.util.hdf5.FJTabbedToHdf5Converter}, but
+ * without reading the input file itself. Incoming rows are either germplasm lines (Flapjack) or markers (HapMap, VCF, PLINK). They are cached and
+ * written in blocks, either as rows or as columns of the target matrix, which is lines x markers or, if transposed, markers x lines. The data set
+ * grows with each block, so the number of rows doesn't have to be known up front.
+ * <p>
+ * This replaces the <code>FJTabbedToHdf5Task</code> the Flapjack importer used to convert its file with. The importers using it write to a
+ * staging file in the job folder and put it in place with {@link FilePlacement#move(java.nio.file.Path, java.nio.file.Path)}.
+ *
+ * @author Sebastian Raubach
+ */
+public class Hdf5GenotypeWriter<T> implements FanOut.Sink<T>
+{
+	private static final long CHUNK_LIMIT = 4294967296L;
+
+	/**
+	 * Decodes Flapjack rows: the germplasm name followed by one allele per marker.
+	 */
+	public static final RowDecoder<String> FLAPJACK = (line, writer) -> {
+		int index = line.indexOf('\t');
+
+		if (index == -1)
+			return;
+
+		String[] alleles = line.substring(index + 1).split("\t", -1);
+
+		byte[] row = new byte[alleles.length];
+		for (int i = 0; i < alleles.length; i++)
+			row[i] = writer.getState(alleles[i]);
+
+		writer.addRow(line.substring(0, index), row);
+	};
+
+	/**
+	 * Decodes HapMap rows: the marker name and ten more columns describing it, followed by one allele per germplasm line.
+	 */
+	public static final RowDecoder<String> HAPMAP = (line, writer) -> {
+		String[] fields = line.split("\t", -1);
+
+		// Rows that are too short end up empty, so they're reported as not matching the header
+		byte[] row = new byte[Math.max(0, fields.length - 11)];
+		for (int i = 0; i < row.length; i++)
+			row[i] = writer.getState(fields[i + 11]);
+
+		writer.addRow(fields[0], row);
+	};
+
+	private final File          hdf5;
+	private final String[]      columns;
+	private final boolean       rowsAreLines;
+	private final boolean       rowsAsColumns;
+	private final int           cacheSize;
+	private final RowDecoder<T> decoder;
+	private final ErrorCallback errorCallback;
+
+	private final LinkedHashMap<String, Byte> stateTable = new LinkedHashMap<>();
+	private final List<String>                rows       = new ArrayList<>();
+	private final List<byte[]>                cache      = new ArrayList<>();
+
+	private IHDF5Writer                 writer;
+	private long                        written  = 0;
+	private int                         received = 0;
+	private ImportEvents.Hdf5Conversion event;
+
+	/**
+	 * @param hdf5          The target file, which is replaced if it exists
+	 * @param columns       The names of the fixed dimension, i.e. the markers if the rows are germplasm lines and vice versa
+	 * @param rowsAreLines  Whether each incoming row is a germplasm line (<code>true</code>) or a marker (<code>false</code>)
+	 * @param transpose     Whether to write the markers x lines matrix instead of the lines x markers one
+	 * @param decoder       Turns each incoming item into calls to {@link #addRow(String, byte[])}
+	 * @param errorCallback Told about rows that are skipped, can be <code>null</code> if another writer gets the same rows and reports them
+	 */
+	public Hdf5GenotypeWriter(File hdf5, String[] columns, boolean rowsAreLines, boolean transpose, RowDecoder<T> decoder, ErrorCallback errorCallback)
+	{
+		this.hdf5 = hdf5;
+		this.columns = columns;
+		this.rowsAreLines = rowsAreLines;
+		this.rowsAsColumns = rowsAreLines == transpose;
+		this.cacheSize = columns.length > 2000000 ? 10 : 100;
+		this.decoder = decoder;
+		this.errorCallback = errorCallback;
+
+		stateTable.put("", (byte) 0);
+	}
+
+	@Override
+	public void accept(T item)
+			throws IOException
+	{
+		decoder.decode(item, this);
+	}
+
+	public int getColumnCount()
+	{
+		return columns.length;
+	}
+
+	/**
+	 * Returns the state table index of the given allele, adding it if it's new.
+	 */
+	public byte getState(String allele)
+	{
+		Byte state = stateTable.get(allele);
+
+		if (state == null)
+		{
+			state = (byte) stateTable.size();
+			stateTable.put(allele, state);
+		}
+
+		return state;
+	}
+
+	/**
+	 * Adds a row of state table indices. Rows that don't match the number of columns are skipped and reported as an error.
+	 */
+	public void addRow(String name, byte[] row)
+	{
+		received++;
+
+		if (row.length != columns.length)
+		{
+			if (errorCallback != null)
+				errorCallback.onError(ImportStatus.GENOTYPE_HEADER_LENGTH_MISMATCH, received, "Row " + name + " has " + row.length + " values, expected " + columns.length + ".");
+			return;
+		}
+
+		if (writer == null)
+			open();
+
+		rows.add(name);
+		cache.add(row);
+
+		if (cache.size() >= cacheSize)
+			writeCache();
+	}
+
+	private void open()
+	{
+		event = new ImportEvents.Hdf5Conversion();
+		event.begin();
+
+		// The callers create the target up front, and an empty file isn't valid HDF5, so don't open it but replace it
+		writer = HDF5Factory.configure(hdf5).overwrite().writer();
+
+		// The row dimension starts empty and is extended with every block that gets written
+		int columnChunk = (int) Math.min(columns.length, Math.max(1, CHUNK_LIMIT / cacheSize));
+		if (rowsAsColumns)
+			writer.int8().createMatrix(DATA, columns.length, 0, columnChunk, cacheSize);
+		else
+			writer.int8().createMatrix(DATA, 0, columns.length, cacheSize, columnChunk);
+	}
+
+	private void writeCache()
+	{
+		if (cache.isEmpty())
+			return;
+
+		if (rowsAsColumns)
+		{
+			byte[][] block = new byte[columns.length][cache.size()];
+			for (int r = 0; r < cache.size(); r++)
+			{
+				byte[] row = cache.get(r);
+				for (int c = 0; c < row.length; c++)
+					block[c][r] = row[c];
+			}
+
+			writer.int8().writeMatrixBlockWithOffset(DATA, block, 0, written);
+		}
+		else
+		{
+			writer.int8().writeMatrixBlockWithOffset(DATA, cache.toArray(new byte[0][]), written, 0);
+		}
+
+		written += cache.size();
+		cache.clear();
+	}
+
+	@Override
+	public void finish()
+			throws IOException
+	{
+		if (writer == null)
+			open();
+
+		try
+		{
+			writeCache();
+
+			String[] rowNames = rows.toArray(new String[0]);
+			writer.string().writeArray(MARKERS, rowsAreLines ? columns : rowNames, HDF5GenericStorageFeatures.GENERIC_DEFLATE);
+			writer.string().writeArray(LINES, rowsAreLines ? rowNames : columns, HDF5GenericStorageFeatures.GENERIC_DEFLATE);
+			writer.string().writeArray(STATE_TABLE, stateTable.keySet().toArray(new String[0]), HDF5GenericStorageFeatures.GENERIC_DEFLATE);
+		}
+		catch (RuntimeException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		event.end();
+		if (event.shouldCommit())
+		{
+			event.file = hdf5.getName();
+			event.transposed = rowsAreLines == rowsAsColumns;
+			event.rows = written;
+			event.bytes = hdf5.length();
+			event.commit();
+		}
+	}
+
+	@Override
+	public void abort()
+	{
+		if (writer != null)
+			writer.close();
+
+		hdf5.delete();
+	}
+
+	public interface RowDecoder<T>
+	{
+		void decode(T item, Hdf5GenotypeWriter<T> writer)
+				throws IOException;
+	}
+}
@@ -0,0 +1,14 @@
+package jhi.germinate.server.util.importer.util;
+
+/**
+ * Thrown from within an import once it has been cancelled, so that it unwinds through all loops and releases its resources on the way.
+ *
+ * @author Sebastian Raubach
+ */
+public class ImportCancelledException extends RuntimeException
+{
+	public ImportCancelledException()
+	{
+		super("The import has been cancelled");
+	}
+}
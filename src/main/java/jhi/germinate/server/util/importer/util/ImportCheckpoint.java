@@ -0,0 +1,124 @@
+package jhi.germinate.server.util.importer.util;
+
+import com.google.gson.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * How far an import has got, stored in the job folder while the import is running. If the import dies, e.g. because the database restarted, the
+ * job can be resumed from here instead of importing everything again. For each part of the input, e.g. a sheet, it holds the position up to
+ * which everything has been imported, the ids of the entities the rest of the import builds on, e.g. its dataset, and the number of entities
+ * created so far for the stats.
+ * <p>
+ * The checkpoint is written once the data it covers has been committed, so it may lag behind by the last batch. Importers have to be able to
+ * repeat that batch.
+ *
+ * @author Sebastian Raubach
+ */
+public class ImportCheckpoint
+{
+	private static final Gson GSON = new Gson();
+
+	private final Map<String, Integer> positions = new HashMap<>();
+	private final Map<String, Integer> ids       = new HashMap<>();
+	private final Map<String, Integer> created   = new HashMap<>();
+	private       long                 updatedOn;
+
+	/**
+	 * @return The checkpoint or <code>null</code> if there isn't one or it can't be read
+	 */
+	public static ImportCheckpoint read(File file)
+	{
+		if (file == null || !file.exists())
+			return null;
+
+		try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+		{
+			return GSON.fromJson(reader, ImportCheckpoint.class);
+		}
+		catch (IOException | JsonParseException e)
+		{
+			Logger.getLogger("").log(Level.WARNING, "Unable to read checkpoint " + file.getAbsolutePath(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the checkpoint. The file is replaced atomically, so a crash while writing leaves the previous checkpoint intact.
+	 */
+	public synchronized void write(File file)
+			throws IOException
+	{
+		updatedOn = System.currentTimeMillis();
+
+		File temp = File.createTempFile(file.getName(), ".temp", file.getParentFile());
+
+		try
+		{
+			try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8))
+			{
+				GSON.toJson(this, writer);
+			}
+
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			temp.delete();
+		}
+	}
+
+	/**
+	 * @return The position up to which the part has been imported or <code>-1</code> if none of it has
+	 */
+	public synchronized int getPosition(String part)
+	{
+		return positions.getOrDefault(part, -1);
+	}
+
+	public synchronized void setPosition(String part, int position)
+	{
+		positions.put(part, position);
+	}
+
+	/**
+	 * @return The id of the entity of the kind or <code>null</code> if it hasn't been created yet
+	 */
+	public synchronized Integer getId(String kind)
+	{
+		return ids.get(kind);
+	}
+
+	public synchronized void setId(String kind, Integer id)
+	{
+		ids.put(kind, id);
+	}
+
+	/**
+	 * @return The number of entities of the kind created before the checkpoint
+	 */
+	public synchronized int getCreated(String kind)
+	{
+		return created.getOrDefault(kind, 0);
+	}
+
+	public synchronized void setCreated(String kind, int count)
+	{
+		created.put(kind, count);
+	}
+
+	public synchronized boolean isEmpty()
+	{
+		return positions.isEmpty() && ids.isEmpty();
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "positions=" + positions + ", ids=" + ids + ", created=" + created + ", updatedOn=" + new Date(updatedOn);
+	}
+}
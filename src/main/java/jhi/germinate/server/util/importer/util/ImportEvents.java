@@ -0,0 +1,134 @@
+package jhi.germinate.server.util.importer.util;
+
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder events for the expensive parts of an import. They cost next to nothing unless a recording is running, e.g. when the
+ * importer is started with <code>-XX:StartFlightRecording</code>, in which case they show where the time and allocations of a job go.
+ *
+ * @author Sebastian Raubach
+ */
+public class ImportEvents
+{
+	private static final String CATEGORY = "Germinate Importer";
+
+	private ImportEvents()
+	{
+	}
+
+	@Name("jhi.germinate.importer.ExcelParse")
+	@Label("Excel Parse")
+	@Description("One pass of an importer over an Excel workbook")
+	@Category(CATEGORY)
+	public static class ExcelParse extends Event
+	{
+		@Label("File")
+		public String file;
+
+		@Label("Phase")
+		public String phase;
+
+		@Label("Rows")
+		public long rows;
+
+		@Label("Bytes")
+		@DataAmount
+		public long bytes;
+	}
+
+	@Name("jhi.germinate.importer.BatchStore")
+	@Label("Batch Store")
+	@Description("A jOOQ batch store of new records")
+	@Category(CATEGORY)
+	public static class BatchStore extends Event
+	{
+		@Label("Table")
+		public String table;
+
+		@Label("Rows")
+		public long rows;
+	}
+
+	@Name("jhi.germinate.importer.LoadInto")
+	@Label("Load Into")
+	@Description("A bulk load of a temporary file into a table")
+	@Category(CATEGORY)
+	public static class LoadInto extends Event
+	{
+		@Label("Table")
+		public String table;
+
+		@Label("Rows")
+		public long rows;
+
+		@Label("Bytes")
+		@DataAmount
+		public long bytes;
+	}
+
+	@Name("jhi.germinate.importer.GermplasmLookup")
+	@Label("Germplasm Lookup")
+	@Description("Resolving the germplasm names used by an import")
+	@Category(CATEGORY)
+	public static class GermplasmLookup extends Event
+	{
+		@Label("Mode")
+		@Description("snapshot, full or targeted")
+		public String mode;
+
+		@Label("Identifiers")
+		@Description("The number of distinct identifiers the importer asked for")
+		public long identifiers;
+
+		@Label("Rows")
+		@Description("The number of germplasm names loaded")
+		public long rows;
+
+		@Label("Bytes")
+		@Description("The size of the snapshot file")
+		@DataAmount
+		public long bytes;
+	}
+
+	@Name("jhi.germinate.importer.Hdf5Conversion")
+	@Label("HDF5 Conversion")
+	@Description("Writing a genotype HDF5 file")
+	@Category(CATEGORY)
+	public static class Hdf5Conversion extends Event
+	{
+		@Label("File")
+		public String file;
+
+		@Label("Transposed")
+		public boolean transposed;
+
+		@Label("Rows")
+		public long rows;
+
+		@Label("Bytes")
+		@Description("The size of the written file")
+		@DataAmount
+		public long bytes;
+	}
+
+	@Name("jhi.germinate.importer.Gdal")
+	@Label("GDAL Process")
+	@Description("A call to one of the GDAL command line tools")
+	@Category(CATEGORY)
+	public static class Gdal extends Event
+	{
+		@Label("Command")
+		public String command;
+
+		@Label("Input Bytes")
+		@DataAmount
+		public long inputBytes;
+
+		@Label("Output Bytes")
+		@DataAmount
+		public long outputBytes;
+
+		@Label("Exit Code")
+		public int exitCode;
+	}
+}
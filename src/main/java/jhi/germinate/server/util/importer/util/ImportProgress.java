@@ -0,0 +1,247 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.io.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks how far an import has got. Importers feed it the rows they process and the bytes they read, which is cheap enough to do for every
+ * single row and from any thread. The importer takes a {@link Snapshot} of it every now and then to store it with the job.
+ *
+ * @author Sebastian Raubach
+ */
+public class ImportProgress
+{
+	public enum Phase
+	{
+		PREPARE("prepare"),
+		CHECK("check"),
+		IMPORT("import"),
+		POST_IMPORT("postImport");
+
+		private final String label;
+
+		Phase(String label)
+		{
+			this.label = label;
+		}
+
+		public String getLabel()
+		{
+			return label;
+		}
+	}
+
+	private final    CancellationToken cancellation;
+	private final    LongAdder         rows       = new LongAdder();
+	private final    LongAdder         bytes      = new LongAdder();
+	private volatile Phase             phase      = null;
+	private volatile long              phaseStart = System.nanoTime();
+	private volatile long              totalBytes = -1;
+
+	/**
+	 * @param cancellation Checked whenever rows are counted, as that happens in every loop over the input
+	 */
+	public ImportProgress(CancellationToken cancellation)
+	{
+		this.cancellation = cancellation;
+	}
+
+	/**
+	 * Starts a new phase. The rows and bytes are counted per phase, as the check and the import each read the whole file.
+	 */
+	public void startPhase(Phase phase)
+	{
+		rows.reset();
+		bytes.reset();
+		phaseStart = System.nanoTime();
+		this.phase = phase;
+	}
+
+	/**
+	 * Ends the current phase without starting a new one.
+	 *
+	 * @return The final progress of the phase or <code>null</code> if there wasn't one
+	 */
+	public Snapshot finishPhase()
+	{
+		if (phase == null)
+			return null;
+
+		Snapshot result = snapshot();
+		phase = null;
+		return result;
+	}
+
+	public Phase getPhase()
+	{
+		return phase;
+	}
+
+	/**
+	 * @throws ImportCancelledException If the import has been cancelled
+	 */
+	public void addRows(long count)
+	{
+		cancellation.throwIfCancelled();
+		rows.add(count);
+	}
+
+	public void addBytes(long count)
+	{
+		bytes.add(count);
+	}
+
+	/**
+	 * @param totalBytes The number of bytes each phase is expected to read or <code>-1</code> if unknown. Used to estimate the remaining time.
+	 */
+	public void setTotalBytes(long totalBytes)
+	{
+		this.totalBytes = totalBytes;
+	}
+
+	/**
+	 * Wraps the stream so that everything read from it counts towards the bytes of the current phase.
+	 */
+	public InputStream track(InputStream is)
+	{
+		return new FilterInputStream(is)
+		{
+			@Override
+			public int read()
+					throws IOException
+			{
+				int result = super.read();
+				if (result != -1)
+					bytes.increment();
+				return result;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len)
+					throws IOException
+			{
+				int result = super.read(b, off, len);
+				if (result > 0)
+					bytes.add(result);
+				return result;
+			}
+
+			@Override
+			public long skip(long n)
+					throws IOException
+			{
+				long result = super.skip(n);
+				bytes.add(result);
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Wraps the reader so that every line read from it counts towards the rows of the current phase. Reading throws an
+	 * {@link ImportCancelledException} once the import has been cancelled.
+	 */
+	public BufferedReader trackLines(Reader reader)
+	{
+		return new BufferedReader(reader, 65536)
+		{
+			@Override
+			public String readLine()
+					throws IOException
+			{
+				cancellation.throwIfCancelled();
+
+				String line = super.readLine();
+				if (line != null)
+					rows.increment();
+				return line;
+			}
+		};
+	}
+
+	public Snapshot snapshot()
+	{
+		return new Snapshot(phase, rows.sum(), bytes.sum(), totalBytes, System.nanoTime() - phaseStart);
+	}
+
+	/**
+	 * The progress at a point in time, as stored with the job.
+	 */
+	public static class Snapshot
+	{
+		private final Phase  phase;
+		private final long   rowsProcessed;
+		private final long   bytesConsumed;
+		private final Long   totalBytes;
+		private final double rowsPerSecond;
+		private final double bytesPerSecond;
+		private final Long   etaSeconds;
+
+		private final transient long elapsedNanos;
+
+		private Snapshot(Phase phase, long rows, long bytes, long totalBytes, long elapsedNanos)
+		{
+			double seconds = Math.max(elapsedNanos, 1) / 1e9;
+
+			this.elapsedNanos = elapsedNanos;
+			this.phase = phase;
+			this.rowsProcessed = rows;
+			this.bytesConsumed = bytes;
+			this.totalBytes = totalBytes < 0 ? null : totalBytes;
+			this.rowsPerSecond = rows / seconds;
+			this.bytesPerSecond = bytes / seconds;
+
+			// Only the bytes tell us how much is left, rows don't as we don't know how many there are
+			if (totalBytes > 0 && bytes > 0)
+				this.etaSeconds = Math.round(Math.max(totalBytes - bytes, 0) / bytesPerSecond);
+			else
+				this.etaSeconds = null;
+		}
+
+		public Phase getPhase()
+		{
+			return phase;
+		}
+
+		public long getRowsProcessed()
+		{
+			return rowsProcessed;
+		}
+
+		public long getBytesConsumed()
+		{
+			return bytesConsumed;
+		}
+
+		public Long getTotalBytes()
+		{
+			return totalBytes;
+		}
+
+		public double getRowsPerSecond()
+		{
+			return rowsPerSecond;
+		}
+
+		public double getBytesPerSecond()
+		{
+			return bytesPerSecond;
+		}
+
+		public Long getEtaSeconds()
+		{
+			return etaSeconds;
+		}
+
+		public long getElapsedNanos()
+		{
+			return elapsedNanos;
+		}
+
+		@Override
+		public String toString()
+		{
+			return phase + ": " + rowsProcessed + " rows, " + bytesConsumed + (totalBytes == null ? "" : "/" + totalBytes) + " bytes, " + Math.round(rowsPerSecond) + " rows/s" + (etaSeconds == null ? "" : ", ETA " + etaSeconds + "s");
+		}
+	}
+}
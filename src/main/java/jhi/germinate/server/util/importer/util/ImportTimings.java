@@ -0,0 +1,189 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects how long each phase and each background task of an import took and how many rows and bytes it processed. The breakdown is stored
+ * with the job, so slow imports can be narrowed down to the step responsible and regressions can be tracked over time. Entries can be added
+ * from any thread.
+ *
+ * @author Sebastian Raubach
+ */
+public class ImportTimings
+{
+	private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param name  The phase or task
+	 * @param nanos The wall time it took
+	 * @param rows  The number of rows it processed or <code>-1</code> if it doesn't work on rows
+	 * @param bytes The number of bytes it read or wrote or <code>-1</code> if unknown
+	 */
+	public void add(String name, long nanos, long rows, long bytes)
+	{
+		entries.add(new Entry(name, nanos, rows, bytes));
+	}
+
+	public Timer start(String name)
+	{
+		return new Timer(name);
+	}
+
+	/**
+	 * Wraps the consumer so that it's timed from the first item it receives until it has finished. Every item counts as a row.
+	 *
+	 * @param output The file the consumer writes, its size is recorded as the bytes. May be <code>null</code>.
+	 */
+	public <T> FanOut.Sink<T> time(String name, File output, FanOut.Sink<T> sink)
+	{
+		return new FanOut.Sink<>()
+		{
+			private Timer timer;
+
+			@Override
+			public void accept(T item)
+					throws IOException
+			{
+				if (timer == null)
+					timer = start(name);
+
+				sink.accept(item);
+				timer.addRows(1);
+			}
+
+			@Override
+			public void finish()
+					throws IOException
+			{
+				if (timer == null)
+					timer = start(name);
+
+				sink.finish();
+
+				if (output != null)
+					timer.addBytes(output.length());
+				timer.stop();
+			}
+
+			@Override
+			public void abort()
+			{
+				sink.abort();
+			}
+		};
+	}
+
+	public List<Entry> getEntries()
+	{
+		return new ArrayList<>(entries);
+	}
+
+	@Override
+	public String toString()
+	{
+		StringJoiner joiner = new StringJoiner(", ", "[", "]");
+		entries.forEach(e -> joiner.add(e.toString()));
+		return joiner.toString();
+	}
+
+	/**
+	 * Times a single phase or task. Rows and bytes can be added from any thread, the entry is added once {@link #stop()} is called.
+	 */
+	public class Timer
+	{
+		private final    String    name;
+		private final    long      start = System.nanoTime();
+		private final    LongAdder rows  = new LongAdder();
+		private final    LongAdder bytes = new LongAdder();
+		private volatile boolean   hasRows;
+		private volatile boolean   hasBytes;
+
+		private Timer(String name)
+		{
+			this.name = name;
+		}
+
+		public Timer addRows(long count)
+		{
+			rows.add(count);
+			hasRows = true;
+			return this;
+		}
+
+		public Timer addBytes(long count)
+		{
+			bytes.add(count);
+			hasBytes = true;
+			return this;
+		}
+
+		public void stop()
+		{
+			add(name, System.nanoTime() - start, hasRows ? rows.sum() : -1, hasBytes ? bytes.sum() : -1);
+		}
+	}
+
+	/**
+	 * The timing of a single phase or task, as stored with the job.
+	 */
+	public static class Entry
+	{
+		private final String name;
+		private final long   wallTimeMillis;
+		private final Long   rows;
+		private final Long   bytes;
+		private final Double rowsPerSecond;
+		private final Double bytesPerSecond;
+
+		private Entry(String name, long nanos, long rows, long bytes)
+		{
+			double seconds = Math.max(nanos, 1) / 1e9;
+
+			this.name = name;
+			this.wallTimeMillis = nanos / 1_000_000;
+			this.rows = rows < 0 ? null : rows;
+			this.bytes = bytes < 0 ? null : bytes;
+			this.rowsPerSecond = rows < 0 ? null : rows / seconds;
+			this.bytesPerSecond = bytes < 0 ? null : bytes / seconds;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public long getWallTimeMillis()
+		{
+			return wallTimeMillis;
+		}
+
+		public Long getRows()
+		{
+			return rows;
+		}
+
+		public Long getBytes()
+		{
+			return bytes;
+		}
+
+		public Double getRowsPerSecond()
+		{
+			return rowsPerSecond;
+		}
+
+		public Double getBytesPerSecond()
+		{
+			return bytesPerSecond;
+		}
+
+		@Override
+		public String toString()
+		{
+			return name + ": " + wallTimeMillis + "ms" + (rows == null ? "" : ", " + rows + " rows (" + Math.round(rowsPerSecond) + "/s)") + (bytes == null ? "" : ", " + bytes + " bytes (" + Math.round(bytesPerSecond) + "/s)");
+		}
+	}
+}
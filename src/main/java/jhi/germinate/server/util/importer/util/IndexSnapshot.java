@@ -0,0 +1,155 @@
+package jhi.germinate.server.util.importer.util;
+
+import org.jooq.*;
+import org.jooq.impl.DSL;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.sql.Timestamp;
+import java.util.logging.*;
+
+import static jhi.germinate.server.database.codegen.tables.Markers.MARKERS;
+
+/**
+ * A file holding one or more {@link NameIndex}es built from a database table, so that the next import can map it instead of loading the whole
+ * table again. The file is keyed by the table's row count and the latest <code>updated_on</code> value. Any insert, update or delete changes the
+ * key, so the snapshot is only reused while the table hasn't changed.
+ *
+ * @author Sebastian Raubach
+ */
+public class IndexSnapshot
+{
+	private static final int MAGIC   = 0x47494458;
+	private static final int VERSION = 1;
+
+	private final File file;
+	private final long rowCount;
+	private final long lastUpdate;
+
+	private IndexSnapshot(File file, long rowCount, long lastUpdate)
+	{
+		this.file = file;
+		this.rowCount = rowCount;
+		this.lastUpdate = lastUpdate;
+	}
+
+	/**
+	 * Determines the current key of the table.
+	 *
+	 * @param context   The database context
+	 * @param file      The snapshot file. May be <code>null</code>, in which case nothing is ever read or written.
+	 * @param table     The table the indexes are built from
+	 * @param updatedOn The table's <code>updated_on</code> column
+	 */
+	public static IndexSnapshot of(DSLContext context, File file, Table<?> table, Field<Timestamp> updatedOn)
+	{
+		Record2<Integer, Timestamp> key = context.select(DSL.count(), DSL.max(updatedOn))
+												 .from(table)
+												 .fetchOne();
+
+		Timestamp max = key.value2();
+
+		return new IndexSnapshot(file, key.value1(), max == null ? -1 : max.getTime());
+	}
+
+	/**
+	 * Loads the marker name to id index, using the snapshot in the given folder if the markers haven't changed since it was written.
+	 *
+	 * @param context        The database context
+	 * @param snapshotFolder The folder holding the snapshots. May be <code>null</code>.
+	 */
+	public static NameIndex loadMarkers(DSLContext context, File snapshotFolder)
+	{
+		IndexSnapshot snapshot = of(context, snapshotFolder == null ? null : new File(snapshotFolder, "markers.snapshot"), MARKERS, MARKERS.UPDATED_ON);
+		NameIndex[] indexes = snapshot.read();
+
+		if (indexes != null)
+			return indexes[0];
+
+		NameIndex markerToId = new NameIndex((int) Math.min(Integer.MAX_VALUE / 2, snapshot.getRowCount()));
+		context.select(MARKERS.ID, MARKERS.MARKER_NAME)
+			   .from(MARKERS)
+			   .forEach(m -> markerToId.put(m.get(MARKERS.MARKER_NAME), m.get(MARKERS.ID)));
+
+		snapshot.write(markerToId);
+
+		return markerToId;
+	}
+
+	public long getRowCount()
+	{
+		return rowCount;
+	}
+
+	/**
+	 * @return The indexes in the order they were written or <code>null</code> if there's no snapshot for the current key
+	 */
+	public NameIndex[] read()
+	{
+		if (file == null || !file.exists())
+			return null;
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != rowCount || buffer.getLong() != lastUpdate)
+				return null;
+
+			NameIndex[] indexes = new NameIndex[buffer.getInt()];
+			for (int i = 0; i < indexes.length; i++)
+				indexes[i] = NameIndex.readFrom(buffer);
+
+			return indexes;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			// A broken snapshot just means we have to go to the database
+			Logger.getLogger("").log(Level.WARNING, "Unable to read snapshot " + file.getAbsolutePath(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the indexes for the current key. The file is replaced atomically, so concurrent imports either see the old or the new snapshot.
+	 */
+	public void write(NameIndex... indexes)
+	{
+		if (file == null)
+			return;
+
+		try
+		{
+			file.getParentFile().mkdirs();
+			File temp = File.createTempFile(file.getName(), ".temp", file.getParentFile());
+
+			try
+			{
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536)))
+				{
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeLong(rowCount);
+					out.writeLong(lastUpdate);
+					out.writeInt(indexes.length);
+
+					for (NameIndex index : indexes)
+						index.writeTo(out);
+				}
+
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally
+			{
+				temp.delete();
+			}
+		}
+		catch (IOException e)
+		{
+			// The snapshot is only an optimization, so carry on without it
+			Logger.getLogger("").log(Level.WARNING, "Unable to write snapshot " + file.getAbsolutePath(), e);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package jhi.germinate.server.util.importer.util;
+
+import jhi.germinate.server.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Column store for marker names, chromosomes and positions. Chromosomes are dictionary encoded, positions are kept as primitive doubles and
+ * names are stored back to back as UTF-8 in a single byte array. This keeps millions of markers at a few bytes of overhead each instead of three
+ * {@link String} objects per marker.
+ *
+ * @author Sebastian Raubach
+ */
+public class MarkerTable
+{
+	private static final int NO_CHROMOSOME = -1;
+
+	private final List<String>         chromosomeDictionary = new ArrayList<>();
+	private final Map<String, Integer> chromosomeCodes      = new HashMap<>();
+
+	private byte[]   nameArena   = new byte[8192];
+	private int      arenaSize   = 0;
+	private int[]    nameOffsets = new int[1025];
+	private int[]    chromosomes = new int[1024];
+	private double[] positions   = new double[1024];
+	private int      size        = 0;
+
+	private int chromosomeValueCount = 0;
+	private int positionValueCount   = 0;
+
+	/**
+	 * Creates a table from the parallel header arrays of a Flapjack file. The chromosome and position arrays may be shorter than the markers.
+	 */
+	public static MarkerTable of(String[] markers, String[] chromosomes, String[] positions)
+	{
+		MarkerTable table = new MarkerTable();
+
+		for (int i = 0; i < markers.length; i++)
+			table.add(markers[i], i < chromosomes.length ? chromosomes[i] : null, i < positions.length ? positions[i] : null);
+
+		return table;
+	}
+
+	/**
+	 * Adds a marker. Empty chromosomes are stored as missing, positions that are empty or not numeric as {@link Double#NaN}.
+	 *
+	 * @return The index of the new marker
+	 */
+	public int add(String name, String chromosome, String position)
+	{
+		ensureCapacity(size + 1);
+
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (arenaSize + bytes.length > nameArena.length)
+			nameArena = Arrays.copyOf(nameArena, Math.max(nameArena.length * 2, arenaSize + bytes.length));
+		System.arraycopy(bytes, 0, nameArena, arenaSize, bytes.length);
+		arenaSize += bytes.length;
+		nameOffsets[size + 1] = arenaSize;
+
+		if (StringUtils.isEmpty(chromosome))
+		{
+			chromosomes[size] = NO_CHROMOSOME;
+		}
+		else
+		{
+			chromosomes[size] = chromosomeCodes.computeIfAbsent(chromosome, c -> {
+				chromosomeDictionary.add(c);
+				return chromosomeDictionary.size() - 1;
+			});
+			chromosomeValueCount++;
+		}
+
+		double value = Double.NaN;
+		if (!StringUtils.isEmpty(position))
+		{
+			positionValueCount++;
+
+			try
+			{
+				value = Double.parseDouble(position);
+			}
+			catch (NumberFormatException e)
+			{
+				// Stays NaN
+			}
+		}
+		positions[size] = value;
+
+		return size++;
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity <= chromosomes.length)
+			return;
+
+		int newCapacity = Math.max(capacity, chromosomes.length * 2);
+		nameOffsets = Arrays.copyOf(nameOffsets, newCapacity + 1);
+		chromosomes = Arrays.copyOf(chromosomes, newCapacity);
+		positions = Arrays.copyOf(positions, newCapacity);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public String getName(int index)
+	{
+		return new String(nameArena, nameOffsets[index], nameOffsets[index + 1] - nameOffsets[index], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The chromosome or <code>null</code> if the marker doesn't have one
+	 */
+	public String getChromosome(int index)
+	{
+		int code = chromosomes[index];
+		return code == NO_CHROMOSOME ? null : chromosomeDictionary.get(code);
+	}
+
+	public boolean hasPosition(int index)
+	{
+		return !Double.isNaN(positions[index]);
+	}
+
+	/**
+	 * @return The position or {@link Double#NaN} if the marker doesn't have a valid one
+	 */
+	public double getPosition(int index)
+	{
+		return positions[index];
+	}
+
+	/**
+	 * @return The number of markers with a non-empty chromosome
+	 */
+	public int getChromosomeValueCount()
+	{
+		return chromosomeValueCount;
+	}
+
+	/**
+	 * @return The number of markers with a non-empty position, including those that aren't valid numbers
+	 */
+	public int getPositionValueCount()
+	{
+		return positionValueCount;
+	}
+}
@@ -0,0 +1,354 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Case-insensitive mapping from names to primitive int ids. It replaces the <code>TreeMap&lt;String, Integer&gt;</code> with {@link
+ * String#CASE_INSENSITIVE_ORDER} that the importers used for germplasm and marker lookups. Names are stored back to back as UTF-8 in a single byte
+ * array and ids in an <code>int[]</code>, and lookups use open addressing on a case-folded hash, so they're O(1) and don't allocate.
+ * <p>
+ * Names are matched the same way {@link String#CASE_INSENSITIVE_ORDER} compares them. This class is not thread-safe.
+ *
+ * @author Sebastian Raubach
+ */
+public class NameIndex
+{
+	/** Returned by {@link #get(String)} if there's no entry for the name */
+	public static final int MISSING = Integer.MIN_VALUE;
+
+	private static final int EMPTY = -1;
+
+	private byte[] nameArena;
+	private int    arenaSize = 0;
+	private int[]  nameOffsets;
+	private int[]  hashes;
+	private int[]  values;
+	private int    size      = 0;
+
+	/** Entry index per slot or {@link #EMPTY} */
+	private int[] slots;
+	private int   mask;
+
+	public NameIndex()
+	{
+		this(1024);
+	}
+
+	/**
+	 * @param expectedSize The number of names this index will hold without having to grow
+	 */
+	public NameIndex(int expectedSize)
+	{
+		int capacity = Math.max(16, expectedSize);
+
+		nameArena = new byte[capacity * 8];
+		nameOffsets = new int[capacity + 1];
+		hashes = new int[capacity];
+		values = new int[capacity];
+
+		// Keep the load factor at or below one half
+		int slotCount = Integer.highestOneBit(capacity * 2 - 1) << 1;
+		slots = new int[slotCount];
+		Arrays.fill(slots, EMPTY);
+		mask = slotCount - 1;
+	}
+
+	private NameIndex(byte[] nameArena, int[] nameOffsets, int[] hashes, int[] values, int[] slots)
+	{
+		this.nameArena = nameArena;
+		this.arenaSize = nameArena.length;
+		this.nameOffsets = nameOffsets;
+		this.hashes = hashes;
+		this.values = values;
+		this.size = values.length;
+		this.slots = slots;
+		this.mask = slots.length - 1;
+	}
+
+	/**
+	 * Maps the name to the id, replacing the id of any name that only differs in case. <code>null</code> names are ignored.
+	 *
+	 * @return The previous id or {@link #MISSING} if there wasn't one
+	 */
+	public int put(String name, int id)
+	{
+		if (name == null)
+			return MISSING;
+
+		int hash = hash(name);
+		int slot = findSlot(name, hash);
+
+		int entry = slots[slot];
+
+		if (entry != EMPTY)
+		{
+			int previous = values[entry];
+			values[entry] = id;
+			return previous;
+		}
+
+		ensureCapacity(size + 1);
+
+		// At most three bytes per char
+		if (arenaSize + name.length() * 3 > nameArena.length)
+			nameArena = Arrays.copyOf(nameArena, Math.max(nameArena.length * 2, arenaSize + name.length() * 3));
+		arenaSize = encode(name, nameArena, arenaSize);
+		nameOffsets[size + 1] = arenaSize;
+		hashes[size] = hash;
+		values[size] = id;
+		slots[slot] = size++;
+
+		// Keep the load factor at or below one half
+		if (size * 2 > slots.length)
+			rehash(slots.length * 2);
+
+		return MISSING;
+	}
+
+	/**
+	 * @return The id of the name or {@link #MISSING} if there isn't one
+	 */
+	public int get(String name)
+	{
+		if (name == null)
+			return MISSING;
+
+		int entry = slots[findSlot(name, hash(name))];
+		return entry == EMPTY ? MISSING : values[entry];
+	}
+
+	/**
+	 * @return The id of the name or <code>null</code> if there isn't one
+	 */
+	public Integer getOrNull(String name)
+	{
+		int id = get(name);
+		return id == MISSING ? null : id;
+	}
+
+	public boolean containsKey(String name)
+	{
+		return get(name) != MISSING;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void forEachId(IntConsumer consumer)
+	{
+		for (int i = 0; i < size; i++)
+			consumer.accept(values[i]);
+	}
+
+	/**
+	 * Writes the arrays backing this index, including the hash table itself, so that {@link #readFrom(ByteBuffer)} doesn't have to rebuild it.
+	 */
+	public void writeTo(DataOutput out)
+			throws IOException
+	{
+		out.writeInt(size);
+		out.writeInt(arenaSize);
+		out.writeInt(slots.length);
+		out.write(nameArena, 0, arenaSize);
+		for (int i = 0; i <= size; i++)
+			out.writeInt(nameOffsets[i]);
+		for (int i = 0; i < size; i++)
+			out.writeInt(hashes[i]);
+		for (int i = 0; i < size; i++)
+			out.writeInt(values[i]);
+		for (int slot : slots)
+			out.writeInt(slot);
+	}
+
+	/**
+	 * Reads an index written by {@link #writeTo(DataOutput)} starting at the buffer's position and moves the position past it.
+	 */
+	public static NameIndex readFrom(ByteBuffer buffer)
+	{
+		int size = buffer.getInt();
+		int arenaSize = buffer.getInt();
+		int slotCount = buffer.getInt();
+
+		if (size < 0 || arenaSize < 0 || slotCount < 2 || Integer.bitCount(slotCount) != 1 || size * 2 > slotCount)
+			throw new IllegalArgumentException("Invalid name index header");
+
+		byte[] nameArena = new byte[arenaSize];
+		buffer.get(nameArena);
+
+		int[] nameOffsets = readInts(buffer, size + 1);
+		int[] hashes = readInts(buffer, size);
+		int[] values = readInts(buffer, size);
+		int[] slots = readInts(buffer, slotCount);
+
+		return new NameIndex(nameArena, nameOffsets, hashes, values, slots);
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int count)
+	{
+		int[] result = new int[count];
+		buffer.asIntBuffer().get(result);
+		buffer.position(buffer.position() + count * Integer.BYTES);
+		return result;
+	}
+
+	/**
+	 * @return The slot that holds the name or the empty slot where it would go
+	 */
+	private int findSlot(String name, int hash)
+	{
+		int slot = hash & mask;
+
+		while (true)
+		{
+			int entry = slots[slot];
+
+			if (entry == EMPTY || (hashes[entry] == hash && equalsIgnoreCase(entry, name)))
+				return slot;
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity <= values.length)
+			return;
+
+		int newCapacity = Math.max(capacity, values.length * 2);
+		nameOffsets = Arrays.copyOf(nameOffsets, newCapacity + 1);
+		hashes = Arrays.copyOf(hashes, newCapacity);
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	private void rehash(int slotCount)
+	{
+		slots = new int[slotCount];
+		Arrays.fill(slots, EMPTY);
+		mask = slotCount - 1;
+
+		for (int entry = 0; entry < size; entry++)
+		{
+			int slot = hashes[entry] & mask;
+			while (slots[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			slots[slot] = entry;
+		}
+	}
+
+	/**
+	 * Compares the UTF-8 name of the entry to the given name char by char, decoding the arena in place.
+	 */
+	private boolean equalsIgnoreCase(int entry, String name)
+	{
+		int pos = nameOffsets[entry];
+		int end = nameOffsets[entry + 1];
+		int length = name.length();
+		int i = 0;
+
+		while (pos < end)
+		{
+			int b = nameArena[pos] & 0xFF;
+			int codePoint;
+
+			if (b < 0x80)
+			{
+				codePoint = b;
+				pos++;
+			}
+			else if (b < 0xE0)
+			{
+				codePoint = ((b & 0x1F) << 6) | (nameArena[pos + 1] & 0x3F);
+				pos += 2;
+			}
+			else if (b < 0xF0)
+			{
+				codePoint = ((b & 0x0F) << 12) | ((nameArena[pos + 1] & 0x3F) << 6) | (nameArena[pos + 2] & 0x3F);
+				pos += 3;
+			}
+			else
+			{
+				codePoint = ((b & 0x07) << 18) | ((nameArena[pos + 1] & 0x3F) << 12) | ((nameArena[pos + 2] & 0x3F) << 6) | (nameArena[pos + 3] & 0x3F);
+				pos += 4;
+			}
+
+			if (Character.isBmpCodePoint(codePoint))
+			{
+				if (i >= length || fold((char) codePoint) != fold(name.charAt(i)))
+					return false;
+				i++;
+			}
+			else
+			{
+				if (i + 1 >= length || fold(Character.highSurrogate(codePoint)) != fold(name.charAt(i)) || fold(Character.lowSurrogate(codePoint)) != fold(name.charAt(i + 1)))
+					return false;
+				i += 2;
+			}
+		}
+
+		return i == length;
+	}
+
+	/**
+	 * Writes the name as UTF-8. Unpaired surrogates are kept as three byte sequences rather than replaced, so every name decodes to exactly the
+	 * chars it was added with.
+	 *
+	 * @return The position after the name
+	 */
+	private static int encode(String name, byte[] target, int pos)
+	{
+		for (int i = 0; i < name.length(); i++)
+		{
+			char c = name.charAt(i);
+
+			if (c < 0x80)
+			{
+				target[pos++] = (byte) c;
+			}
+			else if (c < 0x800)
+			{
+				target[pos++] = (byte) (0xC0 | (c >> 6));
+				target[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < name.length() && Character.isLowSurrogate(name.charAt(i + 1)))
+			{
+				int codePoint = Character.toCodePoint(c, name.charAt(++i));
+				target[pos++] = (byte) (0xF0 | (codePoint >> 18));
+				target[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				target[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				target[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+			}
+			else
+			{
+				target[pos++] = (byte) (0xE0 | (c >> 12));
+				target[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				target[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+
+		return pos;
+	}
+
+	private static int hash(String name)
+	{
+		int hash = 0;
+		for (int i = 0; i < name.length(); i++)
+			hash = 31 * hash + fold(name.charAt(i));
+
+		// Spread the bits, the table size is a power of two
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Folds the case the same way {@link String#CASE_INSENSITIVE_ORDER} does.
+	 */
+	private static char fold(char c)
+	{
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+}
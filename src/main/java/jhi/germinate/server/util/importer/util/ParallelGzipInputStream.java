@@ -0,0 +1,328 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.*;
+
+/**
+ * Decompresses gzip data on background threads, so the importer can parse while the next part of the file is being inflated. Files written by
+ * <code>bgzip</code>, as commonly used for genotype data, are a sequence of small independent blocks that each carry their compressed size. These
+ * are inflated by several threads at once and handed out in order. Any other gzip file has to be inflated from start to end, which then happens
+ * on a single background thread.
+ *
+ * @author Sebastian Raubach
+ */
+public class ParallelGzipInputStream extends InputStream
+{
+	/** Bytes inflated at a time from a regular gzip file */
+	private static final int    CHUNK_SIZE = 1024 * 1024;
+	/** Marks the end of the data in the queue */
+	private static final byte[] END        = new byte[0];
+
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private final InputStream                   in;
+	private final BlockingQueue<Future<byte[]>> blocks;
+	private final ExecutorService               inflaters;
+	private final Thread                        reader;
+	private       byte[]                        current  = new byte[0];
+	private       int                           position = 0;
+	private       boolean                       finished = false;
+
+	/**
+	 * @param in      The gzip data
+	 * @param threads The number of threads to inflate blocks with, if the data is made up of them
+	 */
+	public ParallelGzipInputStream(InputStream in, int threads)
+			throws IOException
+	{
+		this.in = in.markSupported() ? in : new BufferedInputStream(in, 65536);
+		this.blocks = new ArrayBlockingQueue<>(Math.max(threads, 1) * 4);
+
+		int id = COUNTER.incrementAndGet();
+
+		if (isBlocked(this.in))
+		{
+			this.inflaters = Executors.newFixedThreadPool(Math.max(threads, 1), r -> {
+				Thread thread = new Thread(r, "gzip-inflater-" + id);
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.reader = new Thread(this::readBlocks, "gzip-reader-" + id);
+		}
+		else
+		{
+			this.inflaters = null;
+			this.reader = new Thread(this::readStream, "gzip-reader-" + id);
+		}
+
+		this.reader.setDaemon(true);
+		this.reader.start();
+	}
+
+	/**
+	 * @return <code>true</code> if the first gzip member carries its size in a <code>BC</code> extra field as written by <code>bgzip</code>
+	 */
+	private static boolean isBlocked(InputStream in)
+			throws IOException
+	{
+		in.mark(16);
+		byte[] header = in.readNBytes(16);
+		in.reset();
+
+		return header.length == 16
+				&& (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B && header[2] == 8 && (header[3] & 0x04) != 0
+				&& readShort(header, 10) >= 6 && header[12] == 'B' && header[13] == 'C' && readShort(header, 14) == 2;
+	}
+
+	private void readBlocks()
+	{
+		try
+		{
+			while (true)
+			{
+				byte[] header = in.readNBytes(12);
+
+				if (header.length == 0)
+					break;
+				if (header.length < 12 || (header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B)
+					throw new ZipException("Invalid block header in gzip file");
+
+				int extraLength = readShort(header, 10);
+				byte[] extra = readFully(extraLength);
+				int blockSize = getBlockSize(extra);
+
+				if (blockSize < 0)
+					throw new ZipException("Block without size in gzip file");
+
+				byte[] rest = readFully(blockSize - 12 - extraLength);
+
+				blocks.put(inflaters.submit(() -> inflate(rest)));
+			}
+
+			blocks.put(CompletableFuture.completedFuture(END));
+		}
+		catch (InterruptedException e)
+		{
+			// The stream has been closed
+		}
+		catch (Exception e)
+		{
+			fail(e);
+		}
+	}
+
+	private void readStream()
+	{
+		try
+		{
+			InputStream gzip = new GZIPInputStream(in, 65536);
+
+			while (true)
+			{
+				byte[] chunk = gzip.readNBytes(CHUNK_SIZE);
+
+				if (chunk.length == 0)
+					break;
+
+				blocks.put(CompletableFuture.completedFuture(chunk));
+			}
+
+			blocks.put(CompletableFuture.completedFuture(END));
+		}
+		catch (InterruptedException e)
+		{
+			// The stream has been closed
+		}
+		catch (Exception e)
+		{
+			fail(e);
+		}
+	}
+
+	private void fail(Exception e)
+	{
+		try
+		{
+			// Fails straight away if the stream has been closed, as the reader has been interrupted
+			blocks.put(CompletableFuture.failedFuture(e));
+		}
+		catch (InterruptedException ex)
+		{
+			// Nobody is reading anymore
+		}
+	}
+
+	private byte[] readFully(int length)
+			throws IOException
+	{
+		if (length < 0)
+			throw new ZipException("Invalid block size in gzip file");
+
+		byte[] result = in.readNBytes(length);
+
+		if (result.length != length)
+			throw new EOFException("Unexpected end of gzip file");
+
+		return result;
+	}
+
+	/**
+	 * @return The total size of the block from its <code>BC</code> extra field or <code>-1</code> if there isn't one
+	 */
+	private static int getBlockSize(byte[] extra)
+	{
+		int i = 0;
+
+		while (i + 4 <= extra.length)
+		{
+			int length = readShort(extra, i + 2);
+
+			if (extra[i] == 'B' && extra[i + 1] == 'C' && length == 2 && i + 6 <= extra.length)
+				return readShort(extra, i + 4) + 1;
+
+			i += 4 + length;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @param rest The deflated data of a block, followed by its CRC32 and uncompressed size
+	 */
+	private static byte[] inflate(byte[] rest)
+			throws IOException
+	{
+		int dataLength = rest.length - 8;
+		int size = readInt(rest, dataLength + 4);
+		byte[] result = new byte[size];
+
+		Inflater inflater = new Inflater(true);
+
+		try
+		{
+			inflater.setInput(rest, 0, dataLength);
+
+			int count = 0;
+			while (count < size)
+			{
+				int inflated = inflater.inflate(result, count, size - count);
+
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+					break;
+
+				count += inflated;
+			}
+
+			if (count != size)
+				throw new ZipException("Corrupt block in gzip file");
+		}
+		catch (DataFormatException e)
+		{
+			throw new ZipException("Corrupt block in gzip file: " + e.getMessage());
+		}
+		finally
+		{
+			inflater.end();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(result);
+
+		if ((int) crc.getValue() != readInt(rest, dataLength))
+			throw new ZipException("Checksum mismatch in gzip file");
+
+		return result;
+	}
+
+	private static int readShort(byte[] bytes, int offset)
+	{
+		return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+	}
+
+	private static int readInt(byte[] bytes, int offset)
+	{
+		return readShort(bytes, offset) | readShort(bytes, offset + 2) << 16;
+	}
+
+	private boolean nextBlock()
+			throws IOException
+	{
+		if (finished)
+			return false;
+
+		try
+		{
+			byte[] block = blocks.take().get();
+
+			if (block == END)
+			{
+				finished = true;
+				return false;
+			}
+
+			current = block;
+			position = 0;
+			return true;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for gzip data");
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException io)
+				throw io;
+			else
+				throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public int read()
+			throws IOException
+	{
+		while (position == current.length)
+		{
+			if (!nextBlock())
+				return -1;
+		}
+
+		return current[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len)
+			throws IOException
+	{
+		if (len == 0)
+			return 0;
+
+		while (position == current.length)
+		{
+			if (!nextBlock())
+				return -1;
+		}
+
+		int count = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, count);
+		position += count;
+
+		return count;
+	}
+
+	@Override
+	public void close()
+			throws IOException
+	{
+		finished = true;
+		reader.interrupt();
+
+		if (inflaters != null)
+			inflaters.shutdownNow();
+
+		in.close();
+	}
+}
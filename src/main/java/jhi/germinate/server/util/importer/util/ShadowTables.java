@@ -0,0 +1,160 @@
+package jhi.germinate.server.util.importer.util;
+
+import org.jooq.*;
+import org.jooq.Record;
+import org.jooq.impl.DSL;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+import static jhi.germinate.server.database.codegen.tables.Datasetmembers.DATASETMEMBERS;
+import static jhi.germinate.server.database.codegen.tables.Mapdefinitions.MAPDEFINITIONS;
+import static jhi.germinate.server.database.codegen.tables.Phenotypedata.PHENOTYPEDATA;
+
+/**
+ * Per-job staging tables for the bulk data of an import. Instead of writing into the live tables, where big loads compete with the queries of
+ * Germinate and a failed run leaves orphaned rows behind, the data is loaded into a copy of each table and only published into the real one once
+ * the import has succeeded. Publishing is a single <code>INSERT ... SELECT</code> per table, all in one transaction.
+ * <p>
+ * The staging tables are created from the columns of the real table, but without its id, indexes and foreign keys, so loading them doesn't
+ * maintain any. They are regular tables rather than temporary ones, as the import loads them from several connections. Safe to use from any
+ * thread.
+ *
+ * @author Sebastian Raubach
+ */
+public class ShadowTables
+{
+	/** Only these tables are staged. Nothing refers to their rows while the import is running, so they can be published last. */
+	private static final Set<String> SUPPORTED = Set.of(PHENOTYPEDATA.getName(), DATASETMEMBERS.getName(), MAPDEFINITIONS.getName());
+
+	private final Map<Table<?>, Table<Record>> staged = new LinkedHashMap<>();
+	private       String                       suffix = null;
+
+	/**
+	 * Makes the import write into staging tables. Without this, {@link #target(DSLContext, Table)} simply returns the real tables.
+	 *
+	 * @param suffix Appended to the name of the staging tables, unique to the job
+	 */
+	public synchronized void enable(String suffix)
+	{
+		this.suffix = suffix;
+	}
+
+	public synchronized boolean isEnabled()
+	{
+		return suffix != null;
+	}
+
+	/**
+	 * @return <code>true</code> if rows of this table are written to a staging table
+	 */
+	public synchronized boolean isStaged(Table<?> table)
+	{
+		return suffix != null && SUPPORTED.contains(table.getName());
+	}
+
+	/**
+	 * @return The table to write the rows of the given table to. This is its staging table, which is created on first use, if staging is
+	 * enabled, otherwise the table itself.
+	 */
+	public synchronized Table<?> target(DSLContext context, Table<?> table)
+	{
+		if (!isStaged(table))
+			return table;
+
+		Table<Record> result = staged.get(table);
+
+		if (result == null)
+		{
+			result = DSL.table(DSL.name(table.getName() + "_staging_" + suffix));
+
+			// Left over by a run that died before it could clean up
+			context.dropTableIfExists(result).execute();
+			context.execute("CREATE TABLE {0} AS SELECT {1} FROM {2} WHERE 1 = 0", result, DSL.list(getColumns(table)), table);
+
+			staged.put(table, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Inserts the records into the staging table of their table as one multi-row statement. Only the changed values are inserted, everything else
+	 * gets its default.
+	 */
+	public void insert(DSLContext context, List<? extends TableRecord<?>> records)
+	{
+		if (records.isEmpty())
+			return;
+
+		InsertSetStep<?> insert = context.insertInto(target(context, records.get(0).getTable()));
+		InsertSetMoreStep<?> step = null;
+
+		for (TableRecord<?> record : records)
+			step = step == null ? insert.set(record) : step.newRecord().set(record);
+
+		step.execute();
+	}
+
+	/**
+	 * Copies the content of the staging tables into the real tables in a single transaction, then drops the staging tables. Either all of the
+	 * data becomes visible or none of it does.
+	 *
+	 * @return The number of rows published
+	 */
+	public synchronized int publish(DSLContext context)
+	{
+		if (staged.isEmpty())
+			return 0;
+
+		int rows = context.transactionResult(configuration -> {
+			DSLContext transaction = DSL.using(configuration);
+			int count = 0;
+
+			for (Map.Entry<Table<?>, Table<Record>> entry : staged.entrySet())
+			{
+				List<Field<?>> columns = getColumns(entry.getKey());
+
+				count += transaction.insertInto(entry.getKey())
+									.columns(columns)
+									.select(transaction.select(columns).from(entry.getValue()))
+									.execute();
+			}
+
+			return count;
+		});
+
+		Logger.getLogger("").info("Published " + rows + " staged rows into " + staged.keySet());
+
+		drop(context);
+
+		return rows;
+	}
+
+	/**
+	 * Drops the staging tables without publishing them, e.g. because the import failed.
+	 */
+	public synchronized void drop(DSLContext context)
+	{
+		staged.values().forEach(table -> context.dropTableIfExists(table).execute());
+		staged.clear();
+	}
+
+	/**
+	 * @return The unqualified columns of the table without its id, which the real table generates when the rows are published
+	 */
+	private static List<Field<?>> getColumns(Table<?> table)
+	{
+		Identity<?, ?> identity = table.getIdentity();
+
+		List<Field<?>> result = new ArrayList<>();
+
+		for (Field<?> field : table.fields())
+		{
+			if (identity == null || !identity.getField().equals(field))
+				result.add(DSL.field(field.getUnqualifiedName(), field.getDataType()));
+		}
+
+		return result;
+	}
+}
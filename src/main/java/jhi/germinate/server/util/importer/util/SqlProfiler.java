@@ -0,0 +1,196 @@
+package jhi.germinate.server.util.importer.util;
+
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.*;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregates the statements an import executes by their SQL template, i.e. the SQL with bind values as placeholders. For each template it keeps
+ * the number of executions, the total time and an approximate 99th percentile. This shows which statements are worth batching, as thousands of
+ * tiny per-row queries quickly add up. Safe to use from any thread.
+ *
+ * @author Sebastian Raubach
+ */
+public class SqlProfiler implements ExecuteListener
+{
+	private static final String  START        = SqlProfiler.class.getName() + ".start";
+	/** Collapses <code>IN</code> lists of any length, so they end up with the same template */
+	private static final Pattern PLACEHOLDERS = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+
+	private final Map<String, Statement> statements = new ConcurrentHashMap<>();
+
+	@Override
+	public void executeStart(ExecuteContext ctx)
+	{
+		ctx.data(START, System.nanoTime());
+	}
+
+	@Override
+	public void executeEnd(ExecuteContext ctx)
+	{
+		Object start = ctx.data(START);
+
+		if (start == null)
+			return;
+
+		long nanos = System.nanoTime() - (Long) start;
+
+		String sql = ctx.sql();
+		if (sql == null && ctx.batchSQL().length > 0)
+			sql = ctx.batchSQL()[0];
+		if (sql == null)
+			return;
+
+		statements.computeIfAbsent(normalize(sql), Statement::new).add(nanos);
+	}
+
+	static String normalize(String sql)
+	{
+		return PLACEHOLDERS.matcher(sql).replaceAll("?, ...");
+	}
+
+	/**
+	 * @return The templates that took the most time in total, most expensive first
+	 */
+	public List<Statement> getTop(int limit)
+	{
+		List<Statement> result = new ArrayList<>(statements.values());
+		result.sort(Comparator.comparingLong(Statement::getTotalNanos).reversed());
+		return result.subList(0, Math.min(limit, result.size()));
+	}
+
+	public long getCount()
+	{
+		return statements.values().stream().mapToLong(Statement::getCount).sum();
+	}
+
+	/**
+	 * The executions of a single SQL template. Durations are counted in buckets that are a quarter power of two wide, so the percentile is off
+	 * by at most 25%.
+	 */
+	public static class Statement
+	{
+		private static final int SUB_BUCKETS = 4;
+
+		private final String          sql;
+		private final AtomicLong      count   = new AtomicLong();
+		private final AtomicLong      total   = new AtomicLong();
+		private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+
+		private Statement(String sql)
+		{
+			this.sql = sql;
+		}
+
+		private void add(long nanos)
+		{
+			count.incrementAndGet();
+			total.addAndGet(nanos);
+			buckets.incrementAndGet(bucket(Math.max(nanos, 1)));
+		}
+
+		private static int bucket(long nanos)
+		{
+			int log = 63 - Long.numberOfLeadingZeros(nanos);
+
+			// The two bits after the leading one pick the sub-bucket
+			int sub = log < 2 ? 0 : (int) ((nanos >>> (log - 2)) & 3);
+
+			return log * SUB_BUCKETS + sub;
+		}
+
+		private static long upperBound(int bucket)
+		{
+			int log = bucket / SUB_BUCKETS;
+			int sub = bucket % SUB_BUCKETS;
+
+			if (log < 2)
+				return 1L << (log + 1);
+
+			return (1L << log) + ((sub + 1L) << (log - 2));
+		}
+
+		public String getSql()
+		{
+			return sql;
+		}
+
+		public long getCount()
+		{
+			return count.get();
+		}
+
+		public long getTotalNanos()
+		{
+			return total.get();
+		}
+
+		/**
+		 * @return The duration that 99% of the executions didn't exceed, rounded up to the bucket it falls into
+		 */
+		public long getP99Nanos()
+		{
+			long target = (long) Math.ceil(count.get() * 0.99);
+			long seen = 0;
+
+			for (int i = 0; i < buckets.length(); i++)
+			{
+				seen += buckets.get(i);
+
+				if (seen >= target && seen > 0)
+					return upperBound(i);
+			}
+
+			return 0;
+		}
+
+		@Override
+		public String toString()
+		{
+			return count.get() + "x, total " + total.get() / 1_000_000 + "ms, p99 " + String.format("%.2f", getP99Nanos() / 1e6) + "ms: " + sql;
+		}
+	}
+
+	/**
+	 * The summary of a template as stored with the job.
+	 */
+	public static class Summary
+	{
+		private final String sql;
+		private final long   count;
+		private final long   totalMillis;
+		private final double p99Millis;
+
+		public Summary(Statement statement)
+		{
+			this.sql = statement.getSql();
+			this.count = statement.getCount();
+			this.totalMillis = statement.getTotalNanos() / 1_000_000;
+			this.p99Millis = statement.getP99Nanos() / 1e6;
+		}
+
+		public String getSql()
+		{
+			return sql;
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		public long getTotalMillis()
+		{
+			return totalMillis;
+		}
+
+		public double getP99Millis()
+		{
+			return p99Millis;
+		}
+	}
+}
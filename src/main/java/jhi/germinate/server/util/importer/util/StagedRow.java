@@ -0,0 +1,190 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A row of a spreadsheet as it was read during the check, i.e. with the text of its cells already normalized. The check writes these to a
+ * compact binary file, so an import that runs straight afterwards can replay them instead of parsing the workbook a second time.
+ * <p>
+ * The file is a sequence of rows, each made up of the row number, the cell count and the cells themselves as their UTF-8 length followed by the
+ * bytes. Numbers are stored as variable length integers and all of them are shifted by one, so that <code>0</code> can mark the end of the file
+ * and empty cells respectively.
+ *
+ * @author Sebastian Raubach
+ */
+public class StagedRow
+{
+	private final int      rowNum;
+	private final String[] cells;
+
+	/**
+	 * @param rowNum The number of the row in the sheet, as used in the feedback
+	 * @param cells  The normalized cell values, <code>null</code> for empty cells
+	 */
+	public StagedRow(int rowNum, String[] cells)
+	{
+		this.rowNum = rowNum;
+		this.cells = cells;
+	}
+
+	public int getRowNum()
+	{
+		return rowNum;
+	}
+
+	public int getCellCount()
+	{
+		return cells.length;
+	}
+
+	/**
+	 * @return The normalized value of the cell or <code>null</code> if it's empty
+	 * @throws IndexOutOfBoundsException If the row doesn't have that many cells, like the rows of the workbook itself
+	 */
+	public String getCellText(int index)
+	{
+		if (index < 0 || index >= cells.length)
+			throw new IndexOutOfBoundsException("Cell index " + index + " out of range for row " + rowNum);
+
+		return cells[index];
+	}
+
+	private static void writeNumber(OutputStream os, int value)
+			throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			os.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		os.write(value);
+	}
+
+	private static int readNumber(InputStream is)
+			throws IOException
+	{
+		int result = 0;
+
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			int b = is.read();
+
+			if (b == -1)
+				throw new EOFException("Staged rows are truncated");
+
+			result |= (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0)
+				return result;
+		}
+
+		throw new IOException("Staged rows are corrupt");
+	}
+
+	/**
+	 * Writes the rows to the staging file. The file is only complete once the writer has been closed.
+	 */
+	public static class Writer implements Closeable
+	{
+		private final OutputStream os;
+		private       int          rows = 0;
+
+		public Writer(File file)
+				throws IOException
+		{
+			this.os = new BufferedOutputStream(new FileOutputStream(file), 65536);
+		}
+
+		public void write(StagedRow row)
+				throws IOException
+		{
+			writeNumber(os, row.rowNum + 1);
+			writeNumber(os, row.cells.length);
+
+			for (String cell : row.cells)
+			{
+				if (cell == null)
+				{
+					writeNumber(os, 0);
+				}
+				else
+				{
+					byte[] bytes = cell.getBytes(StandardCharsets.UTF_8);
+					writeNumber(os, bytes.length + 1);
+					os.write(bytes);
+				}
+			}
+
+			rows++;
+		}
+
+		public int getRows()
+		{
+			return rows;
+		}
+
+		@Override
+		public void close()
+				throws IOException
+		{
+			// Mark the end, so a truncated file can't be mistaken for a complete one
+			try (os)
+			{
+				writeNumber(os, 0);
+			}
+		}
+	}
+
+	/**
+	 * Reads the rows back in the order they were written.
+	 */
+	public static class Reader implements Closeable
+	{
+		private final InputStream is;
+
+		public Reader(File file)
+				throws IOException
+		{
+			this.is = new BufferedInputStream(new FileInputStream(file), 65536);
+		}
+
+		/**
+		 * @return The next row or <code>null</code> if there are no more
+		 */
+		public StagedRow next()
+				throws IOException
+		{
+			int rowNum = readNumber(is) - 1;
+
+			if (rowNum == -1)
+				return null;
+
+			String[] cells = new String[readNumber(is)];
+
+			for (int i = 0; i < cells.length; i++)
+			{
+				int length = readNumber(is) - 1;
+
+				if (length == -1)
+					continue;
+
+				byte[] bytes = is.readNBytes(length);
+
+				if (bytes.length != length)
+					throw new EOFException("Staged rows are truncated");
+
+				cells[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+
+			return new StagedRow(rowNum, cells);
+		}
+
+		@Override
+		public void close()
+				throws IOException
+		{
+			is.close();
+		}
+	}
+}
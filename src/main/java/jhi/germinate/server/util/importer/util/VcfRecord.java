@@ -0,0 +1,236 @@
+package jhi.germinate.server.util.importer.util;
+
+import java.util.Arrays;
+
+/**
+ * A single data line of a VCF file. The fixed columns are split eagerly, the sample columns are only decoded on request and without creating a
+ * {@link String} per sample.
+ *
+ * @author Sebastian Raubach
+ */
+public class VcfRecord
+{
+	/** The fixed columns: CHROM, POS, ID, REF, ALT, QUAL, FILTER, INFO, FORMAT */
+	public static final int FIXED_COLUMNS = 9;
+
+	private final String   line;
+	private final String[] fixed;
+	private final int      sampleStart;
+	private       String[] alleles;
+
+	private VcfRecord(String line, String[] fixed, int sampleStart)
+	{
+		this.line = line;
+		this.fixed = fixed;
+		this.sampleStart = sampleStart;
+	}
+
+	/**
+	 * @return The parsed record or <code>null</code> if the line doesn't contain the fixed columns and at least one sample
+	 */
+	public static VcfRecord parse(String line)
+	{
+		String[] fixed = new String[FIXED_COLUMNS];
+		int start = 0;
+
+		for (int i = 0; i < FIXED_COLUMNS; i++)
+		{
+			int end = line.indexOf('\t', start);
+
+			if (end == -1)
+				return null;
+
+			fixed[i] = line.substring(start, end);
+			start = end + 1;
+		}
+
+		return new VcfRecord(line, fixed, start);
+	}
+
+	public String getChromosome()
+	{
+		return fixed[0];
+	}
+
+	public String getPosition()
+	{
+		return fixed[1];
+	}
+
+	/**
+	 * @return The ID column or, if that's missing, the chromosome and position joined by an underscore
+	 */
+	public String getMarkerName()
+	{
+		String id = fixed[2];
+
+		if (id.isEmpty() || ".".equals(id))
+			return fixed[0] + "_" + fixed[1];
+		else
+			return id;
+	}
+
+	/**
+	 * @return The index of the GT key within the FORMAT column or <code>-1</code> if there isn't one
+	 */
+	public int getGenotypeIndex()
+	{
+		String[] keys = fixed[8].split(":");
+
+		for (int i = 0; i < keys.length; i++)
+		{
+			if ("GT".equals(keys[i]))
+				return i;
+		}
+
+		return -1;
+	}
+
+	public int getSampleCount()
+	{
+		int count = 1;
+
+		for (int i = sampleStart; i < line.length(); i++)
+		{
+			if (line.charAt(i) == '\t')
+				count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Decodes the GT value of every sample into a Germinate allele call (<code>A</code> for homozygous, <code>A/G</code> for heterozygous and an
+	 * empty string for missing) and maps it to its state table index.
+	 */
+	public byte[] toStates(Hdf5GenotypeWriter<?> writer)
+	{
+		int gtIndex = getGenotypeIndex();
+		byte[] states = new byte[getSampleCount()];
+
+		if (gtIndex == -1)
+			return states;
+
+		// Diploid calls are by far the most common, so remember their state for this record's allele combinations
+		int alleleCount = getAlleles().length;
+		byte[] diploidStates = new byte[(alleleCount + 1) * (alleleCount + 1)];
+		Arrays.fill(diploidStates, (byte) -1);
+
+		int[] gt = new int[8];
+		int pos = sampleStart;
+
+		for (int s = 0; s < states.length; s++)
+		{
+			int end = line.indexOf('\t', pos);
+			if (end == -1)
+				end = line.length();
+
+			// Skip to the GT sub-field
+			int start = pos;
+			for (int k = 0; k < gtIndex && start < end; k++)
+			{
+				int colon = line.indexOf(':', start);
+				start = (colon == -1 || colon > end) ? end : colon + 1;
+			}
+
+			int ploidy = parseGenotype(start, end, gt);
+
+			if (ploidy == 2 && gt[0] < alleleCount && gt[1] < alleleCount)
+			{
+				int key = (gt[0] + 1) * (alleleCount + 1) + (gt[1] + 1);
+				byte state = diploidStates[key];
+
+				if (state == -1)
+				{
+					state = writer.getState(getCall(gt, 2));
+					diploidStates[key] = state;
+				}
+
+				states[s] = state;
+			}
+			else
+			{
+				states[s] = writer.getState(getCall(gt, ploidy));
+			}
+
+			pos = end + 1;
+		}
+
+		return states;
+	}
+
+	/**
+	 * Parses the allele indices of a GT value such as <code>0/1</code>, <code>1|1</code> or <code>./.</code>. Missing alleles are -1.
+	 *
+	 * @return The number of alleles
+	 */
+	private int parseGenotype(int start, int end, int[] gt)
+	{
+		int ploidy = 0;
+		int value = -1;
+
+		for (int i = start; i <= end && ploidy < gt.length; i++)
+		{
+			char c = i < end ? line.charAt(i) : ':';
+
+			if (c >= '0' && c <= '9')
+			{
+				value = (value == -1 ? 0 : value * 10) + (c - '0');
+			}
+			else if (c == '/' || c == '|' || c == ':')
+			{
+				gt[ploidy++] = value;
+				value = -1;
+
+				if (c == ':')
+					break;
+			}
+		}
+
+		return ploidy;
+	}
+
+	private String[] getAlleles()
+	{
+		if (alleles == null)
+		{
+			String[] alt = ".".equals(fixed[4]) ? new String[0] : fixed[4].split(",");
+			alleles = new String[alt.length + 1];
+			alleles[0] = fixed[3];
+			System.arraycopy(alt, 0, alleles, 1, alt.length);
+		}
+
+		return alleles;
+	}
+
+	private String getCall(int[] gt, int ploidy)
+	{
+		String[] alleles = getAlleles();
+		StringBuilder builder = new StringBuilder();
+		String first = null;
+		boolean homozygous = true;
+
+		for (int i = 0; i < ploidy; i++)
+		{
+			// Missing or invalid alleles make the whole call missing
+			if (gt[i] < 0 || gt[i] >= alleles.length)
+				return "";
+
+			String allele = alleles[gt[i]];
+
+			if (first == null)
+				first = allele;
+			else if (!first.equals(allele))
+				homozygous = false;
+
+			if (builder.length() > 0)
+				builder.append('/');
+			builder.append(allele);
+		}
+
+		if (first == null)
+			return "";
+
+		return homozygous ? first : builder.toString();
+	}
+}
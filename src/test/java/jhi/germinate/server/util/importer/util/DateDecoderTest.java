@@ -0,0 +1,77 @@
+package jhi.germinate.server.util.importer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DateDecoderTest
+{
+	@Test
+	void decodesFullDates()
+	{
+		assertEquals(LocalDate.of(2020, 2, 29), DateDecoder.decode("2020-02-29"));
+		assertEquals(LocalDate.of(2020, 2, 29), DateDecoder.decode("20200229"));
+		assertEquals(LocalDate.of(1999, 12, 31), DateDecoder.decode("19991231"));
+	}
+
+	@Test
+	void rejectsInvalidDates()
+	{
+		assertNull(DateDecoder.decode(null));
+		assertNull(DateDecoder.decode(""));
+		assertNull(DateDecoder.decode("2021-02-29"));
+		assertNull(DateDecoder.decode("20210229"));
+		assertNull(DateDecoder.decode("2020-13-01"));
+		assertNull(DateDecoder.decode("2020-04-31"));
+		assertNull(DateDecoder.decode("2020/01/01"));
+		assertNull(DateDecoder.decode("2020-1-01"));
+		assertNull(DateDecoder.decode("2020010"));
+		assertNull(DateDecoder.decode("2O200101"));
+		assertNull(DateDecoder.decode("20200-01"));
+	}
+
+	@Test
+	void decodesMcpdPlaceholders()
+	{
+		// An unknown month or day, given as 00 or --, defaults to the first
+		assertEquals(LocalDate.of(2020, 1, 1), DateDecoder.decode("20200000"));
+		assertEquals(LocalDate.of(2020, 1, 1), DateDecoder.decode("2020----"));
+		assertEquals(LocalDate.of(2020, 3, 1), DateDecoder.decode("202003--"));
+		assertEquals(LocalDate.of(2020, 3, 1), DateDecoder.decode("20200300"));
+		assertEquals(LocalDate.of(2020, 1, 15), DateDecoder.decode("2020--15"));
+		assertEquals(LocalDate.of(2020, 1, 15), DateDecoder.decode("20200015"));
+
+		// Only both dashes make a placeholder
+		assertNull(DateDecoder.decode("20200-15"));
+		assertNull(DateDecoder.decode("202003-1"));
+	}
+
+	@Test
+	void decodesExcelSerials()
+	{
+		assertEquals(LocalDateTime.of(1900, 1, 1, 0, 0), DateDecoder.decodeExcelSerial(1));
+		assertEquals(LocalDateTime.of(2023, 3, 15, 0, 0), DateDecoder.decodeExcelSerial(45000));
+		assertEquals(LocalDateTime.of(2023, 3, 15, 12, 0), DateDecoder.decodeExcelSerial(45000.5));
+		assertEquals(LocalDateTime.of(2023, 3, 15, 18, 30), DateDecoder.decodeExcelSerial(45000 + 18.5 / 24));
+	}
+
+	@Test
+	void decodesExcelSerialsAroundLeapYearBug()
+	{
+		// Excel believes there was a 29th of February 1900, serial 60, so the serials before it are one day off
+		assertEquals(LocalDateTime.of(1900, 2, 28, 0, 0), DateDecoder.decodeExcelSerial(59));
+		assertEquals(LocalDateTime.of(1900, 3, 1, 0, 0), DateDecoder.decodeExcelSerial(61));
+		assertEquals(LocalDateTime.of(1900, 2, 28, 0, 0), DateDecoder.decodeExcelSerial(60));
+	}
+
+	@Test
+	void rejectsExcelSerialsOutOfRange()
+	{
+		assertNull(DateDecoder.decodeExcelSerial(0));
+		assertNull(DateDecoder.decodeExcelSerial(-1));
+		assertNull(DateDecoder.decodeExcelSerial(Double.NaN));
+		assertNull(DateDecoder.decodeExcelSerial(1e9));
+	}
+}
@@ -0,0 +1,225 @@
+package jhi.germinate.server.util.importer.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FieldScannerTest
+{
+	@TempDir
+	Path folder;
+
+	@Test
+	void splitsLikeSplit()
+			throws IOException
+	{
+		String content = "Accession\tMarker 1\tMarker 2\n"
+				+ "G1\tA\tT\r\n"
+				+ "G2\t\tA/T\t\n"
+				+ "\n"
+				+ "\r\n"
+				+ "G3\tÄ\t日本\t\t\r\n"
+				+ "last\tline";
+
+		assertScans(content, FieldScanner.open(write("plain.txt", content, false).toFile(), progress()));
+		assertScans(content, FieldScanner.open(write("compressed.txt.gz", content, true).toFile(), progress()));
+	}
+
+	@Test
+	void dropsCarriageReturnOnlyAtLineEnd()
+			throws IOException
+	{
+		try (FieldScanner scanner = FieldScanner.open(write("cr.txt", "a\rb\tc\r\r\n", false).toFile(), progress()))
+		{
+			assertTrue(scanner.nextLine());
+			assertEquals(2, scanner.getFieldCount());
+			assertEquals("a\rb", scanner.getField(0));
+			assertEquals("c\r", scanner.getField(1));
+			assertFalse(scanner.nextLine());
+		}
+	}
+
+	@Test
+	void keepsTrailingTabs()
+			throws IOException
+	{
+		try (FieldScanner scanner = FieldScanner.open(write("tabs.txt", "G1\tA\t\t\r\n", false).toFile(), progress()))
+		{
+			assertTrue(scanner.nextLine());
+			assertEquals(4, scanner.getFieldCount());
+			assertFalse(scanner.isFieldEmpty(1));
+			assertTrue(scanner.isFieldEmpty(2));
+			assertTrue(scanner.isFieldEmpty(3));
+			assertEquals("", scanner.getField(3));
+			assertArrayEquals(new String[]{"A", "", ""}, scanner.getFields(1));
+			assertThrows(IndexOutOfBoundsException.class, () -> scanner.getField(4));
+		}
+	}
+
+	@Test
+	void readsLinesCrossingTheWindow()
+			throws IOException
+	{
+		// Many short lines, so they end at every offset within a window and keep crossing its end
+		StringBuilder content = new StringBuilder();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 2000; i++)
+		{
+			int fields = 1 + random.nextInt(8);
+
+			for (int f = 0; f < fields; f++)
+			{
+				if (f > 0)
+					content.append('\t');
+				content.append("x".repeat(random.nextInt(6)));
+			}
+
+			content.append(random.nextBoolean() ? "\n" : "\r\n");
+		}
+
+		String text = content.toString();
+		Path file = write("windows.txt", text, false);
+
+		for (long windowSize : new long[]{64, 65, 100, 4096})
+			assertScans(text, FieldScanner.open(file.toFile(), progress(), null, windowSize));
+	}
+
+	@Test
+	void readsCrLfSplitByTheWindow()
+			throws IOException
+	{
+		// With a window of 16 bytes, the \r of the second line is its last byte and the \n the first byte of the next one
+		String content = "ab\ncdefghijklmn\r\nxy\n";
+		Path file = write("crlf.txt", content, false);
+
+		assertScans(content, FieldScanner.open(file.toFile(), progress(), null, 16));
+	}
+
+	@Test
+	void failsOnLineLongerThanTheWindow()
+			throws IOException
+	{
+		Path file = write("long.txt", "short\n" + "x".repeat(100) + "\nshort\n", false);
+
+		try (FieldScanner scanner = FieldScanner.open(file.toFile(), progress(), null, 64))
+		{
+			assertTrue(scanner.nextLine());
+			assertThrows(IOException.class, scanner::nextLine);
+		}
+	}
+
+	@Test
+	void readsCompressedLineLongerThanTheBuffer()
+			throws IOException
+	{
+		// Longer than the buffer the compressed data is read into at first
+		String longLine = "G1\t" + "A\t".repeat(1_500_000) + "T";
+		String content = "header\n" + longLine + "\nG2\tC\n";
+
+		try (FieldScanner scanner = FieldScanner.open(write("long.txt.gz", content, true).toFile(), progress()))
+		{
+			assertTrue(scanner.nextLine());
+			assertTrue(scanner.nextLine());
+			assertEquals(1_500_002, scanner.getFieldCount());
+			assertEquals("T", scanner.getField(1_500_001));
+			assertEquals(longLine, scanner.getLine());
+			assertTrue(scanner.nextLine());
+			assertEquals("G2\tC", scanner.getLine());
+			assertFalse(scanner.nextLine());
+		}
+	}
+
+	@Test
+	void readsEmptyFile()
+			throws IOException
+	{
+		try (FieldScanner scanner = FieldScanner.open(write("empty.txt", "", false).toFile(), progress()))
+		{
+			assertFalse(scanner.nextLine());
+		}
+
+		try (FieldScanner scanner = FieldScanner.open(write("empty.txt.gz", "", true).toFile(), progress()))
+		{
+			assertFalse(scanner.nextLine());
+		}
+	}
+
+	@Test
+	void matchesPrefixOfLine()
+			throws IOException
+	{
+		try (FieldScanner scanner = FieldScanner.open(write("prefix.txt", "# fjFile = GENOTYPE\nrs#\talleles\n", false).toFile(), progress()))
+		{
+			assertTrue(scanner.nextLine());
+			assertTrue(scanner.startsWith("# fjFile"));
+			assertFalse(scanner.startsWith("rs#"));
+			assertTrue(scanner.nextLine());
+			assertTrue(scanner.startsWith("rs#\talleles"));
+			assertFalse(scanner.startsWith("rs#\talleles\tchrom"));
+			assertEquals(2, scanner.getLineNumber());
+		}
+	}
+
+	/**
+	 * Checks that the scanner returns the same lines and fields as reading the content line by line and splitting each line at its tabs.
+	 */
+	private static void assertScans(String content, FieldScanner scanner)
+			throws IOException
+	{
+		try (scanner; BufferedReader reader = new BufferedReader(new StringReader(content)))
+		{
+			String line;
+			long number = 0;
+
+			while ((line = reader.readLine()) != null)
+			{
+				assertTrue(scanner.nextLine(), "Missing line " + (number + 1));
+				number++;
+
+				String[] expected = line.split("\t", -1);
+
+				assertEquals(number, scanner.getLineNumber());
+				assertEquals(line, scanner.getLine());
+				assertEquals(line.isEmpty(), scanner.isEmpty());
+				assertEquals(expected.length, scanner.getFieldCount(), line);
+				assertArrayEquals(expected, scanner.getFields(0), line);
+			}
+
+			assertFalse(scanner.nextLine());
+		}
+	}
+
+	private Path write(String name, String content, boolean compress)
+			throws IOException
+	{
+		Path file = folder.resolve(name);
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+
+		if (compress)
+		{
+			try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(file)))
+			{
+				os.write(bytes);
+			}
+		}
+		else
+		{
+			Files.write(file, bytes);
+		}
+
+		return file;
+	}
+
+	private static ImportProgress progress()
+	{
+		return new ImportProgress(new CancellationToken());
+	}
+}
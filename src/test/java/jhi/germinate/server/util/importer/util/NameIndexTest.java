@@ -0,0 +1,129 @@
+package jhi.germinate.server.util.importer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameIndexTest
+{
+	@Test
+	void ignoresCase()
+	{
+		NameIndex index = new NameIndex();
+		index.put("Golden Promise", 1);
+
+		assertEquals(1, index.get("Golden Promise"));
+		assertEquals(1, index.get("GOLDEN PROMISE"));
+		assertEquals(1, index.get("golden promise"));
+		assertEquals(NameIndex.MISSING, index.get("Golden Promise 2"));
+		assertNull(index.getOrNull("Morex"));
+	}
+
+	@Test
+	void replacesIdOfNameDifferingInCase()
+	{
+		NameIndex index = new NameIndex();
+
+		assertEquals(NameIndex.MISSING, index.put("Morex", 1));
+		assertEquals(1, index.put("MOREX", 2));
+		assertEquals(1, index.size());
+		assertEquals(2, index.get("morex"));
+	}
+
+	@Test
+	void ignoresNull()
+	{
+		NameIndex index = new NameIndex();
+
+		assertEquals(NameIndex.MISSING, index.put(null, 1));
+		assertEquals(NameIndex.MISSING, index.get(null));
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	void growsWithoutLosingEntries()
+	{
+		// Starts out with room for 16 names, so both the entries and the hash table have to grow many times
+		NameIndex index = new NameIndex(1);
+
+		for (int i = 0; i < 20000; i++)
+			index.put((i % 2 == 0 ? "Marker_" : "mArKeR_") + i, i);
+
+		assertEquals(20000, index.size());
+
+		for (int i = 0; i < 20000; i++)
+		{
+			assertEquals(i, index.get("MARKER_" + i));
+			assertEquals(i, index.get("marker_" + i));
+		}
+
+		assertFalse(index.containsKey("marker_20000"));
+	}
+
+	@Test
+	void growsWithLongNames()
+	{
+		NameIndex index = new NameIndex(1);
+		String prefix = "x".repeat(1000);
+
+		for (int i = 0; i < 100; i++)
+			index.put(prefix + i, i);
+
+		for (int i = 0; i < 100; i++)
+			assertEquals(i, index.get(prefix.toUpperCase(Locale.ROOT) + i));
+	}
+
+	@Test
+	void matchesCaseInsensitiveOrder()
+	{
+		// Names that are and aren't equal to String.CASE_INSENSITIVE_ORDER, including ones only equal after folding both ways
+		List<String> names = List.of("Émile", "éMILE", "straße", "STRASSE", "Σίσυφος", "σίσυφοσ", "ΣΊΣΥΦΟΣ", "ı", "I", "i", "Ǆ", "ǅ", "ǆ", "日本", "", "a\tb");
+
+		TreeMap<String, Integer> expected = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		NameIndex index = new NameIndex();
+
+		for (int i = 0; i < names.size(); i++)
+		{
+			expected.put(names.get(i), i);
+			index.put(names.get(i), i);
+		}
+
+		assertEquals(expected.size(), index.size());
+
+		for (String name : names)
+			assertEquals(expected.get(name), index.getOrNull(name), name);
+	}
+
+	@Test
+	void survivesRoundTrip()
+			throws IOException
+	{
+		NameIndex index = new NameIndex(1);
+
+		for (int i = 0; i < 1000; i++)
+			index.put("Germplasm " + i, i * 2);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		index.writeTo(new DataOutputStream(bytes));
+
+		NameIndex copy = NameIndex.readFrom(ByteBuffer.wrap(bytes.toByteArray()));
+
+		assertEquals(1000, copy.size());
+		for (int i = 0; i < 1000; i++)
+			assertEquals(i * 2, copy.get("GERMPLASM " + i));
+
+		// The copy starts out full, so adding to it has to grow it
+		for (int i = 1000; i < 2000; i++)
+			copy.put("Germplasm " + i, i * 2);
+		for (int i = 0; i < 2000; i++)
+			assertEquals(i * 2, copy.get("germplasm " + i));
+
+		List<Integer> ids = new ArrayList<>();
+		copy.forEachId(ids::add);
+		assertEquals(2000, ids.size());
+	}
+}
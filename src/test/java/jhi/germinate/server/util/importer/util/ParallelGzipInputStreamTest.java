@@ -0,0 +1,237 @@
+package jhi.germinate.server.util.importer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelGzipInputStreamTest
+{
+	/** Uncompressed bytes per block, bgzip uses at most 64KB */
+	private static final int BLOCK_SIZE = 65280;
+
+	@Test
+	void readsPlainGzip()
+			throws IOException
+	{
+		// Larger than the chunks the reader thread inflates at a time
+		byte[] data = genotypes(3_000_000);
+
+		assertArrayEquals(data, read(gzip(data), 4));
+	}
+
+	@Test
+	void readsConcatenatedGzipMembers()
+			throws IOException
+	{
+		byte[] first = genotypes(100_000);
+		byte[] second = genotypes(50_000);
+
+		ByteArrayOutputStream members = new ByteArrayOutputStream();
+		members.write(gzip(first));
+		members.write(gzip(second));
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(first);
+		expected.write(second);
+
+		assertArrayEquals(expected.toByteArray(), read(members.toByteArray(), 2));
+	}
+
+	@Test
+	void readsBgzip()
+			throws IOException
+	{
+		byte[] data = genotypes(2_000_000);
+
+		assertArrayEquals(data, read(bgzip(data, false), 4));
+		assertArrayEquals(data, read(bgzip(data, false), 1));
+	}
+
+	@Test
+	void readsBgzipWithEmptyBlocks()
+			throws IOException
+	{
+		byte[] data = genotypes(200_000);
+
+		ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+		blocks.write(bgzip(new byte[0], false));
+		blocks.write(bgzip(data, false));
+
+		assertArrayEquals(data, read(blocks.toByteArray(), 4));
+	}
+
+	@Test
+	void readsSingleBytes()
+			throws IOException
+	{
+		byte[] data = "Line\tA\tB\r\n".getBytes(StandardCharsets.UTF_8);
+
+		for (byte[] compressed : new byte[][]{gzip(data), bgzip(data, false)})
+		{
+			try (InputStream is = new ParallelGzipInputStream(new ByteArrayInputStream(compressed), 2))
+			{
+				for (byte b : data)
+					assertEquals(b & 0xFF, is.read());
+
+				assertEquals(-1, is.read());
+				assertEquals(-1, is.read());
+			}
+		}
+	}
+
+	@Test
+	void readsEmptyFile()
+			throws IOException
+	{
+		assertArrayEquals(new byte[0], read(gzip(new byte[0]), 2));
+		assertArrayEquals(new byte[0], read(bgzip(new byte[0], false), 2));
+	}
+
+	@Test
+	void failsOnCorruptBlock()
+			throws IOException
+	{
+		byte[] compressed = bgzip(genotypes(500_000), true);
+
+		assertThrows(ZipException.class, () -> read(compressed, 4));
+	}
+
+	@Test
+	void failsOnTruncatedFile()
+			throws IOException
+	{
+		byte[] data = genotypes(500_000);
+
+		for (byte[] compressed : new byte[][]{gzip(data), bgzip(data, false)})
+		{
+			byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+
+			assertThrows(IOException.class, () -> read(truncated, 4));
+		}
+	}
+
+	@Test
+	void closesBeforeTheEnd()
+			throws IOException
+	{
+		byte[] data = genotypes(5_000_000);
+
+		for (byte[] compressed : new byte[][]{gzip(data), bgzip(data, false)})
+		{
+			// The background threads are blocked on the full queue, closing must not wait for them
+			InputStream is = new ParallelGzipInputStream(new ByteArrayInputStream(compressed), 2);
+			assertEquals(data[0] & 0xFF, is.read());
+			is.close();
+		}
+	}
+
+	private static byte[] read(byte[] compressed, int threads)
+			throws IOException
+	{
+		try (InputStream is = new ParallelGzipInputStream(new ByteArrayInputStream(compressed), threads))
+		{
+			return is.readAllBytes();
+		}
+	}
+
+	/**
+	 * @return Tab-delimited text that compresses about as well as genotype data
+	 */
+	private static byte[] genotypes(int size)
+	{
+		Random random = new Random(size);
+		String[] alleles = {"A", "C", "G", "T", "A/G", "C/T", "-"};
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream(size);
+
+		while (result.size() < size)
+		{
+			StringBuilder line = new StringBuilder("Germplasm ").append(result.size());
+
+			for (int i = 0; i < 50; i++)
+				line.append('\t').append(alleles[random.nextInt(alleles.length)]);
+
+			result.writeBytes(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+		}
+
+		return Arrays.copyOf(result.toByteArray(), size);
+	}
+
+	private static byte[] gzip(byte[] data)
+			throws IOException
+	{
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+		try (OutputStream os = new GZIPOutputStream(result))
+		{
+			os.write(data);
+		}
+
+		return result.toByteArray();
+	}
+
+	/**
+	 * Compresses the data the way <code>bgzip</code> does: as a sequence of independent gzip members that each carry their compressed size in a
+	 * <code>BC</code> extra field, followed by an empty block that marks the end.
+	 *
+	 * @param corrupt Whether to write a wrong checksum for one of the blocks
+	 */
+	private static byte[] bgzip(byte[] data, boolean corrupt)
+			throws IOException
+	{
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+		int blocks = 0;
+		for (int offset = 0; offset < data.length; offset += BLOCK_SIZE)
+		{
+			int length = Math.min(BLOCK_SIZE, data.length - offset);
+			writeBlock(result, data, offset, length, corrupt && blocks++ == 3);
+		}
+
+		writeBlock(result, data, 0, 0, false);
+
+		return result.toByteArray();
+	}
+
+	private static void writeBlock(ByteArrayOutputStream out, byte[] data, int offset, int length, boolean corrupt)
+	{
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data, offset, length);
+		deflater.finish();
+
+		byte[] deflated = new byte[length + 1024];
+		int deflatedLength = 0;
+		while (!deflater.finished())
+			deflatedLength += deflater.deflate(deflated, deflatedLength, deflated.length - deflatedLength);
+		deflater.end();
+
+		CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+
+		// Header, extra field, data, CRC32 and size
+		int blockSize = 12 + 6 + deflatedLength + 8;
+
+		out.writeBytes(new byte[]{0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0, (byte) 0xFF, 6, 0, 'B', 'C', 2, 0});
+		writeShort(out, blockSize - 1);
+		out.write(deflated, 0, deflatedLength);
+		writeInt(out, (int) crc.getValue() ^ (corrupt ? 1 : 0));
+		writeInt(out, length);
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int value)
+	{
+		out.write(value & 0xFF);
+		out.write((value >> 8) & 0xFF);
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value)
+	{
+		writeShort(out, value & 0xFFFF);
+		writeShort(out, (value >> 16) & 0xFFFF);
+	}
+}